@@ -0,0 +1,196 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import de.tuebingen.sfs.psl.util.data.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Atom identifier. Atom strings are written with and without spaces between the arguments
+ * (e.g. by {@link AtomTemplate#toString()}, {@link RagFilter#atomToSimplifiedString} and user input);
+ * all variants map to equal keys, whose string form is the canonical "pred(arg1, arg2)".
+ * <p>
+ * {@link #of(String)} and {@link #canonical(String)} don't keep any state. To share one key (and one
+ * canonical string) per atom, e.g. within a graph, use a {@link Pool}, which lives as long as its owner
+ * (see {@link RagFilter#getAtomKeyPool()}).
+ */
+public final class AtomKey implements Comparable<AtomKey> {
+
+    private final String atom;
+    private final int predicateEnd;
+    // parsed on demand
+    private volatile String[] args;
+
+    private AtomKey(String atom) {
+        this.atom = atom;
+        int bracket = atom.indexOf('(');
+        this.predicateEnd = (bracket < 0) ? atom.length() : bracket;
+    }
+
+    public static AtomKey of(String atom) {
+        return new AtomKey(canonical(atom));
+    }
+
+    /**
+     * @return the canonical string for the atom, the atom itself if it is already canonical
+     */
+    public static String canonical(String atom) {
+        return isCanonical(atom) ? atom : normalize(atom);
+    }
+
+    // whether normalize(atom) would return an equal string
+    private static boolean isCanonical(String atom) {
+        int open = atom.indexOf('(');
+        int close = atom.lastIndexOf(')');
+        if (open < 0 || close < open)
+            return isTrimmed(atom, 0, atom.length());
+        if (close != atom.length() - 1 || !isTrimmed(atom, 0, open))
+            return false;
+        int start = open + 1;
+        boolean first = true;
+        while (start <= close) {
+            int comma = atom.indexOf(',', start);
+            int end = (comma < 0 || comma > close) ? close : comma;
+            if (!first) {
+                // separated by ", "
+                if (start >= end || atom.charAt(start) != ' ')
+                    return false;
+                start++;
+            }
+            if (!isTrimmed(atom, start, end))
+                return false;
+            first = false;
+            start = end + 1;
+        }
+        return true;
+    }
+
+    // same notion of whitespace as String.trim()
+    private static boolean isTrimmed(String s, int from, int to) {
+        return from >= to || (s.charAt(from) > ' ' && s.charAt(to - 1) > ' ');
+    }
+
+    private static String normalize(String atom) {
+        int open = atom.indexOf('(');
+        int close = atom.lastIndexOf(')');
+        if (open < 0 || close < open)
+            return atom.trim();
+        StringBuilder sb = new StringBuilder(atom.length() + 4);
+        sb.append(atom.substring(0, open).trim()).append('(');
+        int start = open + 1;
+        boolean first = true;
+        while (start <= close) {
+            int comma = atom.indexOf(',', start);
+            int end = (comma < 0 || comma > close) ? close : comma;
+            if (!first)
+                sb.append(", ");
+            sb.append(atom.substring(start, end).trim());
+            first = false;
+            start = end + 1;
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    public String getPredicate() {
+        return atom.substring(0, predicateEnd);
+    }
+
+    public int getArity() {
+        return parseArgs().length;
+    }
+
+    public String getArg(int i) {
+        return parseArgs()[i];
+    }
+
+    /**
+     * @return a copy of the arguments, which are only parsed once per atom
+     */
+    public String[] getArgs() {
+        return parseArgs().clone();
+    }
+
+    private String[] parseArgs() {
+        String[] parsed = args;
+        if (parsed == null) {
+            int close = atom.lastIndexOf(')');
+            if (predicateEnd >= atom.length() || close <= predicateEnd + 1)
+                parsed = new String[0];
+            else
+                // the canonical form separates the arguments by ", "
+                parsed = StringUtils.split(atom.substring(predicateEnd + 1, close), ", ");
+            args = parsed;
+        }
+        return parsed;
+    }
+
+    @Override
+    public String toString() {
+        return atom;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        return o instanceof AtomKey && atom.equals(((AtomKey) o).atom);
+    }
+
+    @Override
+    public int hashCode() {
+        return atom.hashCode();
+    }
+
+    @Override
+    public int compareTo(AtomKey o) {
+        return atom.compareTo(o.atom);
+    }
+
+    /**
+     * Shares one key per atom among the users of the pool, e.g. all groundings of a graph. Only the canonical
+     * strings are stored, so the pool holds one entry per distinct atom and is freed together with its owner.
+     */
+    public static final class Pool {
+
+        private final ConcurrentHashMap<String, AtomKey> keys = new ConcurrentHashMap<>();
+
+        public AtomKey of(String atom) {
+            String canonical = AtomKey.canonical(atom);
+            AtomKey key = keys.get(canonical);
+            if (key == null)
+                key = keys.computeIfAbsent(canonical, AtomKey::new);
+            return key;
+        }
+
+        /**
+         * @return the shared canonical string for the atom
+         */
+        public String canonical(String atom) {
+            return of(atom).atom;
+        }
+
+        public int size() {
+            return keys.size();
+        }
+
+        public void clear() {
+            keys.clear();
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Set of atom strings that stores and looks up every atom in its canonical form (see {@link AtomKey}),
+ * so "p(a,b)" and "p(a, b)" are the same element no matter how they were added.
+ */
+final class CanonicalAtomSet extends AbstractSet<String> {
+
+    private final HashSet<String> atoms = new HashSet<>();
+
+    CanonicalAtomSet() {
+    }
+
+    CanonicalAtomSet(Collection<String> atoms) {
+        addAll(atoms);
+    }
+
+    @Override
+    public boolean add(String atom) {
+        return atoms.add(AtomKey.canonical(atom));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof String && atoms.contains(AtomKey.canonical((String) o));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof String && atoms.remove(AtomKey.canonical((String) o));
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return atoms.iterator();
+    }
+
+    @Override
+    public int size() {
+        return atoms.size();
+    }
+
+    @Override
+    public void clear() {
+        atoms.clear();
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the GraphML (for yEd) of the RAG and RagFilter visualizations through a buffered writer.
+ * Node and edge IDs are XML-escaped.
+ */
+public class GraphMLWriter implements Closeable {
+
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    protected final Writer out;
+    private final boolean closeUnderlying;
+
+    public GraphMLWriter(Writer out) {
+        this(out, true);
+    }
+
+    protected GraphMLWriter(Writer out, boolean closeUnderlying) {
+        this.out = out;
+        this.closeUnderlying = closeUnderlying;
+    }
+
+    /**
+     * Wraps a stream that belongs to the caller (e.g. System.out): {@link #close()} only flushes.
+     */
+    public static GraphMLWriter borrow(OutputStream os) {
+        return new GraphMLWriter(bufferedWriter(os), false);
+    }
+
+    protected static Writer bufferedWriter(OutputStream os) {
+        return new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    public static String escape(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                default:
+                    replacement = null;
+            }
+            if (replacement == null) {
+                if (sb != null)
+                    sb.append(c);
+                continue;
+            }
+            if (sb == null)
+                sb = new StringBuilder(s.length() + 16).append(s, 0, i);
+            sb.append(replacement);
+        }
+        return (sb == null) ? s : sb.toString();
+    }
+
+    public void writeHeader() throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"\n"
+                + "    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"\n"
+                + "    xmlns:y=\"http://www.yworks.com/xml/graphml\"\n"
+                + "    xmlns:yed=\"http://www.yworks.com/xml/yed/3\"\n"
+                + "    xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns\n"
+                + "     http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd\">\n"
+                + "  <key for=\"node\" id=\"d6\" yfiles.type=\"nodegraphics\"/>\n"
+                + "  <key for=\"edge\" id=\"d9\" yfiles.type=\"edgegraphics\"/>\n"
+                + "  <graph id=\"G\" edgedefault=\"undirected\">\n");
+    }
+
+    public void writeNode(String id, String fillColor, String textColor, String shape) throws IOException {
+        String escapedId = escape(id);
+        out.write("    <node id=\"");
+        out.write(escapedId);
+        out.write("\">\n      <data key=\"d6\">\n        <y:ShapeNode>\n"
+                + "          <y:Geometry height=\"25\" width=\"150\"/>\n          <y:Fill color=\"");
+        out.write(fillColor);
+        out.write("\" transparent=\"false\"/>\n"
+                + "          <y:NodeLabel alignment=\"center\" fontsize=\"15\" textColor=\"");
+        out.write(textColor);
+        out.write("\" visible=\"true\">");
+        out.write(escapedId);
+        out.write("</y:NodeLabel>\n          <y:Shape type=\"");
+        out.write(shape);
+        out.write("\"/>\n        </y:ShapeNode>\n      </data>\n    </node>\n");
+    }
+
+    public void writeEdge(int edgeId, String source, String target, String color, double width, String targetArrow)
+            throws IOException {
+        out.write("    <edge id=\"");
+        out.write(Integer.toString(edgeId));
+        out.write("\" source=\"");
+        out.write(escape(source));
+        out.write("\" target=\"");
+        out.write(escape(target));
+        out.write("\">\n      <data key=\"d9\">\n        <y:PolyLineEdge>\n          <y:LineStyle color=\"");
+        out.write(color);
+        out.write("\" type=\"line\" width=\"");
+        out.write(Double.toString(width));
+        out.write("\"/>\n          <y:Arrows source=\"none\" target=\"");
+        out.write(targetArrow);
+        out.write("\"/>\n        </y:PolyLineEdge>\n      </data>\n    </edge>\n");
+    }
+
+    public void writeClosingTags() throws IOException {
+        out.write("  </graph>\n</graphml>\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeUnderlying)
+            out.close();
+        else
+            out.flush();
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.rule.arithmetic.AbstractGroundArithmeticRule;
+import org.linqs.psl.model.rule.arithmetic.WeightedGroundArithmeticRule;
+import org.linqs.psl.model.rule.logical.AbstractGroundLogicalRule;
+import org.linqs.psl.model.rule.logical.WeightedGroundLogicalRule;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+import java.util.List;
+
+/**
+ * The part of a PSL ground rule that the {@link RuleAtomGraph} needs to evaluate a grounding:
+ * the (simplified) atom names, their coefficients, the comparator, the constant and the weight.
+ * For logical rules, the coefficients are -1.0 and 1.0, representing the polarity, and the comparator is null.
+ * Instances do not hold any references to PSL objects, so a graph can keep these after dropping the ground rules.
+ */
+public class GroundRuleData {
+
+    private final String[] atoms;
+    // whether the atom is linked to the grounding in the graph (see RagFilter#isRendered)
+    private final boolean[] rendered;
+    private final double[] coefficients;
+    private final FunctionComparator comparator;
+    private final double constant;
+    private final double weight;
+
+    public GroundRuleData(String[] atoms, boolean[] rendered, double[] coefficients, FunctionComparator comparator,
+                          double constant, double weight) {
+        this.atoms = atoms;
+        this.rendered = rendered;
+        this.coefficients = coefficients;
+        this.comparator = comparator;
+        this.constant = constant;
+        this.weight = weight;
+    }
+
+    public static GroundRuleData fromArithmeticRule(AbstractGroundArithmeticRule rule, RagFilter filter) {
+        double weight = 1.0;
+        if (rule instanceof WeightedGroundArithmeticRule) {
+            weight = ((WeightedGroundArithmeticRule) rule).getWeight();
+        }
+        List<GroundAtom> groundAtoms = AbstractGroundArithmeticRuleAccess.extractAtoms(rule);
+        List<Double> coefficients = AbstractGroundArithmeticRuleAccess.extractCoefficients(rule);
+        return fromAtoms(groundAtoms, coefficients, AbstractGroundArithmeticRuleAccess.extractComparator(rule),
+                AbstractGroundArithmeticRuleAccess.extractConstant(rule), weight, filter);
+    }
+
+    public static GroundRuleData fromLogicalRule(AbstractGroundLogicalRule rule, RagFilter filter) {
+        double weight = 1.0;
+        if (rule instanceof WeightedGroundLogicalRule) {
+            weight = ((WeightedGroundLogicalRule) rule).getWeight();
+        }
+        List<GroundAtom> groundAtoms = AbstractGroundLogicalRuleAccess.extractAtoms(rule);
+        List<Double> signs = AbstractGroundLogicalRuleAccess.extractSigns(rule);
+        return fromAtoms(groundAtoms, signs, null, 0.0, weight, filter);
+    }
+
+    private static GroundRuleData fromAtoms(List<GroundAtom> groundAtoms, List<Double> coefficients,
+                                            FunctionComparator comparator, double constant, double weight,
+                                            RagFilter filter) {
+        int n = groundAtoms.size();
+        String[] atoms = new String[n];
+        boolean[] rendered = new boolean[n];
+        double[] coeffs = new double[n];
+        for (int i = 0; i < n; i++) {
+            GroundAtom atom = groundAtoms.get(i);
+            // pooled, so groundings sharing an atom also share its name
+            atoms[i] = filter.getAtomKeyPool().canonical(filter.atomToSimplifiedString(atom));
+            rendered[i] = filter.isRendered(atom.getPredicate().getName());
+            coeffs[i] = coefficients.get(i);
+        }
+        return new GroundRuleData(atoms, rendered, coeffs, comparator, constant, weight);
+    }
+
+    public boolean isLogical() {
+        return comparator == null;
+    }
+
+    public int size() {
+        return atoms.length;
+    }
+
+    public String getAtom(int i) {
+        return atoms[i];
+    }
+
+    public boolean isRendered(int i) {
+        return rendered[i];
+    }
+
+    public double getCoefficient(int i) {
+        return coefficients[i];
+    }
+
+    double[] getCoefficients() {
+        return coefficients;
+    }
+
+    public FunctionComparator getComparator() {
+        return comparator;
+    }
+
+    public double getConstant() {
+        return constant;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
+    /**
+     * @param values the belief values of the atoms, in the order of {@link #getAtom(int)}
+     * @return the weighted distance to satisfaction (rule violation for arithmetic rules),
+     * as stored by the {@link RuleAtomGraph} (i.e. before applying the dissatisfaction precision)
+     */
+    public double computeWeightedDistance(double[] values) {
+        if (isLogical()) {
+            double bodyScore = 1.0;
+            double headScore = 0.0;
+            for (int i = 0; i < coefficients.length; i++) {
+                if (coefficients[i] > 0) {
+                    bodyScore += values[i] - 1;
+                    if (bodyScore < 0.0)
+                        bodyScore = 0.0;
+                } else if (coefficients[i] < 0) {
+                    headScore += values[i];
+                    if (headScore > 1.0)
+                        headScore = 1.0;
+                }
+            }
+            return weight * (bodyScore - headScore);
+        }
+        double lhs = 0.0;
+        for (int i = 0; i < coefficients.length; i++) {
+            lhs += coefficients[i] * Math.abs(values[i]);
+        }
+        switch (comparator) {
+            case LTE:
+                return weight * (lhs - constant);
+            case GTE:
+                return weight * (constant - lhs);
+            case EQ:
+                return weight * Math.abs(lhs - constant);
+            default:
+                return 0.0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(weight).append(": ");
+        if (isLogical()) {
+            // body literals have a positive sign, head literals a negative one
+            StringBuilder body = new StringBuilder();
+            StringBuilder head = new StringBuilder();
+            for (int i = 0; i < atoms.length; i++) {
+                if (coefficients[i] > 0) {
+                    if (body.length() > 0)
+                        body.append(" & ");
+                    body.append(atoms[i]);
+                } else {
+                    if (head.length() > 0)
+                        head.append(" | ");
+                    head.append(atoms[i]);
+                }
+            }
+            sb.append(body).append(" >> ").append(head);
+        } else {
+            for (int i = 0; i < atoms.length; i++) {
+                if (i > 0)
+                    sb.append(" + ");
+                sb.append(coefficients[i]).append(" * ").append(atoms[i]);
+            }
+            switch (comparator) {
+                case LTE:
+                    sb.append(" <= ");
+                    break;
+                case GTE:
+                    sb.append(" >= ");
+                    break;
+                default:
+                    sb.append(" = ");
+                    break;
+            }
+            sb.append(constant);
+        }
+        return sb.toString();
+    }
+
+}
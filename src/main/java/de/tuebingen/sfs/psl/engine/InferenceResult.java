@@ -17,6 +17,7 @@ package de.tuebingen.sfs.psl.engine;
 
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 public class InferenceResult {
 
@@ -25,13 +26,11 @@ public class InferenceResult {
     private Map<String, Double> inferenceValues;
     // Inference configuration:
     private PslProblemConfig config;
-    private double score;
 
     public InferenceResult(RuleAtomGraph rag, Map<String, Double> inferenceValues, PslProblemConfig config) {
         this.rag = rag;
         this.inferenceValues = inferenceValues;
         this.config = config;
-        this.score = distanceToSatisfaction();
     }
 
     public InferenceResult(RuleAtomGraph rag, Map<String, Double> inferenceValues) {
@@ -62,6 +61,18 @@ public class InferenceResult {
         this.inferenceValues = inferenceValues;
     }
 
+    /**
+     * Releases the PSL ground rules behind the RAG once they are not needed anymore
+     * (see {@link RuleAtomGraph#detach()}), e.g. when keeping many results in memory for evaluation.
+     *
+     * @return this result
+     */
+    public InferenceResult detach() {
+        if (rag != null)
+            rag.detach();
+        return this;
+    }
+
     public PslProblemConfig getConfig() {
         return config;
     }
@@ -70,15 +81,26 @@ public class InferenceResult {
         this.config = config;
     }
 
-    private Double distanceToSatisfaction(){
-        Double score = 0.0;
-        for(String groudingName: rag.getGroundingNodes()){
-            score += rag.distanceToSatisfaction(groudingName);
-        }
-        return score;
+    /**
+     * The total distance to satisfaction of the RAG's groundings. It is computed on the first call and
+     * afterwards kept up to date by the RAG.
+     *
+     * @return the score, or null if there is no RAG
+     */
+    public Double getScore() {
+        if (rag == null)
+            return null;
+        return rag.getTotalDistanceToSatisfaction();
     }
 
-    public Double getScore(){ return score;}
+    /**
+     * @return the distance to satisfaction per rule (empty if there is no RAG)
+     */
+    public Map<String, Double> getScoreByRule() {
+        if (rag == null)
+            return new TreeMap<>();
+        return rag.getDistanceToSatisfactionByRule();
+    }
 
     public String toString() {
         return "InferenceResult[RAG: " + rag + ", inferenceValues: " + inferenceValues + " | CONFIG: "
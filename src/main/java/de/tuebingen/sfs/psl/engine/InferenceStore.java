@@ -19,6 +19,7 @@ import de.tuebingen.sfs.psl.util.data.Multimap;
 import de.tuebingen.sfs.psl.util.data.Multimap.CollectionType;
 
 import java.util.List;
+import java.util.Set;
 
 public class InferenceStore {
 
@@ -37,6 +38,10 @@ public class InferenceStore {
         return map.getList(problemId);
     }
 
+    public Set<String> getProblemIds() {
+        return map.keySet();
+    }
+
     public InferenceResult getLastResult(String problemId) {
     	System.err.println("Retrieving result for " + problemId);
         List<InferenceResult> results = get(problemId);
@@ -148,6 +148,18 @@ public class PartitionManager {
         return problemsWithPartitions;
     }
 
+    /**
+     * @return true if some of the problems reserve the same atoms for writing,
+     * in which case {@link #preparePartitions(List)} refuses to prepare them together
+     */
+    public boolean haveOverlappingWriteAtoms(List<PslProblem> problems) {
+        for (List<PslProblem> overlappingProbs : getAtomsPerProblem(problems, true).keySet()) {
+            if (overlappingProbs.size() > 1)
+                return true;
+        }
+        return false;
+    }
+
     private Multimap<List<PslProblem>, AtomTemplate> getAtomsPerProblem(List<PslProblem> problems, boolean writeAtoms) {
         Multimap<List<PslProblem>, AtomTemplate> problemsToAtoms = new Multimap<>(CollectionType.SET);
         if (problems.size() == 1) {
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import de.tuebingen.sfs.psl.util.data.RankingEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rule groundings sorted by their (weighted) distance to satisfaction, in the order of
+ * {@link RankingEntry#compareTo(RankingEntry)}: ascending by pressure, ties in descending name order.
+ * Threshold and top-k queries only touch the matching suffix of the arrays.
+ */
+public class PressureIndex {
+
+    private final String[] groundings;
+    private final double[] pressures;
+
+    private PressureIndex(String[] groundings, double[] pressures) {
+        this.groundings = groundings;
+        this.pressures = pressures;
+    }
+
+    public static PressureIndex build(Collection<String> groundingNodes, Map<String, Double> groundingStatus) {
+        int n = groundingNodes.size();
+        // after sorting the names, a grounding's position is its rank for the tie-breaking
+        String[] names = groundingNodes.toArray(new String[0]);
+        Arrays.sort(names);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            Double status = groundingStatus.get(names[i]);
+            // + 0.0 turns -0.0 into 0.0, which RankingEntry does not distinguish either
+            values[i] = (status == null) ? 0.0 : status + 0.0;
+        }
+
+        // sort key: rank of the pressure among the distinct pressures, then descending name rank
+        double[] distinct = values.clone();
+        Arrays.sort(distinct);
+        int nDistinct = 0;
+        for (int i = 0; i < n; i++) {
+            if (nDistinct == 0 || Double.compare(distinct[nDistinct - 1], distinct[i]) != 0)
+                distinct[nDistinct++] = distinct[i];
+        }
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long pressureRank = Arrays.binarySearch(distinct, 0, nDistinct, values[i]);
+            keys[i] = (pressureRank << 32) | (n - 1 - i);
+        }
+        Arrays.sort(keys);
+
+        String[] sortedNames = new String[n];
+        double[] sortedValues = new double[n];
+        for (int i = 0; i < n; i++) {
+            int position = n - 1 - (int) keys[i];
+            sortedNames[i] = names[position];
+            sortedValues[i] = values[position];
+        }
+        return new PressureIndex(sortedNames, sortedValues);
+    }
+
+    /**
+     * Splits the index by rule (the grounding name up to the '['), keeping the sort order.
+     */
+    public Map<String, PressureIndex> groupByRule() {
+        String[] rules = new String[groundings.length];
+        Map<String, int[]> ruleToCount = new TreeMap<>();
+        for (int i = 0; i < groundings.length; i++) {
+            rules[i] = ruleName(groundings[i]);
+            ruleToCount.computeIfAbsent(rules[i], r -> new int[1])[0]++;
+        }
+        Map<String, PressureIndex> ruleToIndex = new TreeMap<>();
+        for (Map.Entry<String, int[]> entry : ruleToCount.entrySet()) {
+            int size = entry.getValue()[0];
+            ruleToIndex.put(entry.getKey(), new PressureIndex(new String[size], new double[size]));
+            // from here on the number of groundings added so far
+            entry.getValue()[0] = 0;
+        }
+        for (int i = 0; i < groundings.length; i++) {
+            PressureIndex ruleIndex = ruleToIndex.get(rules[i]);
+            int position = ruleToCount.get(rules[i])[0]++;
+            ruleIndex.groundings[position] = groundings[i];
+            ruleIndex.pressures[position] = pressures[i];
+        }
+        return ruleToIndex;
+    }
+
+    public static String ruleName(String groundingName) {
+        int bracket = groundingName.indexOf('[');
+        return (bracket < 0) ? groundingName : groundingName.substring(0, bracket);
+    }
+
+    public int size() {
+        return groundings.length;
+    }
+
+    public String getGrounding(int i) {
+        return groundings[i];
+    }
+
+    public double getPressure(int i) {
+        return pressures[i];
+    }
+
+    /**
+     * @return the position of the first grounding whose pressure exceeds minPressure
+     */
+    public int firstAbove(double minPressure) {
+        int low = 0;
+        int high = pressures.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pressures[mid] > minPressure)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the first grounding whose pressure is at least minPressure
+     */
+    public int firstAtLeast(double minPressure) {
+        int low = 0;
+        int high = pressures.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pressures[mid] >= minPressure)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    public double sumAtLeast(double minPressure) {
+        return Arrays.stream(pressures, firstAtLeast(minPressure), pressures.length).parallel().sum();
+    }
+
+    public int countAbove(double minPressure) {
+        return pressures.length - firstAbove(minPressure);
+    }
+
+    /**
+     * Same result as the former full scan in {@link RuleAtomGraph#rankGroundingsByPressure(double)}:
+     * all groundings with a pressure above minPressure, in ascending order.
+     */
+    public List<RankingEntry<String>> aboveThreshold(double minPressure) {
+        int from = firstAbove(minPressure);
+        List<RankingEntry<String>> ranking = new ArrayList<>(pressures.length - from);
+        for (int i = from; i < pressures.length; i++) {
+            ranking.add(new RankingEntry<>(groundings[i], pressures[i]));
+        }
+        return ranking;
+    }
+
+    /**
+     * @return the k groundings under the highest pressure, in descending order
+     */
+    public List<RankingEntry<String>> topK(int k) {
+        return topK(k, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @return at most k groundings with a pressure above minPressure, in descending order
+     */
+    public List<RankingEntry<String>> topK(int k, double minPressure) {
+        int from = Math.max(firstAbove(minPressure), pressures.length - Math.max(k, 0));
+        List<RankingEntry<String>> ranking = new ArrayList<>(pressures.length - from);
+        for (int i = pressures.length - 1; i >= from; i--) {
+            ranking.add(new RankingEntry<>(groundings[i], pressures[i]));
+        }
+        return ranking;
+    }
+
+}
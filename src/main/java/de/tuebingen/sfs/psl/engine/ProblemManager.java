@@ -25,8 +25,13 @@ import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
 
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.function.Function;
 
 public class ProblemManager {
 
@@ -126,6 +131,81 @@ public class ProblemManager {
         return result;
     }
 
+    /**
+     * Registers and runs problems in parallel, at most nThreads at a time.
+     * Problems that reserve some of the same atoms for writing (e.g. variants of the same problem with
+     * different configurations) share the database rows of these atoms, so they are never run at the same time:
+     * such a problem is queued until the problems it overlaps with are finished and cleaned up.
+     * The partitions of a batch of problems are prepared together (see {@link PartitionManager#preparePartitions(List)}).
+     *
+     * @param task the inference procedure for a problem, e.g. {@code problem -> () -> Collections.singletonList(problem.call())}
+     * @return the results for each problem, in order (null if the inference failed)
+     */
+    public List<List<InferenceResult>> registerAndRunIsolated(List<PslProblem> problems,
+                                                              Function<PslProblem, Callable<List<InferenceResult>>> task,
+                                                              int nThreads) {
+        List<List<InferenceResult>> results = new ArrayList<>(Collections.nCopies(problems.size(), null));
+        List<Integer> queue = new LinkedList<>();
+        for (int i = 0; i < problems.size(); i++)
+            queue.add(i);
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        try {
+            while (!queue.isEmpty()) {
+                List<PslProblem> batch = new ArrayList<>();
+                List<Integer> batchIndices = new ArrayList<>();
+                for (Iterator<Integer> it = queue.iterator(); it.hasNext() && batch.size() < nThreads; ) {
+                    int i = it.next();
+                    batch.add(problems.get(i));
+                    if (batch.size() > 1 && partitionManager.haveOverlappingWriteAtoms(batch)) {
+                        // stays queued for a later batch
+                        batch.remove(batch.size() - 1);
+                        continue;
+                    }
+                    batchIndices.add(i);
+                    it.remove();
+                }
+                runBatch(batch, batchIndices, task, executor, results);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+
+    private void runBatch(List<PslProblem> batch, List<Integer> batchIndices,
+                          Function<PslProblem, Callable<List<InferenceResult>>> task, ExecutorService executor,
+                          List<List<InferenceResult>> results) {
+        for (PslProblem problem : batch)
+            registerProblem(problem.getName(), problem);
+        try {
+            List<Future<List<InferenceResult>>> futures = new ArrayList<>();
+            for (ProblemWithPartitions problemWithPartitions : partitionManager.preparePartitions(batch)) {
+                PslProblem problem = problemWithPartitions.problem;
+                dbManager.openDatabase(problem.getName(), problemWithPartitions.writePartition,
+                        problem.getClosedPredicates(), problemWithPartitions.readPartitions);
+                futures.add(executor.submit(task.apply(problem)));
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                PslProblem problem = batch.get(i);
+                try {
+                    List<InferenceResult> problemResults = futures.get(i).get();
+                    System.err.println("Inference finished (" + problem.getName() + ")");
+                    for (InferenceResult result : problemResults)
+                        inferenceStore.add(problem.getName(), result);
+                    results.set(batchIndices.get(i), problemResults);
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+                dbManager.closeDatabase(problem.getName());
+            }
+        } catch (PartitionException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            for (PslProblem problem : batch)
+                partitionManager.cleanUp(problem);
+        }
+    }
+
     public boolean preparePartitionsAndRun(List<PslProblem> problems) {
         return preparePartitionsAndRun(problems, partitionManager.stdLogger);
     }
@@ -231,14 +311,19 @@ public class ProblemManager {
 
     public InferenceResult runAndGetBestResult(PslProblem problem, int numRepetitions){
         List<InferenceResult> inferenceResults = runRepeatedly(problem, numRepetitions);
-        List<Double> scores = new ArrayList<>();
-        for(InferenceResult inferenceResult: inferenceResults){
-            System.out.println("Score check:" + inferenceResult.getScore());
-            scores.add(inferenceResult.getScore());
+        int i = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int r = 0; r < inferenceResults.size(); r++) {
+            InferenceResult inferenceResult = inferenceResults.get(r);
+            Double score = (inferenceResult == null) ? null : inferenceResult.getScore();
+            System.out.println("Score check:" + score);
+            if (score != null && (i < 0 || score < bestScore)) {
+                i = r;
+                bestScore = score;
+            }
         }
-        int i = scores.indexOf(Collections.min(scores));
         System.out.println(i);
-        return inferenceResults.get(i);
+        return (i < 0) ? null : inferenceResults.get(i);
     }
 
     private List<InferenceResult> runRepeatedly(PslProblem problem, int numRepetitions){
@@ -17,6 +17,7 @@ package de.tuebingen.sfs.psl.engine;
 
 import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
 import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
 import de.tuebingen.sfs.psl.util.data.Multimap;
 import de.tuebingen.sfs.psl.util.data.Multimap.CollectionType;
 import de.tuebingen.sfs.psl.util.data.RankingEntry;
@@ -33,6 +34,7 @@ import org.linqs.psl.grounding.GroundRuleStore;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.model.rule.WeightedRule;
 import org.linqs.psl.model.rule.arithmetic.AbstractGroundArithmeticRule;
 import org.linqs.psl.model.rule.logical.AbstractGroundLogicalRule;
 import org.linqs.psl.model.term.Constant;
@@ -179,12 +181,41 @@ public abstract class PslProblem implements Callable<InferenceResult> {
     // Feel free to override this method. It has to include a call to runInference()
 //	public abstract InferenceResult call() throws Exception;
     public InferenceResult call() throws Exception {
+        prepareDefaultInference();
+        return createDefaultResult(runInference(true));
+    }
+
+    /**
+     * Runs the default inference procedure (see {@link #call()}) once for every weight setting
+     * (rule name -> weight, see {@link #setRuleWeights(Map)}). After each run, the previous weights are restored.
+     * The rules are only added once, but every run has its own MPEInference, which grounds the rules and builds
+     * the optimization problem again: the ground rules' weights are fixed once they have been turned into
+     * the terms of the optimization problem. So each weight setting costs as much as a separate call().
+     * Problems that override call() with a different procedure should set the weights themselves.
+     */
+    public List<InferenceResult> callForRuleWeights(List<Map<String, Double>> weightSettings) throws Exception {
+        prepareDefaultInference();
+        List<InferenceResult> results = new ArrayList<>();
+        for (Map<String, Double> weights : weightSettings) {
+            Map<String, Double> previousWeights = setRuleWeights(weights);
+            try {
+                results.add(createDefaultResult(runInference(true)));
+            } finally {
+                setRuleWeights(previousWeights);
+            }
+        }
+        return results;
+    }
+
+    private void prepareDefaultInference() {
         System.err.println("Adding interaction rules...");
         addInteractionRules();
-        List<List<GroundRule>> groundRules = runInference(true);
         RuleAtomGraph.GROUNDING_OUTPUT = true;
         RuleAtomGraph.ATOM_VALUE_OUTPUT = true;
         RuleAtomGraph.GROUNDING_SCORE_OUTPUT = true;
+    }
+
+    private InferenceResult createDefaultResult(List<List<GroundRule>> groundRules) {
         Map<String, Double> valueMap = extractResultsForAllPredicates();
         RuleAtomGraph rag = new RuleAtomGraph(this, new RagFilter(valueMap), groundRules);
         return new InferenceResult(rag, valueMap);
@@ -309,14 +340,7 @@ public abstract class PslProblem implements Callable<InferenceResult> {
             MPEInference mpe = new MPEInference(model, inferDB);
             mpe.inference();
             if (getGroundRules) {
-                GroundRuleStore grs = mpe.getGroundRuleStore();
-                groundRules = new ArrayList<>();
-                for (Rule rule : listRules()) {
-                    List<GroundRule> groundRuleList = new ArrayList<>();
-                    for (GroundRule gr : grs.getGroundRules(rule))
-                        groundRuleList.add(gr);
-                    groundRules.add(groundRuleList);
-                }
+                groundRules = collectGroundRules(mpe.getGroundRuleStore());
             }
             mpe.close();
         } catch (IllegalArgumentException e) {
@@ -333,6 +357,17 @@ public abstract class PslProblem implements Callable<InferenceResult> {
         return groundRules;
     }
 
+    private List<List<GroundRule>> collectGroundRules(GroundRuleStore grs) {
+        List<List<GroundRule>> groundRules = new ArrayList<>();
+        for (Rule rule : listRules()) {
+            List<GroundRule> groundRuleList = new ArrayList<>();
+            for (GroundRule gr : grs.getGroundRules(rule))
+                groundRuleList.add(gr);
+            groundRules.add(groundRuleList);
+        }
+        return groundRules;
+    }
+
     protected void declareOpenPredicate(String name, int arity) {
         declareOpenPredicate(new TalkingPredicate(name, arity));
     }
@@ -528,6 +563,28 @@ public abstract class PslProblem implements Callable<InferenceResult> {
         }
     }
 
+    /**
+     * Overrides the weights of weighted rules (rule name -> weight).
+     * Unknown rules and constraints are skipped with a warning.
+     *
+     * @return the previous weights of the changed rules
+     */
+    public Map<String, Double> setRuleWeights(Map<String, Double> ruleWeights) {
+        Map<String, Double> previousWeights = new TreeMap<>();
+        for (Entry<String, Double> entry : ruleWeights.entrySet()) {
+            Rule rule = nameToRule.get(entry.getKey());
+            if (!(rule instanceof WeightedRule)) {
+                System.err.println("Cannot set the weight of '" + entry.getKey() + "': "
+                        + ((rule == null) ? "no such rule." : "not a weighted rule."));
+                continue;
+            }
+            WeightedRule weightedRule = (WeightedRule) rule;
+            previousWeights.put(entry.getKey(), weightedRule.getWeight());
+            weightedRule.setWeight(entry.getValue());
+        }
+        return previousWeights;
+    }
+
     public int nOfRules() {
         return nameToRule.size();
     }
@@ -567,7 +624,7 @@ public abstract class PslProblem implements Callable<InferenceResult> {
             predicates.removeAll(closedPredicates);
         Multimap<String, RankingEntry<AtomTemplate>> predicatesToAtoms = dbManager.getAtomValuesByPredicate(getName(),
                 predicates);
-        Map<String, Double> atomToValue = new TreeMap<>();
+        Map<String, Double> atomToValue = new BeliefMap();
         for (String predicate : predicatesToAtoms.keySet()) {
             for (RankingEntry<AtomTemplate> rankingEntry : predicatesToAtoms.getList(predicate)) {
                 atomToValue.put(rankingEntry.key.toString(), rankingEntry.value);
@@ -603,7 +660,7 @@ public abstract class PslProblem implements Callable<InferenceResult> {
                 }
             }
         }
-        Map<String, Double> results = new TreeMap<>();
+        Map<String, Double> results = new BeliefMap();
         for (Entry<String, Collection<AtomTemplate>> pred : predsToAtoms.entrySet()) {
             List<RankingEntry<AtomTemplate>> atoms = dbManager.getAtoms(pred.getKey(),
                     pred.getValue().toArray(new AtomTemplate[pred.getValue().size()]));
@@ -16,9 +16,16 @@
 package de.tuebingen.sfs.psl.engine;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -29,6 +36,7 @@ import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.term.Constant;
 
 import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
 import de.tuebingen.sfs.psl.util.color.HslColor;
 import de.tuebingen.sfs.psl.util.data.Multimap;
 import de.tuebingen.sfs.psl.util.data.StringUtils;
@@ -45,11 +53,22 @@ public class RagFilter {
     protected Set<String> ignoreInGui;
     protected Set<String> preventUserInteraction;
 
-    // Atoms
+    // Atoms, stored in canonical form (see AtomKey)
     protected Set<String> fixedAtoms;
     // Atoms that shouldn't be displayed but that don't belong to any predicate that's non-persisted by default.
     protected Set<String> hiddenAtoms;
+    // one key per atom for the graphs using this filter
+    private final AtomKey.Pool atomKeys = new AtomKey.Pool();
+    // changed via putBeliefValue() and removeBeliefValue() only, which keep the argument index up to date
     protected Map<String, Double> beliefValues;
+    // same as beliefValues if that is a BeliefMap, for unboxed lookups
+    private BeliefMap beliefMap;
+    // the belief values as returned by getBeliefValues(), writing through the methods above
+    private Map<String, Double> beliefValuesView;
+    // argument position -> argument -> atoms in beliefValues, built on demand
+    private List<Map<String, List<String>>> argumentIndex;
+    // increased whenever a belief value changes, see getVersion()
+    private volatile long version;
 
     public RagFilter() {
         setAll(null, null, null, null, null, null, null);
@@ -71,10 +90,14 @@ public class RagFilter {
                        Set<String> ignoreList, Set<String> ignoreInGui, Set<String> preventUserInteraction,
                        Set<String> fixedAtoms, Set<String> hiddenAtoms) {
         if (beliefValues == null) {
-            this.beliefValues = new TreeMap<String, Double>();
+            this.beliefValues = new BeliefMap();
         } else {
             this.beliefValues = beliefValues;
         }
+        beliefMap = (this.beliefValues instanceof BeliefMap) ? (BeliefMap) this.beliefValues : null;
+        beliefValuesView = new BeliefValuesView();
+        argumentIndex = null;
+        version++;
         if (groundPred2ActualNames == null) {
             this.groundPred2ActualNames = new TreeMap<>();
         } else {
@@ -95,15 +118,16 @@ public class RagFilter {
         } else {
             this.preventUserInteraction = preventUserInteraction;
         }
+        // copies, which canonicalize atoms added later on as well
         if (fixedAtoms == null) {
-            this.fixedAtoms = new HashSet<>();
+            this.fixedAtoms = new CanonicalAtomSet();
         } else {
-            this.fixedAtoms = fixedAtoms;
+            this.fixedAtoms = new CanonicalAtomSet(fixedAtoms);
         }
         if (hiddenAtoms == null) {
-            this.hiddenAtoms = new HashSet<>();
+            this.hiddenAtoms = new CanonicalAtomSet();
         } else {
-            this.hiddenAtoms = hiddenAtoms;
+            this.hiddenAtoms = new CanonicalAtomSet(hiddenAtoms);
         }
     }
 
@@ -123,45 +147,155 @@ public class RagFilter {
         return preventUserInteraction;
     }
 
+    /**
+     * @return the belief values; changes to the map go through {@link #putBeliefValue(String, Double)}
+     * and {@link #removeBeliefValue(Object)}
+     */
     public Map<String, Double> getBeliefValues() {
-        return beliefValues;
+        return beliefValuesView;
+    }
+
+    /**
+     * @return a number that changes whenever a belief value changes, shared by all graphs using this filter
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the previous value, or null if the atom had no value
+     */
+    public Double putBeliefValue(String atom, Double value) {
+        Double old = beliefValues.put(atom, value);
+        if (old == null)
+            atomAdded(atom);
+        version++;
+        return old;
+    }
+
+    /**
+     * @return the removed value, or null if the atom had no value
+     */
+    public Double removeBeliefValue(Object atom) {
+        Double old = beliefValues.remove(atom);
+        if (old != null)
+            atomRemoved((String) atom);
+        version++;
+        return old;
+    }
+
+    private void atomAdded(String atom) {
+        if (argumentIndex != null)
+            indexAtom(argumentIndex, atom);
+    }
+
+    private void atomRemoved(String atom) {
+        if (argumentIndex == null)
+            return;
+        String[] args = getArguments(atom);
+        if (args == null)
+            return;
+        for (int i = 0; i < args.length; i++) {
+            List<String> atoms = argumentIndex.get(i).get(args[i]);
+            if (atoms != null && atoms.remove(atom) && atoms.isEmpty())
+                argumentIndex.get(i).remove(args[i]);
+        }
     }
 
     public double getValueForAtom(String atomRepresentation) {
+        if (beliefMap != null) return beliefMap.getValue(atomRepresentation, -1.0);
         if (beliefValues == null) return -1.0;
         return beliefValues.getOrDefault(atomRepresentation, -1.0);
     }
 
     public double getTransparencyForAtom(String atomRepresentation) {
+        if (beliefMap != null) return beliefMap.getValue(atomRepresentation, 1.0);
         if (beliefValues == null) return -1.0;
         return beliefValues.getOrDefault(atomRepresentation, 1.0);
     }
 
     public Map<String, Double> getAtomsWithFirstArgument(String argument) {
+        return getAtomsWithArgument(0, argument);
+    }
+
+    /**
+     * @return the atoms (and their belief values) with the given argument at the given (0-based) position,
+     * excluding atoms of ignored predicates
+     */
+    public Map<String, Double> getAtomsWithArgument(int position, String argument) {
         Map<String, Double> atoms = new TreeMap<>();
-        for (String atom : beliefValues.keySet()) {
-            String[] predAndArgs = atom.split("\\(");
-            if (ignoreList.contains(predAndArgs[0]) || ignoreInGui.contains(predAndArgs[0])) {
+        List<Map<String, List<String>>> index = getArgumentIndex();
+        if (position < 0 || position >= index.size())
+            return atoms;
+        for (String atom : index.get(position).getOrDefault(argument, Collections.emptyList())) {
+            String pred = atom.substring(0, atom.indexOf('('));
+            if (ignoreList.contains(pred) || ignoreInGui.contains(pred)) {
                 continue;
             }
-            if (argument.equals(predAndArgs[1].split(",")[0].trim())) {
-                atoms.put(atom, beliefValues.get(atom));
-            }
+            Double value = beliefValues.get(atom);
+            if (value != null)
+                atoms.put(atom, value);
         }
         return atoms;
     }
 
+    private List<Map<String, List<String>>> getArgumentIndex() {
+        if (argumentIndex == null) {
+            List<Map<String, List<String>>> index = new ArrayList<>();
+            for (String atom : beliefValues.keySet()) {
+                indexAtom(index, atom);
+            }
+            argumentIndex = index;
+        }
+        return argumentIndex;
+    }
+
+    private static void indexAtom(List<Map<String, List<String>>> index, String atom) {
+        String[] args = getArguments(atom);
+        if (args == null)
+            return;
+        for (int i = 0; i < args.length; i++) {
+            if (index.size() <= i)
+                index.add(new HashMap<>());
+            index.get(i).computeIfAbsent(args[i], arg -> new ArrayList<>()).add(atom);
+        }
+    }
+
+    private static String[] getArguments(String atom) {
+        int open = atom.indexOf('(');
+        if (open < 0)
+            return null;
+        int close = atom.lastIndexOf(')');
+        if (close < open)
+            close = atom.length();
+        String[] args = StringUtils.split(atom.substring(open + 1, close), ',');
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].trim();
+        }
+        return args;
+    }
+
     public double getToneForAtom(String atomRepresentation) {
         // System.err.println("getToneForAtom(" + atomRepresentation + ")");
         return 1.0 - getTransparencyForAtom(atomRepresentation);
     }
 
     public double updateToneForAtom(String atomRepresentation, double newTone) {
+        if (beliefMap != null) {
+            double oldTone = beliefMap.putValue(atomRepresentation, newTone);
+            version++;
+            if (Double.isNaN(oldTone)) {
+                atomAdded(atomRepresentation);
+                return 0.0;
+            }
+            return 1.0 - oldTone;
+        }
         if (beliefValues == null) return 0.0;
         else {
-            Double oldTone = beliefValues.get(atomRepresentation);
-            beliefValues.put(atomRepresentation, newTone);
-            if (oldTone == null) return 0.0;
+            Double oldTone = putBeliefValue(atomRepresentation, newTone);
+            if (oldTone == null) {
+                return 0.0;
+            }
             return 1.0 - oldTone;
         }
     }
@@ -194,10 +328,18 @@ public class RagFilter {
     }
 
     public boolean isFixed(String atom) {
-        if (fixedAtoms.contains(atom)) {
-            return true;
-        }
-        return fixedAtoms.contains(atom.replace(" ", ""));
+        return fixedAtoms.contains(atom);
+    }
+
+    public boolean isFixed(AtomKey atom) {
+        return fixedAtoms.contains(atom.toString());
+    }
+
+    /**
+     * @return the keys of the atoms in the graphs using this filter, shared by all of them
+     */
+    public AtomKey.Pool getAtomKeyPool() {
+        return atomKeys;
     }
 
     public String atomToSimplifiedString(GroundAtom atom) {
@@ -216,100 +358,179 @@ public class RagFilter {
     public void printInformativeValues(PrintStream out) {
         beliefValues.entrySet().stream()
                 .filter(entry -> isRenderedInGui(entry.getKey().split("\\(")[0]) && entry.getValue() > 0.0)
-                .sorted(Comparator.comparing(Map.Entry::getValue, Comparator.reverseOrder()))
+                .sorted(Comparator.comparing(Map.Entry<String, Double>::getValue, Comparator.reverseOrder())
+                        .thenComparing(Map.Entry::getKey))
                 .map(entry -> entry.getKey() + "\t" + entry.getValue()).collect(Collectors.toList())
                 .forEach(out::println);
     }
 
     public void printHeader(PrintStream out) {
-        out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        out.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"");
-        out.println("    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-        out.println("    xmlns:y=\"http://www.yworks.com/xml/graphml\"");
-        out.println("    xmlns:yed=\"http://www.yworks.com/xml/yed/3\"");
-        out.println("    xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns");
-        out.println("     http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd\">");
-        out.println("  <key for=\"node\" id=\"d6\" yfiles.type=\"nodegraphics\"/>");
-        out.println("  <key for=\"edge\" id=\"d9\" yfiles.type=\"edgegraphics\"/>");
-        out.println("  <graph id=\"G\" edgedefault=\"undirected\">");
+        try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+            writer.writeHeader();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void printNodes(PrintStream out, PslProblem pslProblem) {
         Multimap<String, Tuple> predicatesToTuples = pslProblem.getTuplesByPredicate();
-        for (String predName : predicatesToTuples.keySet()) {
-            if (!isRendered(predName)) continue;
-            for (Tuple tuple : predicatesToTuples.get(predName)) {
-                out.println("    <node id=\"" + predName + "(" + tuple.toString() + ")" + "\">");
-                out.println("      <data key=\"d6\">");
-                out.println("        <y:ShapeNode>");
-                out.println("          <y:Geometry height=\"25\" width=\"150\"/>");
-                out.println("          <y:Fill color=\"" + atomToColor(predName + "(" + tuple.toString() + ")") +
-                        "\" transparent=\"false\"/>");
-                out.println(
-                        "          <y:NodeLabel alignment=\"center\" fontsize=\"15\" textColor=\"#000000\" visible=\"true\">" +
-                                (predName + "(" + tuple.toString() + ")") + "</y:NodeLabel>");
-                out.println("          <y:Shape type=\"roundrectangle\"/>");
-                out.println("        </y:ShapeNode>");
-                out.println("      </data>");
-                out.println("    </node>");
+        try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+            for (String predName : predicatesToTuples.keySet()) {
+                if (!isRendered(predName)) continue;
+                for (Tuple tuple : predicatesToTuples.get(predName)) {
+                    String atom = predName + "(" + tuple.toString() + ")";
+                    writer.writeNode(atom, atomToColor(atom), "#000000", "roundrectangle");
+                }
             }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     public void printEdges(PrintStream out, Map<String, Double> connectionStrength,
                            Map<String, String> connectionColor) {
         int edgeID = 0;
-        for (String link : connectionStrength.keySet()) {
-            String node1 = link.substring(0, link.indexOf("\t"));
-            String node2 = link.substring(link.indexOf("\t") + 1);
-            double strength = connectionStrength.get(link);
-            double width = strengthToWidth(strength);
-            String targetArrow = "delta";
-            String colorString = "#c0c0c0";
-            colorString = connectionColor.get(link);
-
-            String reverseLink = node2 + "\t" + node1;
-
-            if (connectionStrength.get(reverseLink) != null) {
-                String otherColor = connectionColor.get(reverseLink);
-                if (otherColor.equals(colorString)) {
-                    if (node1.compareTo(node2) > 0) continue;
-                    targetArrow = "none";
-                    strength = Math.max(strength, connectionStrength.get(reverseLink));
-                } else {
-                    if (colorString.equals("#c0c0c0")) continue;
+        try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+            for (String link : connectionStrength.keySet()) {
+                int tab = link.indexOf('\t');
+                String node1 = link.substring(0, tab);
+                String node2 = link.substring(tab + 1);
+                double strength = connectionStrength.get(link);
+                double width = strengthToWidth(strength);
+                String targetArrow = "delta";
+                String colorString = connectionColor.get(link);
+
+                String reverseLink = node2 + "\t" + node1;
+
+                if (connectionStrength.get(reverseLink) != null) {
+                    String otherColor = connectionColor.get(reverseLink);
+                    if (otherColor.equals(colorString)) {
+                        if (node1.compareTo(node2) > 0) continue;
+                        targetArrow = "none";
+                        strength = Math.max(strength, connectionStrength.get(reverseLink));
+                    } else {
+                        if (colorString.equals("#c0c0c0")) continue;
+                    }
                 }
-            }
 
-            // second version: single link per pair, more difficult to
-            // interpret?
-            /*
-             * String targetArrow = "none"; if (connectionStrength.get(node2 +
-             * "\t" + node1) == null) { targetArrow = "delta"; } else { if
-             * (node1.compareTo(node2) > 0) continue; }
-             */
-
-            out.println("    <edge id=\"" + (edgeID++) + "\" source=\"" + node1 + "\" target=\"" + node2 + "\">");
-            out.println("      <data key=\"d9\">");
-            out.println("        <y:PolyLineEdge>");
-            out.println("          <y:LineStyle color=\"" + colorString + "\" type=\"line\" width=\"" + width + "\"/>");
-            out.println("          <y:Arrows source=\"none\" target=\"" + targetArrow + "\"/>");
-            out.println("        </y:PolyLineEdge>");
-            out.println("      </data>");
-            out.println("    </edge>");
+                // second version: single link per pair, more difficult to
+                // interpret?
+                /*
+                 * String targetArrow = "none"; if (connectionStrength.get(node2 +
+                 * "\t" + node1) == null) { targetArrow = "delta"; } else { if
+                 * (node1.compareTo(node2) > 0) continue; }
+                 */
+
+                writer.writeEdge(edgeID++, node1, node2, colorString, width, targetArrow);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     public void printClosingTags(PrintStream out) {
-        out.println("  </graph>");
-        out.println("</graphml>");
+        try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+            writer.writeClosingTags();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
+    /**
+     * @return the fixed atoms in canonical form; atoms added to the set are canonicalized
+     */
     public Set<String> getFixedAtoms() {
         return fixedAtoms;
     }
 
+    /**
+     * @return the hidden atoms in canonical form; atoms added to the set are canonicalized
+     */
     public Set<String> getHiddenAtoms() {
         return hiddenAtoms;
     }
+
+    private class BeliefValuesView extends AbstractMap<String, Double> {
+
+        @Override
+        public int size() {
+            return beliefValues.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return beliefValues.containsKey(key);
+        }
+
+        @Override
+        public Double get(Object key) {
+            return beliefValues.get(key);
+        }
+
+        @Override
+        public Double getOrDefault(Object key, Double defaultValue) {
+            return beliefValues.getOrDefault(key, defaultValue);
+        }
+
+        @Override
+        public Double put(String key, Double value) {
+            return putBeliefValue(key, value);
+        }
+
+        @Override
+        public Double remove(Object key) {
+            return removeBeliefValue(key);
+        }
+
+        @Override
+        public void clear() {
+            beliefValues.clear();
+            argumentIndex = null;
+            version++;
+        }
+
+        @Override
+        public Set<Entry<String, Double>> entrySet() {
+            return new AbstractSet<Entry<String, Double>>() {
+                @Override
+                public Iterator<Entry<String, Double>> iterator() {
+                    Iterator<Entry<String, Double>> entries = beliefValues.entrySet().iterator();
+                    return new Iterator<Entry<String, Double>>() {
+                        String last;
+
+                        @Override
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Double> next() {
+                            Entry<String, Double> entry = entries.next();
+                            last = entry.getKey();
+                            return new SimpleEntry<String, Double>(last, entry.getValue()) {
+                                @Override
+                                public Double setValue(Double value) {
+                                    // changing the value of a present key doesn't disturb the iteration
+                                    putBeliefValue(getKey(), value);
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+
+                        @Override
+                        public void remove() {
+                            entries.remove();
+                            atomRemoved(last);
+                            version++;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return beliefValues.size();
+                }
+            };
+        }
+    }
 }
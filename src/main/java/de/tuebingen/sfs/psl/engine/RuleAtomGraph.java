@@ -15,6 +15,7 @@
  */
 package de.tuebingen.sfs.psl.engine;
 
+import de.tuebingen.sfs.psl.talk.rule.ExplanationCache;
 import de.tuebingen.sfs.psl.util.color.ColorUtils;
 import de.tuebingen.sfs.psl.util.color.HslColor;
 import de.tuebingen.sfs.psl.util.data.RankingEntry;
@@ -24,20 +25,18 @@ import org.linqs.psl.database.atom.PersistedAtomManager;
 import org.linqs.psl.grounding.GroundRuleStore;
 import org.linqs.psl.grounding.Grounding;
 import org.linqs.psl.grounding.MemoryGroundRuleStore;
-import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.model.rule.arithmetic.AbstractGroundArithmeticRule;
-import org.linqs.psl.model.rule.arithmetic.WeightedGroundArithmeticRule;
 import org.linqs.psl.model.rule.logical.AbstractGroundLogicalRule;
-import org.linqs.psl.model.rule.logical.WeightedGroundLogicalRule;
 import org.linqs.psl.reasoner.Reasoner;
 import org.linqs.psl.reasoner.admm.ADMMReasoner;
 import org.linqs.psl.reasoner.function.FunctionComparator;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +56,10 @@ public class RuleAtomGraph {
 	Map<String, Double> groundingStatus;
 	Set<String> equalityGroundings;
 	Map<String, GroundRule> groundingToGroundRule;
+	// what is needed to re-evaluate the groundings, without references to PSL objects
+	Map<String, GroundRuleData> groundingToData;
+	// if true, the PSL ground rules are not kept (see detach())
+	boolean detached;
 
 	// atoms
 	Set<String> atomNodes;
@@ -71,9 +74,24 @@ public class RuleAtomGraph {
 	Map<String, Set<Tuple>> outgoingLinks;
 	Map<String, List<Tuple>> incomingLinks;
 
+	// groundings sorted by distance to satisfaction, built on demand
+	PressureIndex pressureIndex;
+	Map<String, PressureIndex> rulePressureIndices;
+	// the groundings of single atoms sorted by pressure, built on demand for neighborhood queries
+	Map<String, PressureIndex> atomPressureIndices;
+	// sum of the distances to satisfaction, computed on demand
+	Double totalDistanceToSatisfaction;
+
 	RagFilter filter;
 	InferenceLogger logger;
 
+	// increased whenever values or links change, see getVersion()
+	volatile long version;
+	// the graph this one is a subgraph of, sharing its RagFilter
+	RuleAtomGraph parent;
+	// created on demand
+	ExplanationCache explanationCache;
+
 	public RuleAtomGraph(RagFilter renderer) {
 		this(renderer, new InferenceLogger());
 	}
@@ -89,6 +107,7 @@ public class RuleAtomGraph {
 		groundingStatus = new TreeMap<String, Double>();
 		equalityGroundings = new TreeSet<String>();
 		groundingToGroundRule = new TreeMap<String, GroundRule>();
+		groundingToData = new TreeMap<String, GroundRuleData>();
 
 		links = new TreeSet<Tuple>();
 		linkStatus = new TreeMap<Tuple, String>();
@@ -117,6 +136,9 @@ public class RuleAtomGraph {
 		this.outgoingLinks = outgoingLinks;
 		this.incomingLinks = incomingLinks;
 		this.filter = renderer;
+		this.logger = new InferenceLogger();
+		this.groundingToGroundRule = new TreeMap<String, GroundRule>();
+		this.groundingToData = new TreeMap<String, GroundRuleData>();
 	}
 
 	public RuleAtomGraph(PslProblem problem, RagFilter renderer) {
@@ -186,26 +208,53 @@ public class RuleAtomGraph {
 	}
 
 	private void addGroundArithmeticRule(String groundingName, AbstractGroundArithmeticRule arithmeticRule) {
-		groundingNodes.add(groundingName);
-		groundingToGroundRule.put(groundingName, arithmeticRule);
+		if (!detached)
+			groundingToGroundRule.put(groundingName, arithmeticRule);
 		if (GROUNDING_OUTPUT)
 			logger.logln("  " + groundingName + "\t" + arithmeticRule.toString());
+		addGrounding(groundingName, GroundRuleData.fromArithmeticRule(arithmeticRule, filter));
+	}
+
+	private void addGroundLogicalRule(String groundingName, AbstractGroundLogicalRule logicalRule) {
+		if (!detached)
+			groundingToGroundRule.put(groundingName, logicalRule);
+		if (GROUNDING_OUTPUT)
+			logger.logln("  " + groundingName + "\t" + logicalRule.toString());
+		addGrounding(groundingName, GroundRuleData.fromLogicalRule(logicalRule, filter));
+	}
 
-		double weight = 1.0;
-		if (arithmeticRule instanceof WeightedGroundArithmeticRule) {
-			weight = ((WeightedGroundArithmeticRule) arithmeticRule).getWeight();
+	void addGrounding(String groundingName, GroundRuleData data) {
+		groundingNodes.add(groundingName);
+		groundingToData.put(groundingName, data);
+		for (int i = 0; i < data.size(); i++) {
+			if (!data.isRendered(i))
+				continue;
+			String atomName = data.getAtom(i);
+			atomNodes.add(atomName);
+			addLink(atomName, groundingName);
 		}
+		evaluateGrounding(groundingName, data);
+	}
 
-		List<GroundAtom> groundAtoms = AbstractGroundArithmeticRuleAccess.extractAtoms(arithmeticRule);
-		// set to -1.0 and 1.0 for logical rules, representing the polarity
-		List<Double> coefficients = AbstractGroundArithmeticRuleAccess.extractCoefficients(arithmeticRule);
-		double[] values = extractValueVector(groundAtoms, coefficients, filter);
+	// (Re-)computes the distance to satisfaction of the grounding and the link statuses and counterfactuals
+	// based on the current belief values.
+	private void evaluateGrounding(String groundingName, GroundRuleData data) {
+		if (data.isLogical())
+			evaluateGroundLogicalRule(groundingName, data);
+		else
+			evaluateGroundArithmeticRule(groundingName, data);
+	}
+
+	private void evaluateGroundArithmeticRule(String groundingName, GroundRuleData data) {
+		double weight = data.getWeight();
+		double[] coefficients = data.getCoefficients();
+		double[] values = extractValueVector(data, filter);
 
 		double arithLHS = computeWeightedSum(coefficients, values);
-		double arithRHS = AbstractGroundArithmeticRuleAccess.extractConstant(arithmeticRule);
+		double arithRHS = data.getConstant();
 		double arithRuleViolation = 0.0;
 
-		FunctionComparator comparator = AbstractGroundArithmeticRuleAccess.extractComparator(arithmeticRule);
+		FunctionComparator comparator = data.getComparator();
 		switch (comparator) {
 			case LTE:
 				arithRuleViolation = arithLHS - arithRHS;
@@ -227,17 +276,14 @@ public class RuleAtomGraph {
 			logger.logln("   rule violation: " + weight + " * " + arithRuleViolation + " = " + arithRuleViolation);
 		}
 		groundingStatus.put(groundingName, weightedViolation);
+		invalidatePressureIndex();
 
-		for (int i = 0; i < groundAtoms.size(); i++) {
-			GroundAtom atom = groundAtoms.get(i);
-			if (!filter.isRendered(atom.getPredicate().getName()))
+		for (int i = 0; i < data.size(); i++) {
+			if (!data.isRendered(i))
 				continue;
-			String atomName = filter.atomToSimplifiedString(atom);
-			atomNodes.add(atomName);
-
-			Tuple link = addLink(atomName, groundingName);
+			Tuple link = new Tuple(data.getAtom(i), groundingName);
 
-			double coeff = coefficients.get(i);
+			double coeff = coefficients[i];
 			double signum = Math.signum(coeff);
 			//in inequality with polarity towards satisfaction (- in <=, + in >=)? => green +~
 			if (signum == -1 && comparator == FunctionComparator.LTE
@@ -300,21 +346,11 @@ public class RuleAtomGraph {
 		}
 	}
 
-	private void addGroundLogicalRule(String groundingName, AbstractGroundLogicalRule logicalRule) {
-		groundingNodes.add(groundingName);
-		groundingToGroundRule.put(groundingName, logicalRule);
-		if (GROUNDING_OUTPUT)
-			logger.logln("  " + groundingName + "\t" + logicalRule.toString());
-
-		double weight = 1.0;
-		if (logicalRule instanceof WeightedGroundLogicalRule) {
-			weight = ((WeightedGroundLogicalRule) logicalRule).getWeight();
-		}
-
-		List<GroundAtom> groundAtoms = AbstractGroundLogicalRuleAccess.extractAtoms(logicalRule);
+	private void evaluateGroundLogicalRule(String groundingName, GroundRuleData data) {
+		double weight = data.getWeight();
 		// set to -1.0 and 1.0 for logical rules, representing the polarity
-		List<Double> coefficients = AbstractGroundLogicalRuleAccess.extractSigns(logicalRule);
-		double[] values = extractValueVector(groundAtoms, coefficients, filter);
+		double[] coefficients = data.getCoefficients();
+		double[] values = extractValueVector(data, filter);
 
 		double bodyScore = computeBodyScore(coefficients, values);
 		double headScore = computeHeadScore(coefficients, values);
@@ -326,16 +362,14 @@ public class RuleAtomGraph {
 			logger.logln("   distance to satisfaction: " + weight + " * " + distanceToSatisfaction + " = " + weightedDistToSat);
 		}
 		groundingStatus.put(groundingName, weightedDistToSat);
+		invalidatePressureIndex();
 
-		for (int i = 0; i < groundAtoms.size(); i++) {
-			GroundAtom atom = groundAtoms.get(i);
-			if (!filter.isRendered(atom.getPredicate().getName()))
+		for (int i = 0; i < data.size(); i++) {
+			if (!data.isRendered(i))
 				continue;
-			String atomName = filter.atomToSimplifiedString(atom);
-			atomNodes.add(atomName);
-			Tuple link = addLink(atomName, groundingName);
+			Tuple link = new Tuple(data.getAtom(i), groundingName);
 
-			double coeff = coefficients.get(i);
+			double coeff = coefficients[i];
 			// positive literal in logical rule? up -> more satisfied, down -> less
 			// satisfied => green, +~
 			if (coeff < 0) {
@@ -379,24 +413,124 @@ public class RuleAtomGraph {
 		return filter.getValueForAtom(atomString);
 	}
 
+	/**
+	 * Changes the belief value of an atom and re-evaluates the groundings it is linked to
+	 * (see {@link #recomputeGroundingsForAtom(String)}), in this graph as well as in the graphs
+	 * it is a subgraph of.
+	 */
 	public double updateValue(String atomString, double newValue) {
-		return 1.0 - filter.updateToneForAtom(atomString, newValue);
+		double oldValue = 1.0 - filter.updateToneForAtom(atomString, newValue);
+		for (RuleAtomGraph rag = this; rag != null; rag = rag.parent) {
+			rag.recomputeGroundingsForAtom(atomString);
+			rag.changed();
+		}
+		return oldValue;
+	}
+
+	/**
+	 * @return a number that changes whenever an atom value or a link of the graph changes,
+	 * including value changes through other graphs sharing the RagFilter
+	 */
+	public long getVersion() {
+		// both parts only increase
+		return version + filter.getVersion();
+	}
+
+	private void changed() {
+		version++;
+		ExplanationCache cache = explanationCache;
+		if (cache != null)
+			cache.invalidate();
+	}
+
+	/**
+	 * @return the cache for the explanations of this graph's groundings
+	 * (see {@link de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint#getCachedExplanation})
+	 */
+	public synchronized ExplanationCache getExplanationCache() {
+		if (explanationCache == null)
+			explanationCache = new ExplanationCache();
+		return explanationCache;
+	}
+
+	/**
+	 * Updates the distances to satisfaction, link statuses and counterfactuals of all groundings linked to the atom,
+	 * as well as the total distance to satisfaction.
+	 * Groundings without an underlying ground rule (e.g. in deserialized graphs) are left unchanged.
+	 *
+	 * @return the number of groundings that were re-evaluated
+	 */
+	public int recomputeGroundingsForAtom(String atomName) {
+		int n = 0;
+		for (Tuple link : getOutgoingLinks(atomName)) {
+			if (recomputeGrounding(link.get(1)))
+				n++;
+		}
+		return n;
+	}
+
+	public boolean recomputeGrounding(String groundingName) {
+		GroundRuleData data = groundingToData.get(groundingName);
+		if (data == null)
+			return false;
+		double oldDist = distanceToSatisfaction(groundingName);
+		evaluateGrounding(groundingName, data);
+		if (totalDistanceToSatisfaction != null)
+			totalDistanceToSatisfaction += distanceToSatisfaction(groundingName) - oldDist;
+		return true;
+	}
+
+	/**
+	 * @return the sum of {@link #distanceToSatisfaction(String)} over all groundings,
+	 * kept up to date by {@link #updateValue(String, double)}
+	 */
+	public double getTotalDistanceToSatisfaction() {
+		if (totalDistanceToSatisfaction == null) {
+			totalDistanceToSatisfaction = groundingNodes.parallelStream()
+					.mapToDouble(this::distanceToSatisfaction).sum();
+		}
+		return totalDistanceToSatisfaction;
+	}
+
+	/**
+	 * @return the sum of {@link #distanceToSatisfaction(String)} over the groundings of each rule
+	 */
+	public Map<String, Double> getDistanceToSatisfactionByRule() {
+		Map<String, Double> ruleToDist = new TreeMap<>();
+		for (Map.Entry<String, PressureIndex> entry : getRulePressureIndices().entrySet()) {
+			ruleToDist.put(entry.getKey(), entry.getValue().sumAtLeast(DISSATISFACTION_PRECISION));
+		}
+		return ruleToDist;
+	}
+
+	/**
+	 * @return the change in total distance to satisfaction for each atom when perturbing it by the given offsets
+	 * in both directions (see {@link SensitivityAnalysis})
+	 */
+	public SensitivityAnalysis computeSensitivity(double... offsets) {
+		if (offsets.length == 0)
+			return SensitivityAnalysis.compute(this);
+		return SensitivityAnalysis.compute(this, offsets);
 	}
 
 	public Tuple addLink(String atomName, String groundingName) {
 		Tuple link = new Tuple(atomName, groundingName);
+		// The changed link lists are always put back: maps backed by a file (see LazyRuleAtomGraph)
+		// only keep changes that go through put.
 		Set<Tuple> outgoingLinksForAtom = outgoingLinks.get(atomName);
 		if (outgoingLinksForAtom == null) {
 			outgoingLinksForAtom = new TreeSet<Tuple>();
-			outgoingLinks.put(atomName, outgoingLinksForAtom);
 		}
 		outgoingLinksForAtom.add(link);
+		outgoingLinks.put(atomName, outgoingLinksForAtom);
 		List<Tuple> incomingLinksForGrounding = incomingLinks.get(groundingName);
 		if (incomingLinksForGrounding == null) {
 			incomingLinksForGrounding = new ArrayList<Tuple>();
-			incomingLinks.put(groundingName, incomingLinksForGrounding);
 		}
 		incomingLinksForGrounding.add(link);
+		incomingLinks.put(groundingName, incomingLinksForGrounding);
+		atomPressureIndices = null;
+		changed();
 		return link;
 	}
 
@@ -420,10 +554,48 @@ public class RuleAtomGraph {
 		return outgoingLinksForAtom;
 	}
 
+	/**
+	 * @return the PSL ground rule behind the grounding, or null for groundings of deserialized graphs
+	 * @throws IllegalStateException if the graph has been detached (use {@link #getGroundRuleData(String)} instead)
+	 */
 	public GroundRule getRuleForGrounding(String groundingName) {
+		if (detached && groundingToData.containsKey(groundingName))
+			throw new IllegalStateException("The ground rules of the graph have been released, use getGroundRuleData("
+					+ groundingName + ") instead.");
 		return groundingToGroundRule.get(groundingName);
 	}
 
+	/**
+	 * @return the atoms, coefficients, comparator, constant and weight of the grounding,
+	 * also available after {@link #detach()}; null for groundings of deserialized graphs
+	 */
+	public GroundRuleData getGroundRuleData(String groundingName) {
+		return groundingToData.get(groundingName);
+	}
+
+	/**
+	 * Drops the references to the PSL ground rules, keeping only the compact {@link GroundRuleData}.
+	 * The graph can still be updated via {@link #updateValue(String, double)} afterwards,
+	 * but {@link #getRuleForGrounding(String)} can't be used anymore.
+	 * Graphs are only detached on request (see {@link InferenceResult#detach()}).
+	 */
+	public void detach() {
+		detached = true;
+		groundingToGroundRule = new TreeMap<String, GroundRule>();
+	}
+
+	public boolean isDetached() {
+		return detached;
+	}
+
+	/**
+	 * @return the key of the atom from the filter's pool, which gives access to its predicate and arguments
+	 * without parsing the atom string again (e.g. when generating explanations)
+	 */
+	public AtomKey getAtomKey(String atomName) {
+		return filter.getAtomKeyPool().of(atomName);
+	}
+
 	public List<Tuple> getLinkedAtomsForGroundingWithLinkStatusAsList(String groundingName) {
 		List<Tuple> atomsToStatus = new ArrayList<>();
 		List<Tuple> incomingLinksForGrounding = incomingLinks.get(groundingName);
@@ -450,23 +622,22 @@ public class RuleAtomGraph {
 		return equalityGroundings.contains(groundingName);
 	}
 
-	private double[] extractValueVector(List<GroundAtom> groundAtoms, List<Double> coefficients, RagFilter renderer) {
-		double[] valueVector = new double[groundAtoms.size()];
-		for (int i = 0; i < groundAtoms.size(); i++) {
-			GroundAtom atom = groundAtoms.get(i);
-			String atomRepresentation = renderer.atomToSimplifiedString(atom);
+	private double[] extractValueVector(GroundRuleData data, RagFilter renderer) {
+		double[] valueVector = new double[data.size()];
+		for (int i = 0; i < data.size(); i++) {
+			String atomRepresentation = data.getAtom(i);
 			double value = renderer.getValueForAtom(atomRepresentation);
 			if (ATOM_VALUE_OUTPUT)
-				logger.logln("      " + atomRepresentation + ": " + value + " (coeff = " + coefficients.get(i) + ")");
+				logger.logln("      " + atomRepresentation + ": " + value + " (coeff = " + data.getCoefficient(i) + ")");
 			valueVector[i] = value;
 		}
 		return valueVector;
 	}
 
-	private double computeBodyScore(List<Double> coefficients, double[] values) {
+	private double computeBodyScore(double[] coefficients, double[] values) {
 		double bodyScore = 1.0;
-		for (int i = 0; i < coefficients.size(); i++) {
-			if (coefficients.get(i) > 0) {
+		for (int i = 0; i < coefficients.length; i++) {
+			if (coefficients[i] > 0) {
 				bodyScore += values[i] - 1;
 				if (bodyScore < 0.0)
 					bodyScore = 0.0;
@@ -475,10 +646,10 @@ public class RuleAtomGraph {
 		return bodyScore;
 	}
 
-	private double computeHeadScore(List<Double> coefficients, double[] values) {
+	private double computeHeadScore(double[] coefficients, double[] values) {
 		double headScore = 0.0;
-		for (int i = 0; i < coefficients.size(); i++) {
-			if (coefficients.get(i) < 0) {
+		for (int i = 0; i < coefficients.length; i++) {
+			if (coefficients[i] < 0) {
 				headScore += values[i];
 				if (headScore > 1.0)
 					headScore = 1.0;
@@ -487,10 +658,10 @@ public class RuleAtomGraph {
 		return headScore;
 	}
 
-	private double computeWeightedSum(List<Double> coefficients, double[] values) {
+	private double computeWeightedSum(double[] coefficients, double[] values) {
 		double weightedSum = 0.0;
-		for (int i = 0; i < coefficients.size(); i++) {
-			weightedSum += coefficients.get(i) * Math.abs(values[i]);
+		for (int i = 0; i < coefficients.length; i++) {
+			weightedSum += coefficients[i] * Math.abs(values[i]);
 		}
 		return weightedSum;
 	}
@@ -520,95 +691,299 @@ public class RuleAtomGraph {
 	}
 
 	public void exportToGraphML(PrintStream out) {
-		printHeader(out);
-		printNodes(out);
-		printEdges(out);
-		printClosingTags(out);
+		try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+			writer.writeHeader();
+			writeNodes(writer);
+			writeEdges(writer);
+			writer.writeClosingTags();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	public void printHeader(PrintStream out) {
-		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-		out.println("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\"");
-		out.println("    xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
-		out.println("    xmlns:y=\"http://www.yworks.com/xml/graphml\"");
-		out.println("    xmlns:yed=\"http://www.yworks.com/xml/yed/3\"");
-		out.println("    xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns");
-		out.println("     http://www.yworks.com/xml/schema/graphml/1.1/ygraphml.xsd\">");
-		out.println("  <key for=\"node\" id=\"d6\" yfiles.type=\"nodegraphics\"/>");
-		out.println("  <key for=\"edge\" id=\"d9\" yfiles.type=\"edgegraphics\"/>");
-		out.println("  <graph id=\"G\" edgedefault=\"undirected\">");
+		try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+			writer.writeHeader();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	public void printNodes(PrintStream out) {
-		for (String atomName : atomNodes) {
-			out.println("    <node id=\"" + atomName + "\">");
-			out.println("      <data key=\"d6\">");
-			out.println("        <y:ShapeNode>");
-			out.println("          <y:Geometry height=\"25\" width=\"150\"/>");
-			out.println("          <y:Fill color=\"" + filter.atomToColor(atomName) + "\" transparent=\"false\"/>");
-			out.println(
-					"          <y:NodeLabel alignment=\"center\" fontsize=\"15\" textColor=\"#000000\" visible=\"true\">"
-							+ atomName + "</y:NodeLabel>");
-			out.println("          <y:Shape type=\"roundrectangle\"/>");
-			out.println("        </y:ShapeNode>");
-			out.println("      </data>");
-			out.println("    </node>");
-		}
-		for (String groundingName : groundingNodes) {
-			out.println("    <node id=\"" + groundingName + "\">");
-			out.println("      <data key=\"d6\">");
-			out.println("        <y:ShapeNode>");
-			out.println("          <y:Geometry height=\"25\" width=\"150\"/>");
-			out.println("          <y:Fill color=\"#000000\" transparent=\"false\"/>");
-			out.println("          <y:NodeLabel alignment=\"center\" fontsize=\"15\" textColor=\""
-					+ distToSatisfactionToColor(groundingStatus.get(groundingName)) + "\" visible=\"true\">"
-					+ groundingName + "</y:NodeLabel>");
-			out.println("          <y:Shape type=\"rectangle\"/>");
-			out.println("        </y:ShapeNode>");
-			out.println("      </data>");
-			out.println("    </node>");
+		try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+			writeNodes(writer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void writeNodes(GraphMLWriter writer) throws IOException {
+		for (String atomName : getAtomNodes()) {
+			writer.writeNode(atomName, filter.atomToColor(atomName), "#000000", "roundrectangle");
+		}
+		for (String groundingName : getGroundingNodes()) {
+			writer.writeNode(groundingName, "#000000", distToSatisfactionToColor(getGroundingStatus(groundingName)),
+					"rectangle");
 		}
 	}
 
 	public void printEdges(PrintStream out) {
+		try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+			writeEdges(writer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void writeEdges(GraphMLWriter writer) throws IOException {
 		int edgeID = 0;
-		for (String atom : atomNodes) {
+		for (String atom : getAtomNodes()) {
 			for (Tuple link : getOutgoingLinks(atom)) {
-				String grounding = link.get(1);
-				String targetArrow = "none";
-				String status = linkStatus.get(link);
-				String colorString = statusToColor(status);
-				double width = 2.0;
-
-				out.println(
-						"    <edge id=\"" + (edgeID++) + "\" source=\"" + atom + "\" target=\"" + grounding + "\">");
-				out.println("      <data key=\"d9\">");
-				out.println("        <y:PolyLineEdge>");
-				out.println(
-						"          <y:LineStyle color=\"" + colorString + "\" type=\"line\" width=\"" + width + "\"/>");
-				out.println("          <y:Arrows source=\"none\" target=\"" + targetArrow + "\"/>");
-				out.println("        </y:PolyLineEdge>");
-				out.println("      </data>");
-				out.println("    </edge>");
+				writer.writeEdge(edgeID++, atom, link.get(1), statusToColor(getLinkStatus(link)), 2.0, "none");
 			}
 		}
 	}
 
 	public void printClosingTags(PrintStream out) {
-		out.println("  </graph>");
-		out.println("</graphml>");
+		try (GraphMLWriter writer = GraphMLWriter.borrow(out)) {
+			writer.writeClosingTags();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	public List<RankingEntry<String>> rankGroundingsByPressure(double minPressure) {
-		List<RankingEntry<String>> groundingRanking = new ArrayList<RankingEntry<String>>(groundingNodes.size());
-		for (String groundingName : groundingNodes) {
-			double pressure = groundingStatus.get(groundingName);
-			if (pressure > minPressure) {
-				groundingRanking.add(new RankingEntry<String>(groundingName, pressure));
+		return getPressureIndex().aboveThreshold(minPressure);
+	}
+
+	public List<RankingEntry<String>> rankGroundingsByPressure(String ruleName, double minPressure) {
+		PressureIndex ruleIndex = getPressureIndexForRule(ruleName);
+		if (ruleIndex == null)
+			return new ArrayList<>();
+		return ruleIndex.aboveThreshold(minPressure);
+	}
+
+	public List<RankingEntry<String>> getTopGroundingsByPressure(int k) {
+		return getPressureIndex().topK(k);
+	}
+
+	public List<RankingEntry<String>> getTopGroundingsByPressure(String ruleName, int k) {
+		PressureIndex ruleIndex = getPressureIndexForRule(ruleName);
+		if (ruleIndex == null)
+			return new ArrayList<>();
+		return ruleIndex.topK(k);
+	}
+
+	public PressureIndex getPressureIndex() {
+		if (pressureIndex == null) {
+			pressureIndex = PressureIndex.build(groundingNodes, groundingStatus);
+		}
+		return pressureIndex;
+	}
+
+	public PressureIndex getPressureIndexForRule(String ruleName) {
+		return getRulePressureIndices().get(ruleName);
+	}
+
+	private Map<String, PressureIndex> getRulePressureIndices() {
+		if (rulePressureIndices == null) {
+			rulePressureIndices = getPressureIndex().groupByRule();
+		}
+		return rulePressureIndices;
+	}
+
+	/**
+	 * @return the groundings linked to the atom, sorted by pressure
+	 */
+	public PressureIndex getPressureIndexForAtom(String atomName) {
+		if (atomPressureIndices == null) {
+			atomPressureIndices = new HashMap<>();
+		}
+		PressureIndex atomIndex = atomPressureIndices.get(atomName);
+		if (atomIndex == null) {
+			List<String> groundings = new ArrayList<>();
+			for (Tuple link : getOutgoingLinks(atomName)) {
+				groundings.add(link.get(1));
+			}
+			atomIndex = PressureIndex.build(groundings, groundingStatus);
+			atomPressureIndices.put(atomName, atomIndex);
+		}
+		return atomIndex;
+	}
+
+	// Needs to be called whenever groundingStatus changes.
+	void invalidatePressureIndex() {
+		pressureIndex = null;
+		rulePressureIndices = null;
+		atomPressureIndices = null;
+	}
+
+	/**
+	 * Returns the subgraph within the given number of hops (atom-grounding links) around an atom or grounding.
+	 * Groundings are always included with all of their atoms so that explanations can still be generated;
+	 * only the atoms that are within reach get expanded further.
+	 *
+	 * @param node        atom or grounding name
+	 * @param hops        maximum number of links between the node and any expanded node
+	 * @param maxFanOut   maximum number of groundings followed per expanded atom (highest pressure first)
+	 * @param minPressure groundings with a distance to satisfaction of at most minPressure are skipped
+	 *                    (as in {@link #rankGroundingsByPressure(double)})
+	 * @param offset      pagination over the groundings of the start atom (highest pressure first)
+	 * @param limit       pagination over the groundings of the start atom
+	 * @return a RuleAtomGraph sharing this graph's RagFilter, or null if the node is unknown
+	 */
+	public RuleAtomGraph getNeighborhood(String node, int hops, int maxFanOut, double minPressure, int offset,
+										 int limit) {
+		Set<String> atoms = new TreeSet<>();
+		Set<String> groundings = new TreeSet<>();
+		// atoms to be expanded, with their distance (in links) to the start node
+		LinkedList<String> agenda = new LinkedList<>();
+		Map<String, Integer> atomToDist = new HashMap<>();
+		boolean startAtAtom = atomNodes.contains(node);
+		if (startAtAtom) {
+			atoms.add(node);
+			if (hops > 0) {
+				agenda.add(node);
+				atomToDist.put(node, 0);
+			}
+		} else if (groundingNodes.contains(node)) {
+			groundings.add(node);
+			for (Tuple link : getIncomingLinksOrEmpty(node)) {
+				if (atoms.add(link.get(0)) && hops > 1) {
+					agenda.add(link.get(0));
+					atomToDist.put(link.get(0), 1);
+				}
+			}
+		} else {
+			return null;
+		}
+
+		while (!agenda.isEmpty()) {
+			String atom = agenda.poll();
+			int dist = atomToDist.get(atom);
+			List<String> neighbors = getGroundingsForAtomByPressure(atom, minPressure);
+			int from = 0;
+			int to = neighbors.size();
+			if (startAtAtom && dist == 0) {
+				from = Math.min(Math.max(offset, 0), to);
+				to = (int) Math.min(to, (long) from + Math.max(limit, 0));
+			}
+			to = (int) Math.min(to, (long) from + Math.max(maxFanOut, 0));
+			for (String grounding : neighbors.subList(from, to)) {
+				if (!groundings.add(grounding))
+					continue;
+				for (Tuple link : getIncomingLinksOrEmpty(grounding)) {
+					String neighbor = link.get(0);
+					if (atoms.add(neighbor) && dist + 2 < hops) {
+						agenda.add(neighbor);
+						atomToDist.put(neighbor, dist + 2);
+					}
+				}
 			}
 		}
-		Collections.sort(groundingRanking);
-		return groundingRanking;
+		return subgraph(atoms, groundings);
+	}
+
+	public RuleAtomGraph getNeighborhood(String node, int hops) {
+		return getNeighborhood(node, hops, Integer.MAX_VALUE, Double.NEGATIVE_INFINITY, 0, Integer.MAX_VALUE);
+	}
+
+	public RuleAtomGraph getNeighborhood(String node, int hops, int maxFanOut, double minPressure) {
+		return getNeighborhood(node, hops, maxFanOut, minPressure, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the number of groundings of an atom with a pressure above minPressure, for paging through
+	 * {@link #getNeighborhood(String, int, int, double, int, int)}
+	 */
+	public int countGroundingsForAtom(String atomName, double minPressure) {
+		return getPressureIndexForAtom(atomName).countAbove(minPressure);
+	}
+
+	private List<String> getGroundingsForAtomByPressure(String atomName, double minPressure) {
+		// highest pressure first, ties by name
+		List<String> groundings = new ArrayList<>();
+		for (RankingEntry<String> entry : getPressureIndexForAtom(atomName).topK(Integer.MAX_VALUE, minPressure)) {
+			groundings.add(entry.key);
+		}
+		return groundings;
+	}
+
+	private List<Tuple> getIncomingLinksOrEmpty(String groundingName) {
+		List<Tuple> incoming = incomingLinks.get(groundingName);
+		return (incoming == null) ? new ArrayList<>() : incoming;
+	}
+
+	/**
+	 * Restricts the graph to the given nodes. Links are kept if both of their ends are kept.
+	 * The resulting graph shares this graph's RagFilter; value updates through it are applied to this graph as well.
+	 */
+	public RuleAtomGraph subgraph(Set<String> atoms, Set<String> groundings) {
+		Set<String> subGroundingNodes = new TreeSet<>();
+		Map<String, Double> subGroundingStatus = new TreeMap<>();
+		Set<String> subEqualityGroundings = new TreeSet<>();
+		for (String grounding : groundings) {
+			if (!groundingNodes.contains(grounding))
+				continue;
+			subGroundingNodes.add(grounding);
+			subGroundingStatus.put(grounding, groundingStatus.get(grounding));
+			if (equalityGroundings.contains(grounding))
+				subEqualityGroundings.add(grounding);
+		}
+
+		Set<String> subAtomNodes = new TreeSet<>();
+		Map<String, String> subAtomStatus = new TreeMap<>();
+		for (String atom : atoms) {
+			if (!atomNodes.contains(atom))
+				continue;
+			subAtomNodes.add(atom);
+			if (atomStatus.containsKey(atom))
+				subAtomStatus.put(atom, atomStatus.get(atom));
+		}
+
+		Set<Tuple> subLinks = new TreeSet<>();
+		Map<Tuple, String> subLinkStatus = new TreeMap<>();
+		Map<Tuple, Double> subLinkToCounterfactual = new TreeMap<>();
+		Map<Tuple, double[]> subEqualityRuleLinkToCounterfactual = new TreeMap<>();
+		Map<Tuple, Double> subLinkStrength = new TreeMap<>();
+		Map<String, Set<Tuple>> subOutgoingLinks = new TreeMap<>();
+		Map<String, List<Tuple>> subIncomingLinks = new TreeMap<>();
+		for (String grounding : subGroundingNodes) {
+			List<Tuple> incoming = new ArrayList<>();
+			for (Tuple link : getIncomingLinksOrEmpty(grounding)) {
+				String atom = link.get(0);
+				if (!subAtomNodes.contains(atom))
+					continue;
+				incoming.add(link);
+				subLinks.add(link);
+				subOutgoingLinks.computeIfAbsent(atom, a -> new TreeSet<>()).add(link);
+				if (linkStatus.containsKey(link))
+					subLinkStatus.put(link, linkStatus.get(link));
+				if (linkToCounterfactual.containsKey(link))
+					subLinkToCounterfactual.put(link, linkToCounterfactual.get(link));
+				if (equalityRuleLinkToCounterfactual.containsKey(link))
+					subEqualityRuleLinkToCounterfactual.put(link, equalityRuleLinkToCounterfactual.get(link));
+				if (linkStrength.containsKey(link))
+					subLinkStrength.put(link, linkStrength.get(link));
+			}
+			subIncomingLinks.put(grounding, incoming);
+		}
+
+		RuleAtomGraph sub = new RuleAtomGraph(subGroundingNodes, subGroundingStatus, subEqualityGroundings,
+				subAtomNodes, subAtomStatus, subLinks, subLinkStatus, subLinkToCounterfactual,
+				subEqualityRuleLinkToCounterfactual, subLinkStrength, subOutgoingLinks, subIncomingLinks, filter);
+		sub.logger = logger;
+		sub.detached = detached;
+		sub.parent = this;
+		for (String grounding : subGroundingNodes) {
+			GroundRule groundRule = groundingToGroundRule.get(grounding);
+			if (groundRule != null)
+				sub.groundingToGroundRule.put(grounding, groundRule);
+			GroundRuleData data = groundingToData.get(grounding);
+			if (data != null)
+				sub.groundingToData.put(grounding, data);
+		}
+		return sub;
 	}
 
 	public HslColor atomToBaseColor(String name) {
@@ -623,6 +998,10 @@ public class RuleAtomGraph {
 		return filter.isFixed(atom);
 	}
 
+	public boolean isFixed(AtomKey atom) {
+		return filter.isFixed(atom);
+	}
+
 	public Set<String> getAtomNodes() {
 		return atomNodes;
 	}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import de.tuebingen.sfs.psl.util.data.RankingEntry;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Changes in the total distance to satisfaction of a {@link RuleAtomGraph} when lowering or raising the value
+ * of a single atom by different offsets, computed for all atoms at once.
+ * This generalizes the per-link counterfactuals (which use {@link RuleAtomGraph#COUNTERFACTUAL_OFFSET}).
+ * Only groundings with {@link GroundRuleData} are taken into account, i.e. not those of deserialized graphs.
+ */
+public class SensitivityAnalysis {
+
+    public static final double[] DEFAULT_OFFSETS = {RuleAtomGraph.COUNTERFACTUAL_OFFSET, 0.05, 0.1, 0.25};
+
+    // sorted, for binary search
+    private final String[] atoms;
+    private final double[] offsets;
+    // [atom][offset]: change in total distance to satisfaction when lowering/raising the atom by the offset
+    private final double[][] lowerDeltas;
+    private final double[][] raiseDeltas;
+
+    private SensitivityAnalysis(String[] atoms, double[] offsets, double[][] lowerDeltas, double[][] raiseDeltas) {
+        this.atoms = atoms;
+        this.offsets = offsets;
+        this.lowerDeltas = lowerDeltas;
+        this.raiseDeltas = raiseDeltas;
+    }
+
+    public static SensitivityAnalysis compute(RuleAtomGraph rag) {
+        return compute(rag, DEFAULT_OFFSETS);
+    }
+
+    public static SensitivityAnalysis compute(RuleAtomGraph rag, double... offsets) {
+        String[] atoms = rag.getAtomNodes().toArray(new String[0]);
+        Arrays.sort(atoms);
+        double[] offsetsCopy = offsets.clone();
+        double[][] lowerDeltas = new double[atoms.length][];
+        double[][] raiseDeltas = new double[atoms.length][];
+        IntStream.range(0, atoms.length).parallel().forEach(a -> {
+            double[] lower = new double[offsetsCopy.length];
+            double[] raise = new double[offsetsCopy.length];
+            // an atom can be linked to the same grounding more than once (with different statuses)
+            Set<String> groundings = new HashSet<>();
+            for (Tuple link : rag.getOutgoingLinks(atoms[a])) {
+                if (!groundings.add(link.get(1)))
+                    continue;
+                GroundRuleData data = rag.getGroundRuleData(link.get(1));
+                if (data == null)
+                    continue;
+                addDeltas(rag, data, atoms[a], offsetsCopy, lower, raise);
+            }
+            lowerDeltas[a] = lower;
+            raiseDeltas[a] = raise;
+        });
+        return new SensitivityAnalysis(atoms, offsetsCopy, lowerDeltas, raiseDeltas);
+    }
+
+    private static void addDeltas(RuleAtomGraph rag, GroundRuleData data, String atom, double[] offsets,
+                                  double[] lower, double[] raise) {
+        double[] values = new double[data.size()];
+        // an atom can occur in several positions of a grounding, which all change together
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rag.getValue(data.getAtom(i));
+            if (data.getAtom(i).equals(atom))
+                positions.add(i);
+        }
+        if (positions.isEmpty())
+            return;
+        double origValue = values[positions.get(0)];
+        double baseline = clamp(data.computeWeightedDistance(values));
+        for (int k = 0; k < offsets.length; k++) {
+            setAll(values, positions, Math.max(0.0, origValue - offsets[k]));
+            lower[k] += clamp(data.computeWeightedDistance(values)) - baseline;
+            setAll(values, positions, Math.min(1.0, origValue + offsets[k]));
+            raise[k] += clamp(data.computeWeightedDistance(values)) - baseline;
+        }
+    }
+
+    private static void setAll(double[] values, List<Integer> positions, double value) {
+        for (int i : positions) {
+            values[i] = value;
+        }
+    }
+
+    // same as RuleAtomGraph#distanceToSatisfaction
+    private static double clamp(double dist) {
+        return (dist < RuleAtomGraph.DISSATISFACTION_PRECISION) ? 0.0 : dist;
+    }
+
+    public double[] getOffsets() {
+        return offsets.clone();
+    }
+
+    public int size() {
+        return atoms.length;
+    }
+
+    public boolean contains(String atom) {
+        return Arrays.binarySearch(atoms, atom) >= 0;
+    }
+
+    /**
+     * @return the change in the total distance to satisfaction if the atom is lowered by offsets[offsetIndex],
+     * 0.0 for atoms that are not in the graph
+     */
+    public double getLowerDelta(String atom, int offsetIndex) {
+        int i = Arrays.binarySearch(atoms, atom);
+        return (i < 0) ? 0.0 : lowerDeltas[i][offsetIndex];
+    }
+
+    /**
+     * @return the change in the total distance to satisfaction if the atom is raised by offsets[offsetIndex],
+     * 0.0 for atoms that are not in the graph
+     */
+    public double getRaiseDelta(String atom, int offsetIndex) {
+        int i = Arrays.binarySearch(atoms, atom);
+        return (i < 0) ? 0.0 : raiseDeltas[i][offsetIndex];
+    }
+
+    /**
+     * Ranks the atoms by the largest absolute change in the total distance to satisfaction
+     * that a perturbation by offsets[offsetIndex] (in either direction) would cause.
+     *
+     * @return the atoms with a non-zero influence, in descending order
+     */
+    public List<RankingEntry<String>> rankAtomsByInfluence(int offsetIndex) {
+        List<RankingEntry<String>> ranking = new ArrayList<>();
+        for (int a = 0; a < atoms.length; a++) {
+            double influence = Math.max(Math.abs(lowerDeltas[a][offsetIndex]), Math.abs(raiseDeltas[a][offsetIndex]));
+            if (influence > 0.0)
+                ranking.add(new RankingEntry<>(atoms[a], influence));
+        }
+        ranking.sort(Collections.reverseOrder());
+        return ranking;
+    }
+
+    /**
+     * Ranks the atoms by how much lowering (raise = false) or raising (raise = true) them by offsets[offsetIndex]
+     * would reduce the total distance to satisfaction.
+     *
+     * @return the atoms whose perturbation reduces the distance, largest reduction first
+     */
+    public List<RankingEntry<String>> rankAtomsByImprovement(int offsetIndex, boolean raise) {
+        double[][] deltas = raise ? raiseDeltas : lowerDeltas;
+        List<RankingEntry<String>> ranking = new ArrayList<>();
+        for (int a = 0; a < atoms.length; a++) {
+            double reduction = -deltas[a][offsetIndex];
+            if (reduction > 0.0)
+                ranking.add(new RankingEntry<>(atoms[a], reduction));
+        }
+        ranking.sort(Collections.reverseOrder());
+        return ranking;
+    }
+
+}
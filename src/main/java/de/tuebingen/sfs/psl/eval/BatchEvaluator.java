@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.eval;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.InferenceStore;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates many stored {@link InferenceResult}s against a gold standard in parallel.
+ * The inference value maps are evaluated directly (see {@link ModelEvaluator#ModelEvaluator(InferenceResult, GoldStandard)}),
+ * so no database is needed. Since gold standards keep track of the atoms found so far,
+ * every run gets its own gold standard instance from the supplier.
+ */
+public class BatchEvaluator {
+
+    private final Supplier<GoldStandard> gsSupplier;
+    private boolean keepNonGoldAtoms = false;
+    private boolean includeThresholdEvaluation = true;
+
+    public BatchEvaluator(Supplier<GoldStandard> gsSupplier) {
+        this.gsSupplier = gsSupplier;
+    }
+
+    public void setKeepNonGoldAtoms(boolean keepNonGoldAtoms) {
+        this.keepNonGoldAtoms = keepNonGoldAtoms;
+    }
+
+    public void setIncludeThresholdEvaluation(boolean includeThresholdEvaluation) {
+        this.includeThresholdEvaluation = includeThresholdEvaluation;
+    }
+
+    /**
+     * @return the tabular evaluation entries of a single result
+     */
+    public List<ModelEvaluator.TabularEvaluationEntry> evaluate(InferenceResult result) {
+        ModelEvaluator evaluator = new ModelEvaluator(result, gsSupplier.get());
+        evaluator.setKeepNonGoldAtoms(keepNonGoldAtoms);
+        evaluator.setIncludeThresholdEvaluation(includeThresholdEvaluation);
+        ModelEvaluator.Evaluation evaluation = evaluator.evaluate();
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        List<ModelEvaluator.TabularEvaluationEntry> entries = evaluation.printTabularEvaluation(discard);
+        if (includeThresholdEvaluation)
+            entries.addAll(evaluation.printThresholdEvaluation(discard));
+        return entries;
+    }
+
+    /**
+     * @param results run label -> result
+     * @return run label -> tabular evaluation entries
+     */
+    public Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evaluate(Map<String, InferenceResult> results) {
+        Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evals = new ConcurrentHashMap<>();
+        results.entrySet().parallelStream()
+                .forEach(entry -> evals.put(entry.getKey(), evaluate(entry.getValue())));
+        return new TreeMap<>(evals);
+    }
+
+    /**
+     * Evaluates all results in the store. If there are several results for a problem,
+     * they are labelled "problemId[i]" in the order in which they were added.
+     */
+    public Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evaluate(InferenceStore store) {
+        return evaluate(store, store.getProblemIds());
+    }
+
+    public Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evaluate(InferenceStore store,
+                                                                            Collection<String> problemIds) {
+        Map<String, InferenceResult> results = new LinkedHashMap<>();
+        for (String problemId : problemIds) {
+            List<InferenceResult> stored = store.get(problemId);
+            if (stored == null)
+                continue;
+            if (stored.size() == 1) {
+                results.put(problemId, stored.get(0));
+            } else {
+                for (int i = 0; i < stored.size(); i++) {
+                    results.put(problemId + "[" + i + "]", stored.get(i));
+                }
+            }
+        }
+        return evaluate(results);
+    }
+
+    /**
+     * Loads and evaluates the files in parallel. Each result is only kept in memory while it is evaluated.
+     *
+     * @param loader e.g. {@code file -> InferenceResultBinaryIo.fromFile(file, talkingPreds, talkingRules)};
+     *               files for which it returns null are skipped
+     * @return file path -> tabular evaluation entries
+     */
+    public Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evaluateFiles(
+            Collection<File> files, Function<File, InferenceResult> loader) {
+        Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evals = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> {
+            InferenceResult result = loader.apply(file);
+            if (result == null) {
+                System.err.println("Could not load an inference result from " + file + ", skipping it.");
+                return;
+            }
+            evals.put(file.getPath(), evaluate(result));
+        });
+        return new TreeMap<>(evals);
+    }
+
+    /**
+     * Summarizes the runs by the mean, standard deviation, minimum and maximum of each measure,
+     * e.g. "precision (mean)". NaN values (e.g. the precision of a run without inferred atoms) are left out.
+     */
+    public static List<ModelEvaluator.TabularEvaluationEntry> aggregate(
+            Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evals) {
+        // label -> measure -> values, in the order of the first run
+        Map<String, Map<String, List<Double>>> values = new LinkedHashMap<>();
+        for (List<ModelEvaluator.TabularEvaluationEntry> run : evals.values()) {
+            for (ModelEvaluator.TabularEvaluationEntry entry : run) {
+                List<Double> measureValues = values.computeIfAbsent(entry.evalLabel, label -> new LinkedHashMap<>())
+                        .computeIfAbsent(entry.evalMeasure, measure -> new ArrayList<>());
+                if (!Double.isNaN(entry.evalResult))
+                    measureValues.add(entry.evalResult);
+            }
+        }
+
+        List<ModelEvaluator.TabularEvaluationEntry> aggregated = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<Double>>> labelEntry : values.entrySet()) {
+            String label = labelEntry.getKey();
+            for (Map.Entry<String, List<Double>> measureEntry : labelEntry.getValue().entrySet()) {
+                String measure = measureEntry.getKey();
+                List<Double> measureValues = measureEntry.getValue();
+                double sum = 0.0;
+                double min = Double.NaN;
+                double max = Double.NaN;
+                for (double value : measureValues) {
+                    sum += value;
+                    if (!(value >= min))
+                        min = value;
+                    if (!(value <= max))
+                        max = value;
+                }
+                double mean = measureValues.isEmpty() ? Double.NaN : sum / measureValues.size();
+                double squares = 0.0;
+                for (double value : measureValues) {
+                    squares += (value - mean) * (value - mean);
+                }
+                double sd = measureValues.isEmpty() ? Double.NaN : Math.sqrt(squares / measureValues.size());
+                aggregated.add(new ModelEvaluator.TabularEvaluationEntry(label, measure + " (mean)", mean));
+                aggregated.add(new ModelEvaluator.TabularEvaluationEntry(label, measure + " (sd)", sd));
+                aggregated.add(new ModelEvaluator.TabularEvaluationEntry(label, measure + " (min)", min));
+                aggregated.add(new ModelEvaluator.TabularEvaluationEntry(label, measure + " (max)", max));
+            }
+        }
+        return aggregated;
+    }
+
+    public static List<ModelEvaluator.TabularEvaluationEntry> printAggregatedEvaluation(
+            PrintStream pStream, Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evals) {
+        List<ModelEvaluator.TabularEvaluationEntry> aggregated = aggregate(evals);
+        pStream.println("\nAGGREGATED EVALUATION RESULTS (" + evals.size() + " runs):");
+        for (ModelEvaluator.TabularEvaluationEntry entry : aggregated)
+            pStream.println(entry);
+        return aggregated;
+    }
+
+}
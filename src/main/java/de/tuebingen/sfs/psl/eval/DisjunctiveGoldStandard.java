@@ -19,7 +19,9 @@ import de.tuebingen.sfs.psl.engine.PslProblem;
 import de.tuebingen.sfs.psl.util.data.Tuple;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,12 +35,15 @@ public class DisjunctiveGoldStandard implements GoldStandard {
     private PredicateEvaluationTemplate[] predicates;
     private Map<PredicateEvaluationTemplate, TreeSet<Arguments>> missingAtoms;
     private Map<PredicateEvaluationTemplate, TreeSet<Arguments>> matchedAtoms;
+    // template -> arity -> non-ignored arguments -> GS atoms with these arguments (for ArgumentSets, of any member)
+    private Map<PredicateEvaluationTemplate, Map<Integer, Map<Tuple, List<Arguments>>>> index;
 
     public DisjunctiveGoldStandard(DisjunctiveGoldStandardIterator iter) {
         this.iter = iter;
         this.predicates = iter.getPredicates();
         this.missingAtoms = new TreeMap<>();
         this.matchedAtoms = new TreeMap<>();
+        this.index = new TreeMap<>();
         for (PredicateEvaluationTemplate pred : predicates) {
             missingAtoms.put(pred, new TreeSet<>());
             matchedAtoms.put(pred, new TreeSet<>());
@@ -78,43 +83,104 @@ public class DisjunctiveGoldStandard implements GoldStandard {
         return Arrays.stream(predicates).filter(t -> t.getName().equals(predicate)).collect(Collectors.toList());
     }
 
+    // the first matching GS atom in the order of the TreeSet, as found by a linear scan
     private Arguments getMatch(PredicateEvaluationTemplate predicate, Tuple atom, boolean missing) {
         Map<PredicateEvaluationTemplate, TreeSet<Arguments>> atoms = (missing) ? missingAtoms : matchedAtoms;
-        for (Arguments gsAtom : atoms.get(predicate)) {
-            if (gsAtom.matches(predicate, atom))
-                return gsAtom;
+        TreeSet<Arguments> candidateSet = atoms.get(predicate);
+        if (candidateSet.isEmpty())
+            return null;
+        Arguments match = null;
+        for (Map.Entry<Integer, Map<Tuple, List<Arguments>>> entry : getIndex(predicate).entrySet()) {
+            int arity = entry.getKey();
+            if (arity > atom.length())
+                continue;
+            String[] args = new String[arity];
+            for (int i = 0; i < arity; i++) {
+                args[i] = atom.get(i);
+            }
+            List<Arguments> candidates = entry.getValue().get(indexKey(predicate, args));
+            if (candidates == null)
+                continue;
+            for (Arguments gsAtom : candidates) {
+                if ((match == null || gsAtom.compareTo(match) < 0) && candidateSet.contains(gsAtom))
+                    match = gsAtom;
+            }
+        }
+        return match;
+    }
+
+    // built on first use, so that the ignored arguments of the templates can still be changed before
+    private Map<Integer, Map<Tuple, List<Arguments>>> getIndex(PredicateEvaluationTemplate predicate) {
+        synchronized (index) {
+            Map<Integer, Map<Tuple, List<Arguments>>> predIndex = index.get(predicate);
+            if (predIndex == null) {
+                predIndex = new HashMap<>();
+                for (Arguments gsAtom : allAtoms(predicate)) {
+                    for (String[] args : gsAtom.getArgs()) {
+                        List<Arguments> candidates = predIndex.computeIfAbsent(args.length, n -> new HashMap<>())
+                                .computeIfAbsent(indexKey(predicate, args), k -> new ArrayList<>());
+                        if (!candidates.contains(gsAtom))
+                            candidates.add(gsAtom);
+                    }
+                }
+                index.put(predicate, predIndex);
+            }
+            return predIndex;
+        }
+    }
+
+    private static Tuple indexKey(PredicateEvaluationTemplate predicate, String[] args) {
+        Tuple key = new Tuple();
+        for (int i = 0; i < args.length; i++) {
+            if (!predicate.isIgnoredArgument(i))
+                key.addElement(args[i]);
         }
-        return null;
+        return key;
+    }
+
+    // the state of each predicate is only accessed while holding its lock
+    private Object lock(PredicateEvaluationTemplate predicate) {
+        return missingAtoms.get(predicate);
     }
 
     @Override
     public boolean check(PredicateEvaluationTemplate predicate, Tuple atom) {
-        Arguments match = getMatch(predicate, atom, true);
+        synchronized (lock(predicate)) {
+            Arguments match = getMatch(predicate, atom, true);
 
-        if (match == null)
-            return false;
+            if (match == null)
+                return false;
 
-        missingAtoms.get(predicate).remove(match);
-        matchedAtoms.get(predicate).add(match);
-        return true;
+            missingAtoms.get(predicate).remove(match);
+            matchedAtoms.get(predicate).add(match);
+            return true;
+        }
     }
 
     @Override
     public boolean alreadyFound(PredicateEvaluationTemplate predicate, Tuple atom) {
-        return getMatch(predicate, atom, false) != null;
+        synchronized (lock(predicate)) {
+            return getMatch(predicate, atom, false) != null;
+        }
     }
 
     @Override
     public Set<Arguments> missingAtoms(PredicateEvaluationTemplate predicate) {
-        return new TreeSet<>(missingAtoms.get(predicate));
+        synchronized (lock(predicate)) {
+            return new TreeSet<>(missingAtoms.get(predicate));
+        }
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
     }
 
     @Override
     public void additionalEvaluation(PredicateEvaluationTemplate predicate, Map<Tuple, Double> foundAtoms,
                                      Map<Tuple, Double> foundNotInGSAtoms, Set<Arguments> missingAtoms,
                                      PslProblem problem, PrintStream pStream) {
-        Set<Arguments> gs = new TreeSet<>(this.missingAtoms.get(predicate));
-        gs.addAll(matchedAtoms.get(predicate));
+        Set<Arguments> gs = allAtoms(predicate);
         iter.additionalEvaluation(predicate, gs, foundAtoms, foundNotInGSAtoms, missingAtoms, problem, pStream);
     }
 
@@ -123,17 +189,26 @@ public class DisjunctiveGoldStandard implements GoldStandard {
             PredicateEvaluationTemplate predicate, Map<Tuple, Double> foundAtoms,
             Map<Tuple, Double> foundNotInGSAtoms, Set<Arguments> missingAtoms,
             PslProblem problem, PrintStream pStream) {
-        Set<Arguments> gs = new TreeSet<>(this.missingAtoms.get(predicate));
-        gs.addAll(matchedAtoms.get(predicate));
+        Set<Arguments> gs = allAtoms(predicate);
         return iter.additionalTabularEvaluation(predicate, gs, foundAtoms, foundNotInGSAtoms, missingAtoms, problem, pStream);
     }
 
+    private Set<Arguments> allAtoms(PredicateEvaluationTemplate predicate) {
+        synchronized (lock(predicate)) {
+            Set<Arguments> gs = new TreeSet<>(missingAtoms.get(predicate));
+            gs.addAll(matchedAtoms.get(predicate));
+            return gs;
+        }
+    }
+
     @Override
     public void reset() {
         for (PredicateEvaluationTemplate pred : predicates) {
-            TreeSet<Arguments> matches = matchedAtoms.get(pred);
-            missingAtoms.get(pred).addAll(matches);
-            matches.clear();
+            synchronized (lock(pred)) {
+                TreeSet<Arguments> matches = matchedAtoms.get(pred);
+                missingAtoms.get(pred).addAll(matches);
+                matches.clear();
+            }
         }
     }
 
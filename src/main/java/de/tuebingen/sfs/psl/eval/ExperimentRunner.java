@@ -0,0 +1,195 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.eval;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.ProblemManager;
+import de.tuebingen.sfs.psl.engine.PslProblem;
+import de.tuebingen.sfs.psl.engine.PslProblemConfig;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a grid of problem configurations and rule weight settings and evaluates every run against a gold standard.
+ * Each configuration is set up as a separate problem with its own partitions, and the problems are run in parallel,
+ * except for problems that write the same atoms, which are run one after another
+ * (see {@link ProblemManager#registerAndRunIsolated}).
+ * All weight settings for a configuration are run on the same problem, so its partitions, atoms and rules are
+ * only declared once per configuration. Each weight setting is still grounded and inferred from scratch
+ * (see {@link PslProblem#callForRuleWeights(List)}).
+ * <p>
+ * Runs are labelled by the configuration name, followed by "/" and the label of the weight setting
+ * if weight settings were added.
+ */
+public class ExperimentRunner {
+
+    private final ProblemManager problemManager;
+    private final Function<PslProblemConfig, PslProblem> problemFactory;
+    private final BatchEvaluator evaluator;
+    private final Map<String, PslProblemConfig> configs = new LinkedHashMap<>();
+    // label -> rule name -> weight
+    private final Map<String, Map<String, Double>> weightSettings = new LinkedHashMap<>();
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private Map<String, List<ModelEvaluator.TabularEvaluationEntry>> results = new TreeMap<>();
+
+    /**
+     * @param problemFactory creates the problem for a configuration; the configuration's DatabaseManager
+     *                       should be the one of the problem manager
+     * @param gsSupplier     returns a new gold standard for each run, since gold standards are stateful
+     */
+    public ExperimentRunner(ProblemManager problemManager, Function<PslProblemConfig, PslProblem> problemFactory,
+                            Supplier<GoldStandard> gsSupplier) {
+        this.problemManager = problemManager;
+        this.problemFactory = problemFactory;
+        this.evaluator = new BatchEvaluator(gsSupplier);
+    }
+
+    public BatchEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public void setNumberOfThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    /**
+     * The configuration's name is used as the problem ID, so it has to be unique.
+     */
+    public void addConfig(PslProblemConfig config) {
+        if (config.getName() == null || config.getName().isEmpty())
+            throw new IllegalArgumentException("Experiment configurations need a name.");
+        if (configs.containsKey(config.getName()))
+            throw new IllegalArgumentException("Duplicate configuration name: " + config.getName());
+        configs.put(config.getName(), config);
+    }
+
+    /**
+     * @param weights rule name -> weight; rules that are not mentioned keep the weights from the problem
+     */
+    public void addRuleWeights(String label, Map<String, Double> weights) {
+        if (weightSettings.containsKey(label))
+            throw new IllegalArgumentException("Duplicate weight setting label: " + label);
+        weightSettings.put(label, weights);
+    }
+
+    /**
+     * Adds a weight setting for every combination of the given weights,
+     * labelled like "rule1=1.0,rule2=0.5".
+     *
+     * @param weightGrid rule name -> weights to try out
+     */
+    public void addRuleWeightGrid(Map<String, double[]> weightGrid) {
+        List<Map<String, Double>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (Map.Entry<String, double[]> entry : weightGrid.entrySet()) {
+            List<Map<String, Double>> extended = new ArrayList<>();
+            for (Map<String, Double> combination : combinations) {
+                for (double weight : entry.getValue()) {
+                    Map<String, Double> next = new LinkedHashMap<>(combination);
+                    next.put(entry.getKey(), weight);
+                    extended.add(next);
+                }
+            }
+            combinations = extended;
+        }
+        for (Map<String, Double> combination : combinations) {
+            StringBuilder label = new StringBuilder();
+            for (Map.Entry<String, Double> entry : combination.entrySet()) {
+                if (label.length() > 0)
+                    label.append(',');
+                label.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+            addRuleWeights(label.toString(), combination);
+        }
+    }
+
+    /**
+     * Runs and evaluates all combinations of configurations and weight settings.
+     * The inference results are also added to the problem manager's inference store.
+     *
+     * @return run label -> tabular evaluation entries
+     */
+    public Map<String, List<ModelEvaluator.TabularEvaluationEntry>> run() {
+        Map<String, List<ModelEvaluator.TabularEvaluationEntry>> evals = new ConcurrentHashMap<>();
+        List<String> weightLabels = new ArrayList<>(weightSettings.keySet());
+        List<Map<String, Double>> weights = new ArrayList<>(weightSettings.values());
+
+        List<PslProblem> problems = new ArrayList<>();
+        for (PslProblemConfig config : configs.values()) {
+            System.err.println("Setting up experiment " + config.getName());
+            problems.add(problemFactory.apply(config));
+        }
+
+        problemManager.registerAndRunIsolated(problems, problem -> () -> {
+            // without weight settings, the problem's own inference procedure is used
+            List<InferenceResult> problemResults = weights.isEmpty()
+                    ? Collections.singletonList(problem.call()) : problem.callForRuleWeights(weights);
+            for (int i = 0; i < problemResults.size(); i++) {
+                String label = weights.isEmpty() ? problem.getName() : problem.getName() + "/" + weightLabels.get(i);
+                // the results are only evaluated and stored, so the ground rules can be released
+                evals.put(label, evaluator.evaluate(problemResults.get(i).detach()));
+            }
+            return problemResults;
+        }, nThreads);
+
+        for (PslProblem problem : problems) {
+            problemManager.cleanUpProblem(problem.getName());
+        }
+        results = new TreeMap<>(evals);
+        return results;
+    }
+
+    public Map<String, List<ModelEvaluator.TabularEvaluationEntry>> getResults() {
+        return results;
+    }
+
+    /**
+     * Writes the results of the last {@link #run()} as a table with one row per run and measure:
+     * run, evaluation label, measure, value (tab-separated, with a header line).
+     */
+    public void writeResults(PrintStream out) {
+        out.println("run\tlabel\tmeasure\tvalue");
+        for (Map.Entry<String, List<ModelEvaluator.TabularEvaluationEntry>> run : results.entrySet()) {
+            for (ModelEvaluator.TabularEvaluationEntry entry : run.getValue()) {
+                out.println(run.getKey() + "\t" + entry);
+            }
+        }
+    }
+
+    public void writeResults(File path) {
+        if (!path.exists() && path.getParentFile() != null) {
+            path.getParentFile().mkdirs();
+        }
+        try (PrintStream out = new PrintStream(path, "UTF-8")) {
+            writeResults(out);
+        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
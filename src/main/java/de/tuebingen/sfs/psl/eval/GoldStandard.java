@@ -45,4 +45,12 @@ public interface GoldStandard {
             PslProblem problem, PrintStream pStream);
 
     void reset();
+
+    /**
+     * @return true if the predicates can be evaluated concurrently,
+     * i.e. if check and alreadyFound can be called for different predicates at the same time
+     */
+    default boolean isThreadSafe() {
+        return false;
+    }
 }
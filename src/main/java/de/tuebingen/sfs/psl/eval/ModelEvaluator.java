@@ -15,35 +15,102 @@
  */
 package de.tuebingen.sfs.psl.eval;
 
+import de.tuebingen.sfs.psl.engine.InferenceResult;
 import de.tuebingen.sfs.psl.engine.PslProblem;
+import de.tuebingen.sfs.psl.util.data.StringUtils;
 import de.tuebingen.sfs.psl.util.data.Tuple;
 import de.tuebingen.sfs.psl.util.log.InferenceLogger;
 
 import java.io.PrintStream;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.stream.Collectors;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 public class ModelEvaluator {
 
     private PslProblem pslProblem;
+    private Function<String, Map<Tuple, Double>> tableSource;
     private GoldStandard gs;
+    private boolean keepNonGoldAtoms = false;
+    private boolean includeThresholdEvaluation = false;
 
 
     public ModelEvaluator(PslProblem pslProblem, GoldStandard gs) {
         this.pslProblem = pslProblem;
+        this.tableSource = pslProblem::extractTableForPredicate;
         this.gs = gs;
     }
 
+    /**
+     * Evaluates the inference values of a stored result instead of querying the database.
+     * The additional evaluations of the gold standard get null instead of a PslProblem.
+     */
+    public ModelEvaluator(InferenceResult result, GoldStandard gs) {
+        this(tablesByPredicate(result.getInferenceValues()), gs);
+    }
+
+    /**
+     * @param tables predicate name -> arguments -> belief value
+     */
+    public ModelEvaluator(Map<String, Map<Tuple, Double>> tables, GoldStandard gs) {
+        this.pslProblem = null;
+        this.tableSource = pred -> tables.getOrDefault(pred, Collections.emptyMap());
+        this.gs = gs;
+    }
+
+    /**
+     * Groups atom values like "pred(a, b)" -> 0.5 by predicate, in the same form as
+     * {@link PslProblem#extractTableForPredicate(String)}.
+     */
+    public static Map<String, Map<Tuple, Double>> tablesByPredicate(Map<String, Double> atomValues) {
+        Map<String, Map<Tuple, Double>> tables = new HashMap<>();
+        for (Map.Entry<String, Double> entry : atomValues.entrySet()) {
+            String atom = entry.getKey();
+            int open = atom.indexOf('(');
+            int close = atom.lastIndexOf(')');
+            if (open < 0 || close < open)
+                continue;
+            String[] args = StringUtils.split(atom.substring(open + 1, close), ',');
+            for (int i = 0; i < args.length; i++) {
+                args[i] = args[i].trim();
+            }
+            tables.computeIfAbsent(atom.substring(0, open).trim(), pred -> new HashMap<>())
+                    .put(new Tuple(args), entry.getValue());
+        }
+        return tables;
+    }
+
+    /**
+     * @param keepNonGoldAtoms if false (the default), only the top non-GS atoms are kept, and the additional
+     *                         evaluations of the gold standard do not get to see the other non-GS atoms
+     */
+    public void setKeepNonGoldAtoms(boolean keepNonGoldAtoms) {
+        this.keepNonGoldAtoms = keepNonGoldAtoms;
+    }
+
+    /**
+     * @param includeThresholdEvaluation if true, the belief values of all found GS and non-GS atoms are kept
+     *                                   for {@link Evaluation#getThresholdCurve(int)} (false by default)
+     */
+    public void setIncludeThresholdEvaluation(boolean includeThresholdEvaluation) {
+        this.includeThresholdEvaluation = includeThresholdEvaluation;
+    }
+
     public Evaluation evaluate() {
-        return new Evaluation(pslProblem, gs);
+        return new Evaluation(pslProblem, tableSource, gs, keepNonGoldAtoms, includeThresholdEvaluation);
     }
 
 
@@ -66,10 +133,37 @@ public class ModelEvaluator {
         List<List<Map.Entry<Tuple, Double>>> topFoundNotInGS;
         List<Set<Arguments>> notFound;
 
+        // belief values of all found GS and non-GS atoms, for the threshold curves (null if not included)
+        double[][] inGSBeliefs;
+        double[][] notInGSBeliefs;
+        ThresholdCurve[] curves;
+
+        boolean keepNonGoldAtoms;
+        boolean includeThresholdEvaluation;
+
+        private static final byte SKIPPED = 0;
+        private static final byte GS_ATOM = 1;
+        private static final byte NON_GS_ATOM = 2;
+
 
         Evaluation(PslProblem pslProblem, GoldStandard gs) {
+            this(pslProblem, gs, false);
+        }
+
+        Evaluation(PslProblem pslProblem, GoldStandard gs, boolean keepNonGoldAtoms) {
+            this(pslProblem, pslProblem::extractTableForPredicate, gs, keepNonGoldAtoms, false);
+        }
+
+        /**
+         * @param pslProblem  only passed on to the additional evaluations of the gold standard, can be null
+         * @param tableSource predicate name -> arguments -> belief value
+         */
+        Evaluation(PslProblem pslProblem, Function<String, Map<Tuple, Double>> tableSource, GoldStandard gs,
+                   boolean keepNonGoldAtoms, boolean includeThresholdEvaluation) {
             this.pslProblem = pslProblem;
             this.gs = gs;
+            this.keepNonGoldAtoms = keepNonGoldAtoms;
+            this.includeThresholdEvaluation = includeThresholdEvaluation;
             PredicateEvaluationTemplate[] preds = gs.getPredicates();
 
             inGS = new int[preds.length];
@@ -78,49 +172,170 @@ public class ModelEvaluator {
             notInGSSums = new double[preds.length];
             topNotInGS = new int[preds.length];
             topNotInGSSums = new double[preds.length];
-            found = new ArrayList<>();
-            foundNotInGS = new ArrayList<>();
-            topFoundNotInGS = new ArrayList<>();
-            notFound = new ArrayList<>();
-
+            found = new ArrayList<>(Collections.nCopies(preds.length, null));
+            foundNotInGS = new ArrayList<>(Collections.nCopies(preds.length, null));
+            topFoundNotInGS = new ArrayList<>(Collections.nCopies(preds.length, null));
+            notFound = new ArrayList<>(Collections.nCopies(preds.length, null));
+            inGSBeliefs = new double[preds.length][];
+            notInGSBeliefs = new double[preds.length][];
+            curves = new ThresholdCurve[preds.length];
+
+            // templates for the same predicate share its table, which is queried once
+            // and can be dropped as soon as these templates have been evaluated
+            Map<String, List<Integer>> templatesByPredicate = new LinkedHashMap<>();
             for (int p = 0; p < preds.length; p++) {
-                PredicateEvaluationTemplate pred = preds[p];
-                Map<Tuple, Double> foundHere = new TreeMap<>();
-                Map<Tuple, Double> foundHereNotInGS = new TreeMap<>();
-                Map<Tuple, Double> results;
-                results = pslProblem.extractTableForPredicate(pred.getName());
-                for (Map.Entry<Tuple, Double> entry : results.entrySet()) {
-                    Tuple args = entry.getKey();
-                    double belief = entry.getValue();
-                    if (gs.check(pred, args)) {
-                        inGS[p]++;
-                        inGSSums[p] += belief;
-                        foundHere.put(args, belief);
-                    } else if (!pred.isIgnoredAtom(args) && !gs.alreadyFound(pred, args)) {
-                        notInGS[p]++;
-                        notInGSSums[p] += belief;
+                templatesByPredicate.computeIfAbsent(preds[p].getName(), pred -> new ArrayList<>()).add(p);
+            }
+            Stream<Map.Entry<String, List<Integer>>> predicates = templatesByPredicate.entrySet().stream();
+            if (gs.isThreadSafe())
+                predicates = predicates.parallel();
+            predicates.forEach(entry -> {
+                Map<Tuple, Double> table = tableSource.apply(entry.getKey());
+                for (int p : entry.getValue()) {
+                    evaluatePredicate(p, preds[p], table);
+                }
+            });
+
+            gs.reset();
+        }
+
+        // only writes to the p-th entries, so different predicates can be evaluated concurrently
+        private void evaluatePredicate(int p, PredicateEvaluationTemplate pred, Map<Tuple, Double> results) {
+            Map<Tuple, Double> foundHere = new TreeMap<>();
+            Map<Tuple, Double> foundHereNotInGS = new TreeMap<>();
+            // Highest belief first: a GS entry matched by several atoms (e.g. an ArgumentSet) is found by
+            // the atom with the highest belief, and the others are skipped as already found. This way,
+            // the entry counts as found at exactly the thresholds at which any of its atoms is inferred,
+            // as if the evaluation were rerun on the atoms above each threshold.
+            int n = results.size();
+            Tuple[] atoms = new Tuple[n];
+            double[] beliefs = new double[n];
+            int next = 0;
+            for (Map.Entry<Tuple, Double> entry : results.entrySet()) {
+                atoms[next] = entry.getKey();
+                beliefs[next++] = entry.getValue();
+            }
+            int[] order = descendingOrder(beliefs);
+            byte[] kinds = new byte[n];
+            for (int i : order) {
+                Tuple args = atoms[i];
+                double belief = beliefs[i];
+                if (gs.check(pred, args)) {
+                    kinds[i] = GS_ATOM;
+                    inGS[p]++;
+                    inGSSums[p] += belief;
+                    foundHere.put(args, belief);
+                } else if (!pred.isIgnoredAtom(args) && !gs.alreadyFound(pred, args)) {
+                    kinds[i] = NON_GS_ATOM;
+                    notInGS[p]++;
+                    notInGSSums[p] += belief;
+                    if (keepNonGoldAtoms)
                         foundHereNotInGS.put(args, belief);
-                    }
                 }
+            }
 
-                topNotInGS[p] = Math.min(foundHere.size(), foundHereNotInGS.size());
-                List<Map.Entry<Tuple, Double>> topNotFound = foundHereNotInGS.entrySet()
-                        .stream()
-                        .sorted(new EntryValueComparator<>())
-                        .skip(foundHereNotInGS.size() - topNotInGS[p])
-                        .collect(Collectors.toList());
-                Collections.reverse(topNotFound);
-                topNotInGSSums[p] = topNotFound.stream()
-                        .mapToDouble(Map.Entry::getValue)
-                        .reduce(0.0, Double::sum);
-
-                found.add(foundHere);
-                foundNotInGS.add(foundHereNotInGS);
-                topFoundNotInGS.add(topNotFound);
-                notFound.add(gs.missingAtoms(pred));
+            // the number of top non-GS atoms depends on the number of found GS atoms, which is only known now
+            topNotInGS[p] = Math.min(inGS[p], notInGS[p]);
+            TopEntries topNotInGSHere = new TopEntries(topNotInGS[p]);
+            for (int i = 0; i < n; i++) {
+                if (kinds[i] == NON_GS_ATOM)
+                    topNotInGSHere.offer(atoms[i], beliefs[i]);
+            }
+            List<Map.Entry<Tuple, Double>> topNotFound = topNotInGSHere.getTop(topNotInGS[p]);
+            double topSum = 0.0;
+            for (Map.Entry<Tuple, Double> entry : topNotFound) {
+                topSum += entry.getValue();
             }
+            topNotInGSSums[p] = topSum;
+
+            found.set(p, foundHere);
+            foundNotInGS.set(p, foundHereNotInGS);
+            topFoundNotInGS.set(p, topNotFound);
+            notFound.set(p, gs.missingAtoms(pred));
+            if (includeThresholdEvaluation) {
+                inGSBeliefs[p] = ascendingBeliefs(beliefs, order, kinds, GS_ATOM, inGS[p]);
+                notInGSBeliefs[p] = ascendingBeliefs(beliefs, order, kinds, NON_GS_ATOM, notInGS[p]);
+            }
+        }
 
-            gs.reset();
+        /**
+         * @return the positions of the belief values in descending order, ties in the order of the positions
+         */
+        static int[] descendingOrder(double[] beliefs) {
+            int n = beliefs.length;
+            // sort key: descending rank of the belief among the distinct beliefs, then position
+            double[] distinct = beliefs.clone();
+            Arrays.sort(distinct);
+            int nDistinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (nDistinct == 0 || Double.compare(distinct[nDistinct - 1], distinct[i]) != 0)
+                    distinct[nDistinct++] = distinct[i];
+            }
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                long rank = nDistinct - 1 - Arrays.binarySearch(distinct, 0, nDistinct, beliefs[i]);
+                keys[i] = (rank << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = (int) keys[i];
+            }
+            return order;
+        }
+
+        // the belief values of the atoms of the given kind, in ascending order (as the threshold curves need them)
+        private static double[] ascendingBeliefs(double[] beliefs, int[] order, byte[] kinds, byte kind, int n) {
+            double[] selected = new double[n];
+            int j = n;
+            for (int i : order) {
+                if (kinds[i] == kind)
+                    selected[--j] = beliefs[i];
+            }
+            return selected;
+        }
+
+        /**
+         * @return precision, recall and F1 of the p-th predicate template for all thresholds on the belief values
+         * @throws IllegalStateException if the evaluation was run without the threshold evaluation
+         *                               (see {@link ModelEvaluator#setIncludeThresholdEvaluation(boolean)})
+         */
+        public ThresholdCurve getThresholdCurve(int p) {
+            if (!includeThresholdEvaluation)
+                throw new IllegalStateException("The belief values for the threshold evaluation were not kept");
+            if (curves[p] == null)
+                curves[p] = ThresholdCurve.fromSorted(inGSBeliefs[p], notInGSBeliefs[p],
+                        inGS[p] + notFound.get(p).size());
+            return curves[p];
+        }
+
+        public List<TabularEvaluationEntry> printThresholdEvaluation(PrintStream pStream) {
+            return printThresholdEvaluation(pStream, false);
+        }
+
+        /**
+         * Prints and returns the area under the precision-recall curve and the threshold with the best F1 score
+         * for each predicate template.
+         *
+         * @param includeCurves also print the precision, recall and F1 at each threshold
+         * @throws IllegalStateException if the evaluation was run without the threshold evaluation
+         */
+        public List<TabularEvaluationEntry> printThresholdEvaluation(PrintStream pStream, boolean includeCurves) {
+            PredicateEvaluationTemplate[] preds = gs.getPredicates();
+            List<TabularEvaluationEntry> eval = new ArrayList<>();
+
+            pStream.println("\nTHRESHOLD EVALUATION RESULTS:");
+            for (int p = 0; p < preds.length; p++) {
+                if (inGS[p] + notInGS[p] > 0) {
+                    List<TabularEvaluationEntry> entries = getThresholdCurve(p)
+                            .toTabularEntries(preds[p].getTemplateLabel(), includeCurves);
+                    for (TabularEvaluationEntry entry : entries)
+                        pStream.println(entry);
+                    eval.addAll(entries);
+                }
+            }
+
+            return eval;
         }
 
         public static void printNumericEvaluation(PrintStream pStream,
@@ -272,6 +487,52 @@ public class ModelEvaluator {
         }
     }
 
+    /**
+     * The entries with the highest values (ties broken by key), selected via a min-heap of bounded size.
+     */
+    static class TopEntries {
+
+        private static final Comparator<Map.Entry<Tuple, Double>> ORDER =
+                Comparator.comparing((Map.Entry<Tuple, Double> entry) -> entry.getValue())
+                        .thenComparing(Map.Entry::getKey);
+
+        private final int capacity;
+        private final PriorityQueue<Map.Entry<Tuple, Double>> heap;
+
+        TopEntries(int capacity) {
+            this.capacity = capacity;
+            this.heap = new PriorityQueue<>(Math.max(1, Math.min(capacity, 1024)), ORDER);
+        }
+
+        void offer(Tuple key, double value) {
+            if (capacity == 0)
+                return;
+            if (heap.size() == capacity) {
+                Map.Entry<Tuple, Double> min = heap.peek();
+                int c = Double.compare(value, min.getValue());
+                if (c < 0 || (c == 0 && key.compareTo(min.getKey()) < 0))
+                    return;
+                heap.poll();
+            }
+            heap.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        }
+
+        /**
+         * @return the k highest entries, in descending order; empties the heap
+         */
+        List<Map.Entry<Tuple, Double>> getTop(int k) {
+            while (heap.size() > k) {
+                heap.poll();
+            }
+            List<Map.Entry<Tuple, Double>> top = new ArrayList<>(heap.size());
+            while (!heap.isEmpty()) {
+                top.add(heap.poll());
+            }
+            Collections.reverse(top);
+            return top;
+        }
+    }
+
     public static class EntryValueComparator<K, V extends Comparable<V>> implements Comparator<Map.Entry<K, V>> {
 
         @Override
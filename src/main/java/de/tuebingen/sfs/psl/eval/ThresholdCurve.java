@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precision, recall and F1 for every threshold on the belief values, where the atoms with a belief value
+ * at or above the threshold count as inferred. The belief values are sorted once and all thresholds are
+ * evaluated in a single sweep from the highest to the lowest belief value.
+ * The area under the precision-recall curve is computed as the average precision
+ * (precision at each threshold, weighted by the increase in recall).
+ */
+public class ThresholdCurve {
+
+    private final int nPositives;
+    // one point per distinct belief value, in descending order
+    private final double[] thresholds;
+    private final double[] precision;
+    private final double[] recall;
+    private final double[] f1;
+    private final double auc;
+    private final int best;
+
+    /**
+     * @param positiveBeliefs the belief values of the inferred atoms that are in the gold standard
+     * @param negativeBeliefs the belief values of the inferred atoms that are not in the gold standard
+     * @param nPositives      the size of the gold standard (including the atoms that were not inferred)
+     */
+    public ThresholdCurve(double[] positiveBeliefs, double[] negativeBeliefs, int nPositives) {
+        this(nPositives, sortedCopy(positiveBeliefs), sortedCopy(negativeBeliefs));
+    }
+
+    /**
+     * Like {@link #ThresholdCurve(double[], double[], int)}, for belief values that are already in ascending order
+     * (which is not checked). The arrays are not copied.
+     */
+    static ThresholdCurve fromSorted(double[] positiveBeliefs, double[] negativeBeliefs, int nPositives) {
+        return new ThresholdCurve(nPositives, positiveBeliefs, negativeBeliefs);
+    }
+
+    // pos and neg in ascending order
+    private ThresholdCurve(int nPositives, double[] pos, double[] neg) {
+        this.nPositives = nPositives;
+        int maxPoints = pos.length + neg.length;
+        double[] thresholds = new double[maxPoints];
+        double[] precision = new double[maxPoints];
+        double[] recall = new double[maxPoints];
+        double[] f1 = new double[maxPoints];
+        int n = 0;
+        int i = pos.length - 1;
+        int j = neg.length - 1;
+        int tp = 0;
+        int fp = 0;
+        double auc = 0.0;
+        double lastRecall = 0.0;
+        int best = -1;
+        while (i >= 0 || j >= 0) {
+            double threshold = Math.max((i >= 0) ? pos[i] : Double.NEGATIVE_INFINITY,
+                    (j >= 0) ? neg[j] : Double.NEGATIVE_INFINITY);
+            while (i >= 0 && Double.compare(pos[i], threshold) == 0) {
+                tp++;
+                i--;
+            }
+            while (j >= 0 && Double.compare(neg[j], threshold) == 0) {
+                fp++;
+                j--;
+            }
+            thresholds[n] = threshold;
+            precision[n] = ((double) tp) / (tp + fp);
+            recall[n] = (nPositives == 0) ? 0.0 : ((double) tp) / nPositives;
+            f1[n] = (tp == 0) ? 0.0 : 2 * precision[n] * recall[n] / (precision[n] + recall[n]);
+            auc += (recall[n] - lastRecall) * precision[n];
+            lastRecall = recall[n];
+            // ties go to the higher threshold
+            if (best < 0 || f1[n] > f1[best])
+                best = n;
+            n++;
+        }
+        this.thresholds = Arrays.copyOf(thresholds, n);
+        this.precision = Arrays.copyOf(precision, n);
+        this.recall = Arrays.copyOf(recall, n);
+        this.f1 = Arrays.copyOf(f1, n);
+        this.auc = auc;
+        this.best = best;
+    }
+
+    private static double[] sortedCopy(double[] beliefs) {
+        double[] sorted = beliefs.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    public int size() {
+        return thresholds.length;
+    }
+
+    public int getNumberOfPositives() {
+        return nPositives;
+    }
+
+    public double getThreshold(int i) {
+        return thresholds[i];
+    }
+
+    public double getPrecision(int i) {
+        return precision[i];
+    }
+
+    public double getRecall(int i) {
+        return recall[i];
+    }
+
+    public double getF1(int i) {
+        return f1[i];
+    }
+
+    public double getAuc() {
+        return auc;
+    }
+
+    /**
+     * @return the threshold with the highest F1 score, or NaN if there are no inferred atoms
+     */
+    public double getBestThreshold() {
+        return (best < 0) ? Double.NaN : thresholds[best];
+    }
+
+    public double getBestF1() {
+        return (best < 0) ? Double.NaN : f1[best];
+    }
+
+    public double getBestPrecision() {
+        return (best < 0) ? Double.NaN : precision[best];
+    }
+
+    public double getBestRecall() {
+        return (best < 0) ? Double.NaN : recall[best];
+    }
+
+    /**
+     * @param includeCurve also add the precision, recall and F1 for each threshold
+     */
+    public List<ModelEvaluator.TabularEvaluationEntry> toTabularEntries(String evalLabel, boolean includeCurve) {
+        List<ModelEvaluator.TabularEvaluationEntry> eval = new ArrayList<>();
+        eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "PR AUC", auc));
+        eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "best threshold", getBestThreshold()));
+        eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "best F1", getBestF1()));
+        eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "precision at best threshold",
+                getBestPrecision()));
+        eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "recall at best threshold", getBestRecall()));
+        if (includeCurve) {
+            for (int i = 0; i < thresholds.length; i++) {
+                eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "precision@" + thresholds[i],
+                        precision[i]));
+                eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "recall@" + thresholds[i], recall[i]));
+                eval.add(new ModelEvaluator.TabularEvaluationEntry(evalLabel, "F1@" + thresholds[i], f1[i]));
+            }
+        }
+        return eval;
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package de.tuebingen.sfs.psl.examples.livesknows;
 
+import de.tuebingen.sfs.psl.engine.AtomKey;
 import de.tuebingen.sfs.psl.engine.PslProblem;
 import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
 import de.tuebingen.sfs.psl.talk.BeliefScale;
@@ -45,8 +46,9 @@ public class LivesToKnowsRule extends TalkingLogicalRule {
         String[] knowsArgs = null;
         for (Tuple atomToStatus : rag.getLinkedAtomsForGroundingWithLinkStatusAsList(groundingName)) {
             String atom = atomToStatus.get(0);
-            String[] atomArgs = atom.substring(atom.indexOf('(') + 1, atom.length() - 1).split(",\\s?");
-            if (atom.startsWith("K")) {
+            AtomKey key = rag.getAtomKey(atom);
+            String[] atomArgs = key.getArgs();
+            if (key.getPredicate().startsWith("K")) {
                 knows = atom;
                 knowsArgs = atomArgs;
             } else if (lives1 != null) {
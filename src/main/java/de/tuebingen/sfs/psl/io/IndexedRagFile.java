@@ -0,0 +1,907 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import de.tuebingen.sfs.psl.engine.AtomKey;
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.PressureIndex;
+import de.tuebingen.sfs.psl.engine.PslProblem;
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+/**
+ * An indexed on-disk format for {@link InferenceResult}s, for browsing results that do not fit into memory.
+ * Every atom (with its outgoing links), every grounding (with its incoming links) and every belief value
+ * is stored as a separate record; sorted offset indices allow looking up a single record by name.
+ * A file opened via {@link #open(File, int)} only keeps the filter settings and the rules in memory
+ * and provides a {@link LazyRuleAtomGraph} that reads the records on demand, keeping the most recently
+ * used ones in a bounded cache.
+ * <p>
+ * The inference values of the opened result are the belief values of the RAG filter,
+ * as for {@link InferenceResult#InferenceResult(RuleAtomGraph)}.
+ */
+public class IndexedRagFile implements Closeable {
+
+    // "PSLI"
+    static final int MAGIC = 0x50534C49;
+    static final int VERSION = 1;
+    // magic, version, 4 section offsets, 3 index sizes, number of links
+    static final int HEADER_SIZE = 4 + 4 + 4 * 8 + 3 * 4 + 8;
+
+    public static int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final byte HAS_STRENGTH = 1;
+    private static final byte HAS_COUNTERFACTUAL = 2;
+    private static final byte HAS_EQUALITY_COUNTERFACTUALS = 4;
+
+    private final FileChannel channel;
+    private final Index atomIndex;
+    private final Index groundingIndex;
+    private final Index valueIndex;
+    private final long nLinks;
+
+    private final BoundedCache<String, AtomRecord> atomCache;
+    private final BoundedCache<String, GroundingRecord> groundingCache;
+    private final BoundedCache<String, Double> valueCache;
+
+    private String filterClass;
+    private Set<String> ignoreList = new TreeSet<>();
+    private Set<String> ignoreInGui = new TreeSet<>();
+    private Set<String> preventUserInteraction = new TreeSet<>();
+    private Map<String, String> groundPreds2ActualNames = new TreeMap<>();
+    private Set<String> fixedAtoms = new HashSet<>();
+    private Set<String> hiddenAtoms = new HashSet<>();
+    private Set<String> equalityGroundings = new TreeSet<>();
+    private Map<String, TalkingRuleOrConstraint> talkingRules = new TreeMap<>();
+    private Map<String, TalkingPredicate> talkingPreds = new TreeMap<>();
+
+    private LazyRuleAtomGraph rag;
+
+    private IndexedRagFile(FileChannel channel, int cacheSize) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = read(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not an indexed RAG file.");
+        int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported indexed RAG file version " + version + ".");
+        long metaOffset = header.getLong();
+        long atomIndexOffset = header.getLong();
+        long groundingIndexOffset = header.getLong();
+        long valueIndexOffset = header.getLong();
+        atomIndex = new Index(atomIndexOffset, header.getInt());
+        groundingIndex = new Index(groundingIndexOffset, header.getInt());
+        valueIndex = new Index(valueIndexOffset, header.getInt());
+        nLinks = header.getLong();
+
+        atomCache = new BoundedCache<>(cacheSize);
+        groundingCache = new BoundedCache<>(cacheSize);
+        valueCache = new BoundedCache<>(cacheSize);
+
+        readMetadata(readRecord(metaOffset));
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, PslProblem problem, File path) {
+        saveToFile(inferenceResult, problem.getTalkingPredicates(), problem.getTalkingRules(), path);
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, File path) {
+        if (!path.exists() && path.getParentFile() != null) {
+            path.getParentFile().mkdirs();
+        }
+        try (FileChannel out = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(inferenceResult.getRag(), talkingPreds, talkingRules, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void write(RuleAtomGraph rag, Map<String, TalkingPredicate> talkingPreds,
+                              Map<String, TalkingRuleOrConstraint> talkingRules, FileChannel channel) throws IOException {
+        RagFilter filter = rag.getRagFilter();
+        channel.position(HEADER_SIZE);
+        RecordOutput out = new RecordOutput(Channels.newOutputStream(channel), HEADER_SIZE);
+
+        // filter settings, equality groundings and rules
+        DataOutputStream record = out.start();
+        record.writeUTF(filter.getClass().getName());
+        writeStrings(record, filter.getIgnoreList());
+        writeStrings(record, filter.getIgnoreInGui());
+        writeStrings(record, filter.getPreventUserInteraction());
+        record.writeInt(filter.getGroundPred2ActualNames().size());
+        for (Map.Entry<String, String> entry : filter.getGroundPred2ActualNames().entrySet()) {
+            record.writeUTF(entry.getKey());
+            record.writeUTF(entry.getValue());
+        }
+        writeStrings(record, filter.getFixedAtoms());
+        writeStrings(record, filter.getHiddenAtoms());
+        List<String> equalityGroundings = new ArrayList<>();
+        Map<String, TalkingRuleOrConstraint> rules = new TreeMap<>();
+        for (String grounding : rag.getGroundingNodes()) {
+            if (rag.isEqualityRule(grounding))
+                equalityGroundings.add(grounding);
+            String ruleName = PressureIndex.ruleName(grounding);
+            TalkingRuleOrConstraint rule = talkingRules.get(ruleName);
+            if (rule != null)
+                rules.put(ruleName, rule);
+        }
+        writeStrings(record, equalityGroundings);
+        record.writeInt(rules.size());
+        for (TalkingRuleOrConstraint rule : rules.values()) {
+            record.writeUTF(rule.getClass().getName());
+            record.writeUTF(rule.getSerializedParameters());
+        }
+        record.writeInt(talkingPreds.size());
+        for (Map.Entry<String, TalkingPredicate> entry : talkingPreds.entrySet()) {
+            record.writeUTF(entry.getKey());
+            record.writeInt(entry.getValue().getArity());
+            record.writeUTF(entry.getValue().getClass().getName());
+        }
+        long metaOffset = out.finish();
+
+        // atoms and their outgoing links, sorted by name for the index
+        Set<String> atomNodes = new TreeSet<>(rag.getAtomNodes());
+        long[] atomOffsets = new long[atomNodes.size()];
+        long nLinks = 0;
+        int i = 0;
+        for (String atom : atomNodes) {
+            record = out.start();
+            record.writeUTF(atom);
+            writeNullable(record, rag.getAtomStatus(atom));
+            Set<Tuple> outgoing = rag.getOutgoingLinks(atom);
+            record.writeInt(outgoing.size());
+            for (Tuple link : outgoing) {
+                record.writeUTF(link.get(1));
+                writeNullable(record, rag.getLinkStatus(link));
+                Double strength = rag.getLinkStrength(link);
+                double[] eqCounterfactual = rag.getCounterfactualsForEqualityRule(link);
+                Double counterfactual = (eqCounterfactual == null) ? rag.getCounterfactual(link) : null;
+                byte flags = 0;
+                if (strength != null)
+                    flags |= HAS_STRENGTH;
+                if (eqCounterfactual != null)
+                    flags |= HAS_EQUALITY_COUNTERFACTUALS;
+                else if (counterfactual != null)
+                    flags |= HAS_COUNTERFACTUAL;
+                record.writeByte(flags);
+                if (strength != null)
+                    record.writeDouble(strength);
+                if (eqCounterfactual != null) {
+                    record.writeDouble(eqCounterfactual[0]);
+                    record.writeDouble(eqCounterfactual[1]);
+                } else if (counterfactual != null) {
+                    record.writeDouble(counterfactual);
+                }
+            }
+            nLinks += outgoing.size();
+            atomOffsets[i++] = out.finish();
+        }
+
+        // groundings and their incoming links
+        Set<String> groundingNodes = new TreeSet<>(rag.getGroundingNodes());
+        long[] groundingOffsets = new long[groundingNodes.size()];
+        i = 0;
+        for (String grounding : groundingNodes) {
+            record = out.start();
+            record.writeUTF(grounding);
+            Double status = rag.getGroundingStatus(grounding);
+            record.writeDouble((status == null) ? 0.0 : status);
+            List<Tuple> incoming = rag.getIncomingLinks(grounding);
+            if (incoming == null) {
+                record.writeInt(0);
+            } else {
+                record.writeInt(incoming.size());
+                for (Tuple link : incoming) {
+                    record.writeUTF(link.get(0));
+                }
+            }
+            groundingOffsets[i++] = out.finish();
+        }
+
+        // belief values, sorted by atom name for the index
+        Map<String, Double> beliefValues = new TreeMap<>(filter.getBeliefValues());
+        long[] valueOffsets = new long[beliefValues.size()];
+        i = 0;
+        for (Map.Entry<String, Double> entry : beliefValues.entrySet()) {
+            record = out.start();
+            record.writeUTF(entry.getKey());
+            record.writeDouble(entry.getValue());
+            valueOffsets[i++] = out.finish();
+        }
+
+        long atomIndexOffset = out.writeIndex(atomOffsets);
+        long groundingIndexOffset = out.writeIndex(groundingOffsets);
+        long valueIndexOffset = out.writeIndex(valueOffsets);
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(metaOffset);
+        header.putLong(atomIndexOffset);
+        header.putLong(groundingIndexOffset);
+        header.putLong(valueIndexOffset);
+        header.putInt(atomOffsets.length);
+        header.putInt(groundingOffsets.length);
+        header.putInt(valueOffsets.length);
+        header.putLong(nLinks);
+        header.flip();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    public static IndexedRagFile open(File path) {
+        return open(path, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the maximal number of atoms (and, separately, groundings and belief values) kept in memory
+     * @return the opened file, or null if it could not be read; needs to be closed when the RAG is not used anymore
+     */
+    public static IndexedRagFile open(File path, int cacheSize) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+            return new IndexedRagFile(channel, cacheSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e2) {
+                    e2.printStackTrace();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return an InferenceResult backed by the file at the given path; its RAG is a {@link LazyRuleAtomGraph},
+     * which needs to be closed when the result is not used anymore
+     */
+    public static InferenceResult fromFile(File path, Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules, int cacheSize) {
+        IndexedRagFile file = open(path, cacheSize);
+        if (file == null)
+            return null;
+        return file.getInferenceResult(talkingPreds, talkingRules);
+    }
+
+    public synchronized LazyRuleAtomGraph getRag() {
+        if (rag == null) {
+            RagFilter filter = InferenceResultIo.createRagFilter(filterClass);
+            filter.setAll(new LazyMap<>(new NameSet(valueIndex), key -> loadValue((String) key), valueIndex.size),
+                    groundPreds2ActualNames, ignoreList, ignoreInGui, preventUserInteraction, fixedAtoms, hiddenAtoms);
+            Set<String> atomNodes = new NameSet(atomIndex);
+            Set<String> groundingNodes = new NameSet(groundingIndex);
+            Set<Tuple> links = new LinkSet(atomNodes);
+            rag = new LazyRuleAtomGraph(this, groundingNodes,
+                    new LazyMap<>(groundingNodes, key -> {
+                        GroundingRecord record = loadGrounding((String) key);
+                        return (record == null) ? null : record.status;
+                    }, groundingIndex.size),
+                    equalityGroundings, atomNodes,
+                    new LazyMap<>(atomNodes, key -> {
+                        AtomRecord record = loadAtom((String) key);
+                        return (record == null) ? null : record.status;
+                    }),
+                    links,
+                    new LazyMap<>(links, key -> linkValue(key, (record, i) -> record.linkStatus[i])),
+                    new LazyMap<>(links, key -> linkValue(key, (record, i) -> record.counterfactual[i])),
+                    new LazyMap<>(links, key -> linkValue(key, (record, i) -> record.equalityCounterfactuals[i])),
+                    new LazyMap<>(links, key -> linkValue(key, (record, i) -> record.strength[i])),
+                    new LazyMap<>(atomNodes, key -> {
+                        AtomRecord record = loadAtom((String) key);
+                        // copies, so changes to them (e.g. by addLink) never alter the cached records
+                        return (record == null) ? null : new TreeSet<>(record.outgoing);
+                    }, atomIndex.size),
+                    new LazyMap<>(groundingNodes, key -> {
+                        GroundingRecord record = loadGrounding((String) key);
+                        return (record == null) ? null : new ArrayList<>(record.incoming);
+                    }, groundingIndex.size),
+                    filter);
+        }
+        return rag;
+    }
+
+    public InferenceResult getInferenceResult(Map<String, TalkingPredicate> talkingPreds,
+                                              Map<String, TalkingRuleOrConstraint> talkingRules) {
+        if (talkingPreds == null)
+            talkingPreds = new TreeMap<>();
+        if (talkingRules == null)
+            talkingRules = new TreeMap<>();
+        talkingPreds.putAll(this.talkingPreds);
+        talkingRules.putAll(this.talkingRules);
+        for (TalkingRuleOrConstraint rule : talkingRules.values()) {
+            rule.setTalkingPredicates(talkingPreds);
+        }
+        return new InferenceResult(getRag());
+    }
+
+    public int getNumberOfAtoms() {
+        return atomIndex.size;
+    }
+
+    public int getNumberOfGroundings() {
+        return groundingIndex.size;
+    }
+
+    public long getNumberOfLinks() {
+        return nLinks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readMetadata(DataInputStream in) throws IOException {
+        filterClass = in.readUTF();
+        readStrings(in, ignoreList);
+        readStrings(in, ignoreInGui);
+        readStrings(in, preventUserInteraction);
+        int nPreds = in.readInt();
+        for (int i = 0; i < nPreds; i++) {
+            groundPreds2ActualNames.put(in.readUTF(), in.readUTF());
+        }
+        readStrings(in, fixedAtoms);
+        readStrings(in, hiddenAtoms);
+        readStrings(in, equalityGroundings);
+        int nRules = in.readInt();
+        for (int i = 0; i < nRules; i++) {
+            TalkingRuleOrConstraint rule = InferenceResultIo.createTalkingRule(in.readUTF(), in.readUTF());
+            if (rule != null)
+                talkingRules.put(rule.getName(), rule);
+        }
+        int nTalkingPreds = in.readInt();
+        for (int i = 0; i < nTalkingPreds; i++) {
+            String predName = in.readUTF();
+            int arity = in.readInt();
+            talkingPreds.put(predName, InferenceResultIo.createTalkingPredicate(predName, arity, in.readUTF()));
+        }
+    }
+
+    AtomRecord loadAtom(String atom) {
+        AtomRecord record = atomCache.get(atom);
+        if (record != null)
+            return record;
+        try {
+            long offset = atomIndex.find(atom);
+            if (offset < 0)
+                return null;
+            DataInputStream in = readRecord(offset);
+            // in the canonical form, as in graphs built in memory
+            String name = AtomKey.canonical(in.readUTF());
+            record = new AtomRecord(in.readBoolean() ? in.readUTF() : null, in.readInt());
+            for (int i = 0; i < record.groundings.length; i++) {
+                record.groundings[i] = in.readUTF();
+                record.linkStatus[i] = in.readBoolean() ? in.readUTF() : null;
+                byte flags = in.readByte();
+                if ((flags & HAS_STRENGTH) != 0)
+                    record.strength[i] = in.readDouble();
+                if ((flags & HAS_EQUALITY_COUNTERFACTUALS) != 0)
+                    record.equalityCounterfactuals[i] = new double[]{in.readDouble(), in.readDouble()};
+                else if ((flags & HAS_COUNTERFACTUAL) != 0)
+                    record.counterfactual[i] = in.readDouble();
+                record.outgoing.add(new Tuple(name, record.groundings[i]));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        atomCache.put(atom, record);
+        return record;
+    }
+
+    GroundingRecord loadGrounding(String grounding) {
+        GroundingRecord record = groundingCache.get(grounding);
+        if (record != null)
+            return record;
+        try {
+            long offset = groundingIndex.find(grounding);
+            if (offset < 0)
+                return null;
+            DataInputStream in = readRecord(offset);
+            String name = in.readUTF();
+            record = new GroundingRecord(in.readDouble());
+            int nIncoming = in.readInt();
+            for (int i = 0; i < nIncoming; i++) {
+                record.incoming.add(new Tuple(AtomKey.canonical(in.readUTF()), name));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        groundingCache.put(grounding, record);
+        return record;
+    }
+
+    Double loadValue(String atom) {
+        Double value = valueCache.get(atom);
+        if (value != null)
+            return value;
+        try {
+            long offset = valueIndex.find(atom);
+            if (offset < 0)
+                return null;
+            DataInputStream in = readRecord(offset);
+            in.readUTF();
+            value = in.readDouble();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        valueCache.put(atom, value);
+        return value;
+    }
+
+    private <V> V linkValue(Object key, LinkField<V> field) {
+        if (!(key instanceof Tuple))
+            return null;
+        Tuple link = (Tuple) key;
+        AtomRecord record = loadAtom(link.get(0));
+        if (record == null)
+            return null;
+        int i = record.indexOf(link.get(1));
+        return (i < 0) ? null : field.get(record, i);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new IOException("Unexpected end of indexed RAG file.");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private DataInputStream readRecord(long offset) throws IOException {
+        int length = read(offset, 4).getInt();
+        return new DataInputStream(new ByteArrayInputStream(read(offset + 4, length).array()));
+    }
+
+    // only reads the name at the start of a record
+    private String readName(long offset) throws IOException {
+        int nameLength = read(offset + 4, 2).getShort() & 0xffff;
+        ByteBuffer buffer = ByteBuffer.allocate(2 + nameLength);
+        buffer.putShort((short) nameLength);
+        buffer.put(read(offset + 6, nameLength));
+        return new DataInputStream(new ByteArrayInputStream(buffer.array())).readUTF();
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static void readStrings(DataInputStream in, Collection<String> strings) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    /**
+     * The offsets of the records of one kind, sorted by the names the records start with.
+     */
+    private class Index {
+        final long offset;
+        final int size;
+
+        Index(long offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        long recordOffset(int i) throws IOException {
+            return read(offset + 8L * i, 8).getLong();
+        }
+
+        String name(int i) throws IOException {
+            return readName(recordOffset(i));
+        }
+
+        /**
+         * @return the offset of the record with the given name, or -1 if there is none
+         */
+        long find(String name) throws IOException {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long recordOffset = recordOffset(mid);
+                int cmp = readName(recordOffset).compareTo(name);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return recordOffset;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The names in an index, in sorted order (i.e. in the iteration order of the sets of an in-memory RAG).
+     */
+    private class NameSet extends AbstractSet<String> {
+        final Index index;
+
+        NameSet(Index index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String))
+                return false;
+            try {
+                return index.find((String) o) >= 0;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return i < index.size;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    try {
+                        return AtomKey.canonical(index.name(i++));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return index.size;
+        }
+    }
+
+    private class LinkSet extends AbstractSet<Tuple> {
+        final Set<String> atomNodes;
+
+        LinkSet(Set<String> atomNodes) {
+            this.atomNodes = atomNodes;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return linkValue(o, (record, i) -> Boolean.TRUE) != null;
+        }
+
+        @Override
+        public Iterator<Tuple> iterator() {
+            return new Iterator<Tuple>() {
+                final Iterator<String> atoms = atomNodes.iterator();
+                Iterator<Tuple> current = null;
+
+                @Override
+                public boolean hasNext() {
+                    while ((current == null || !current.hasNext()) && atoms.hasNext()) {
+                        AtomRecord record = loadAtom(atoms.next());
+                        if (record != null)
+                            current = record.outgoing.iterator();
+                    }
+                    return current != null && current.hasNext();
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return current.next();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(nLinks, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A map whose values are looked up on demand; keys without a value are left out.
+     * Changes are kept in memory on top of the file, which is never written to.
+     * If every key of the file has a value, the size and the key set are known without loading any records.
+     */
+    private static class LazyMap<K, V> extends AbstractMap<K, V> {
+        final Set<K> keys;
+        final Function<Object, V> lookup;
+        final boolean complete;
+        // changed and added entries, null for removed ones
+        final Map<K, V> edits = new HashMap<>();
+        // -1 until counted
+        int size;
+
+        LazyMap(Set<K> keys, Function<Object, V> lookup) {
+            this.keys = keys;
+            this.lookup = lookup;
+            this.complete = false;
+            this.size = -1;
+        }
+
+        // for maps with a value for each of the keys
+        LazyMap(Set<K> keys, Function<Object, V> lookup, int size) {
+            this.keys = keys;
+            this.lookup = lookup;
+            this.complete = true;
+            this.size = size;
+        }
+
+        @Override
+        public V get(Object key) {
+            if (edits.containsKey(key))
+                return edits.get(key);
+            return lookup.apply(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (value == null)
+                throw new NullPointerException("Lazy maps do not support null values (key: " + key + ")");
+            V old = get(key);
+            edits.put(key, value);
+            if (old == null && size >= 0)
+                size++;
+            return old;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V remove(Object key) {
+            V old = get(key);
+            if (old != null) {
+                edits.put((K) key, null);
+                if (size >= 0)
+                    size--;
+            }
+            return old;
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int n = 0;
+                for (Iterator<Entry<K, V>> it = entrySet().iterator(); it.hasNext(); it.next()) {
+                    n++;
+                }
+                size = n;
+            }
+            return size;
+        }
+
+        // the keys of the file, then the added ones
+        private Stream<K> allKeys() {
+            return Stream.concat(keys.stream(),
+                    edits.keySet().stream().filter(key -> edits.get(key) != null && !keys.contains(key)));
+        }
+
+        @Override
+        public Set<K> keySet() {
+            if (!complete)
+                return super.keySet();
+            return new AbstractSet<K>() {
+                @Override
+                public Iterator<K> iterator() {
+                    return allKeys().filter(key -> !edits.containsKey(key) || edits.get(key) != null).iterator();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    return containsKey(o);
+                }
+
+                @Override
+                public int size() {
+                    return LazyMap.this.size();
+                }
+            };
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                @Override
+                public Iterator<Entry<K, V>> iterator() {
+                    return allKeys().map(key -> (Entry<K, V>) new SimpleImmutableEntry<>(key, get(key)))
+                            .filter(entry -> entry.getValue() != null).iterator();
+                }
+
+                @Override
+                public int size() {
+                    return LazyMap.this.size();
+                }
+            };
+        }
+    }
+
+    private interface LinkField<V> {
+        V get(AtomRecord record, int i);
+    }
+
+    static class AtomRecord {
+        final String status;
+        final String[] groundings;
+        final String[] linkStatus;
+        final Double[] strength;
+        final Double[] counterfactual;
+        final double[][] equalityCounterfactuals;
+        final Set<Tuple> outgoing = new TreeSet<>();
+
+        AtomRecord(String status, int nLinks) {
+            this.status = status;
+            groundings = new String[nLinks];
+            linkStatus = new String[nLinks];
+            strength = new Double[nLinks];
+            counterfactual = new Double[nLinks];
+            equalityCounterfactuals = new double[nLinks][];
+        }
+
+        int indexOf(String grounding) {
+            for (int i = 0; i < groundings.length; i++) {
+                if (groundings[i].equals(grounding))
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    static class GroundingRecord {
+        final double status;
+        final List<Tuple> incoming = new ArrayList<>();
+
+        GroundingRecord(double status) {
+            this.status = status;
+        }
+    }
+
+    /**
+     * Keeps the most recently used entries.
+     */
+    private static class BoundedCache<K, V> {
+        final Map<K, V> entries;
+
+        BoundedCache(int capacity) {
+            entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized V get(K key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(K key, V value) {
+            entries.put(key, value);
+        }
+    }
+
+    /**
+     * Writes length-prefixed records, keeping track of their offsets in the file.
+     */
+    private static class RecordOutput {
+        final DataOutputStream out;
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(buffer);
+        long position;
+
+        RecordOutput(OutputStream os, long position) {
+            this.out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+            this.position = position;
+        }
+
+        DataOutputStream start() {
+            buffer.reset();
+            return record;
+        }
+
+        // returns the offset of the record
+        long finish() throws IOException {
+            record.flush();
+            long offset = position;
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+            position += 4 + buffer.size();
+            return offset;
+        }
+
+        long writeIndex(long[] offsets) throws IOException {
+            long offset = position;
+            for (long recordOffset : offsets) {
+                out.writeLong(recordOffset);
+            }
+            position += 8L * offsets.length;
+            return offset;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+}
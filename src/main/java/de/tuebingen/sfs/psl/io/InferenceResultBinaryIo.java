@@ -0,0 +1,544 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.PressureIndex;
+import de.tuebingen.sfs.psl.engine.PslProblem;
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+/**
+ * Binary alternative to the TSV format of {@link InferenceResultIo}, holding the same information.
+ * All strings are stored once in a dictionary and referred to by int ids; groundings, atoms, links and values
+ * are stored column by column, with doubles as raw 8-byte values.
+ * <p>
+ * Layout (version 1, big-endian):
+ * <pre>
+ * MAGIC VERSION
+ * DICTIONARY      n, n * (length, UTF-8 bytes)
+ * FILTER          class, ignore list, ignore in GUI, prevent user interaction, pred to name, fixed atoms, hidden atoms
+ * RULES           n, n * (name, class, parameters)
+ * GROUNDINGS      n, names[n], status[n], equality flags[n], incoming counts[n], incoming atoms[sum of counts]
+ * ATOMS           n, names[n], belief values[n], statuses[n]
+ * LINKS           n, atom indices[n], grounding indices[n], statuses[n], flags[n], strengths[n],
+ *                 counterfactuals[n], upper equality counterfactuals[n]
+ * INFERENCE VALUES n, atoms[n], values[n]
+ * TALKING PREDS   n, n * (name, arity, class)
+ * </pre>
+ * Missing strings are stored as id -1.
+ */
+public class InferenceResultBinaryIo {
+
+    public static final int MAGIC = 0x50534C52; // "PSLR"
+    public static final int VERSION = 1;
+
+    private static final byte HAS_STRENGTH = 1;
+    private static final byte HAS_COUNTERFACTUAL = 2;
+    private static final byte HAS_EQUALITY_COUNTERFACTUALS = 4;
+
+    public static void saveToFile(InferenceResult inferenceResult, PslProblem problem, File path) {
+        saveToFile(inferenceResult, problem.getTalkingPredicates(), problem.getTalkingRules(), path);
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, File path) {
+        if (!path.exists() && path.getParentFile() != null) {
+            path.getParentFile().mkdirs();
+        }
+        try (OutputStream out = new FileOutputStream(path)) {
+            saveToFile(inferenceResult, talkingPreds, talkingRules, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, OutputStream os) throws IOException {
+        RuleAtomGraph rag = inferenceResult.getRag();
+        RagFilter filter = rag.getRagFilter();
+        StringDictionary dict = new StringDictionary();
+
+        // filter
+        int filterClass = dict.id(filter.getClass().getName());
+        int[] ignoreList = dict.ids(filter.getIgnoreList());
+        int[] ignoreInGui = dict.ids(filter.getIgnoreInGui());
+        int[] preventUserInteraction = dict.ids(filter.getPreventUserInteraction());
+        int[] predToName = new int[filter.getGroundPred2ActualNames().size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : filter.getGroundPred2ActualNames().entrySet()) {
+            predToName[i++] = dict.id(entry.getKey());
+            predToName[i++] = dict.id(entry.getValue());
+        }
+        int[] fixedAtoms = dict.ids(filter.getFixedAtoms());
+        int[] hiddenAtoms = dict.ids(filter.getHiddenAtoms());
+
+        // groundings and the rules they belong to
+        Set<String> groundingNodes = rag.getGroundingNodes();
+        int nGroundings = groundingNodes.size();
+        int[] groundingNames = new int[nGroundings];
+        double[] groundingStatus = new double[nGroundings];
+        byte[] equality = new byte[nGroundings];
+        int[] incomingCounts = new int[nGroundings];
+        List<Integer> incomingAtoms = new ArrayList<>();
+        Map<String, Integer> groundingIndex = new HashMap<>();
+        Map<String, int[]> rules = new TreeMap<>();
+        i = 0;
+        for (String grounding : groundingNodes) {
+            groundingIndex.put(grounding, i);
+            groundingNames[i] = dict.id(grounding);
+            Double status = rag.getGroundingStatus(grounding);
+            groundingStatus[i] = (status == null) ? 0.0 : status;
+            equality[i] = (byte) (rag.isEqualityRule(grounding) ? 1 : 0);
+            List<Tuple> incoming = rag.getIncomingLinks(grounding);
+            if (incoming != null) {
+                incomingCounts[i] = incoming.size();
+                for (Tuple link : incoming) {
+                    incomingAtoms.add(dict.id(link.get(0)));
+                }
+            }
+            String ruleName = PressureIndex.ruleName(grounding);
+            if (!rules.containsKey(ruleName)) {
+                TalkingRuleOrConstraint rule = talkingRules.get(ruleName);
+                if (rule != null)
+                    rules.put(ruleName, new int[]{dict.id(ruleName), dict.id(rule.getClass().getName()),
+                            dict.id(rule.getSerializedParameters())});
+            }
+            i++;
+        }
+
+        // atoms and their links
+        Set<String> atomNodes = rag.getAtomNodes();
+        int nAtoms = atomNodes.size();
+        int[] atomNames = new int[nAtoms];
+        double[] atomValues = new double[nAtoms];
+        int[] atomStatus = new int[nAtoms];
+        int nLinks = 0;
+        for (String atom : atomNodes) {
+            nLinks += rag.getOutgoingLinks(atom).size();
+        }
+        int[] linkAtoms = new int[nLinks];
+        int[] linkGroundings = new int[nLinks];
+        int[] linkStatus = new int[nLinks];
+        byte[] linkFlags = new byte[nLinks];
+        double[] linkStrength = new double[nLinks];
+        double[] counterfactual = new double[nLinks];
+        double[] upperCounterfactual = new double[nLinks];
+        int a = 0;
+        int l = 0;
+        for (String atom : atomNodes) {
+            atomNames[a] = dict.id(atom);
+            atomValues[a] = filter.getValueForAtom(atom);
+            atomStatus[a] = dict.id(rag.getAtomStatus(atom));
+            for (Tuple link : rag.getOutgoingLinks(atom)) {
+                linkAtoms[l] = a;
+                Integer g = groundingIndex.get(link.get(1));
+                linkGroundings[l] = (g == null) ? -1 : g;
+                linkStatus[l] = dict.id(rag.getLinkStatus(link));
+                byte flags = 0;
+                Double strength = rag.getLinkStrength(link);
+                if (strength != null) {
+                    flags |= HAS_STRENGTH;
+                    linkStrength[l] = strength;
+                }
+                double[] eqCounterfactual = rag.getCounterfactualsForEqualityRule(link);
+                if (eqCounterfactual != null) {
+                    flags |= HAS_EQUALITY_COUNTERFACTUALS;
+                    counterfactual[l] = eqCounterfactual[0];
+                    upperCounterfactual[l] = eqCounterfactual[1];
+                } else {
+                    Double cf = rag.getCounterfactual(link);
+                    if (cf != null) {
+                        flags |= HAS_COUNTERFACTUAL;
+                        counterfactual[l] = cf;
+                    }
+                }
+                linkFlags[l] = flags;
+                l++;
+            }
+            a++;
+        }
+
+        // inference values
+        Map<String, Double> inferenceValues = inferenceResult.getInferenceValues();
+        int[] valueAtoms = new int[inferenceValues.size()];
+        double[] values = new double[inferenceValues.size()];
+        i = 0;
+        if (inferenceValues instanceof BeliefMap) {
+            // in key order without boxing
+            BeliefMap beliefMap = (BeliefMap) inferenceValues;
+            for (String atom : beliefMap.keySet()) {
+                valueAtoms[i] = dict.id(atom);
+                values[i] = beliefMap.getValue(atom, 0.0);
+                i++;
+            }
+        } else {
+            for (Map.Entry<String, Double> entry : inferenceValues.entrySet()) {
+                valueAtoms[i] = dict.id(entry.getKey());
+                values[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        // talking predicates
+        int[] predNames = new int[talkingPreds.size()];
+        int[] predArities = new int[talkingPreds.size()];
+        int[] predClasses = new int[talkingPreds.size()];
+        i = 0;
+        for (Map.Entry<String, TalkingPredicate> entry : talkingPreds.entrySet()) {
+            predNames[i] = dict.id(entry.getKey());
+            predArities[i] = entry.getValue().getArity();
+            predClasses[i] = dict.id(entry.getValue().getClass().getName());
+            i++;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        dict.write(out);
+
+        out.writeInt(filterClass);
+        writeInts(out, ignoreList);
+        writeInts(out, ignoreInGui);
+        writeInts(out, preventUserInteraction);
+        writeInts(out, predToName);
+        writeInts(out, fixedAtoms);
+        writeInts(out, hiddenAtoms);
+
+        out.writeInt(rules.size());
+        for (int[] rule : rules.values()) {
+            out.writeInt(rule[0]);
+            out.writeInt(rule[1]);
+            out.writeInt(rule[2]);
+        }
+
+        out.writeInt(nGroundings);
+        writeColumn(out, groundingNames);
+        writeColumn(out, groundingStatus);
+        out.write(equality);
+        writeColumn(out, incomingCounts);
+        for (int atom : incomingAtoms) {
+            out.writeInt(atom);
+        }
+
+        out.writeInt(nAtoms);
+        writeColumn(out, atomNames);
+        writeColumn(out, atomValues);
+        writeColumn(out, atomStatus);
+
+        out.writeInt(nLinks);
+        writeColumn(out, linkAtoms);
+        writeColumn(out, linkGroundings);
+        writeColumn(out, linkStatus);
+        out.write(linkFlags);
+        writeColumn(out, linkStrength);
+        writeColumn(out, counterfactual);
+        writeColumn(out, upperCounterfactual);
+
+        out.writeInt(valueAtoms.length);
+        writeColumn(out, valueAtoms);
+        writeColumn(out, values);
+
+        out.writeInt(predNames.length);
+        for (i = 0; i < predNames.length; i++) {
+            out.writeInt(predNames[i]);
+            out.writeInt(predArities[i]);
+            out.writeInt(predClasses[i]);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return true if the file starts with the magic number of this format
+     */
+    public static boolean isBinaryFormat(File path) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public static InferenceResult fromFile(File path, Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules) {
+        try (InputStream is = new FileInputStream(path)) {
+            return fromFile(is, talkingPreds, talkingRules);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public static InferenceResult fromFile(InputStream is, Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules) throws IOException {
+        if (talkingPreds == null)
+            talkingPreds = new TreeMap<>();
+        if (talkingRules == null)
+            talkingRules = new TreeMap<>();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, 1 << 16));
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a binary InferenceResult file.");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported binary InferenceResult version " + version + ".");
+        String[] dict = StringDictionary.read(in);
+
+        String filterClass = lookup(dict, in.readInt());
+        Set<String> ignoreList = readStrings(in, dict, new TreeSet<>());
+        Set<String> ignoreInGui = readStrings(in, dict, new TreeSet<>());
+        Set<String> preventUserInteraction = readStrings(in, dict, new TreeSet<>());
+        int[] predToName = readInts(in);
+        Map<String, String> groundPreds2ActualNames = new TreeMap<>();
+        for (int i = 0; i < predToName.length; i += 2) {
+            groundPreds2ActualNames.put(dict[predToName[i]], dict[predToName[i + 1]]);
+        }
+        Set<String> fixedAtoms = readStrings(in, dict, new HashSet<>());
+        Set<String> hiddenAtoms = readStrings(in, dict, new HashSet<>());
+
+        int nRules = in.readInt();
+        for (int i = 0; i < nRules; i++) {
+            in.readInt(); // rule name, also available from the rule itself
+            String ruleClass = lookup(dict, in.readInt());
+            String parameters = lookup(dict, in.readInt());
+            TalkingRuleOrConstraint rule = InferenceResultIo.createTalkingRule(ruleClass, parameters);
+            if (rule != null)
+                talkingRules.put(rule.getName(), rule);
+        }
+
+        int nGroundings = in.readInt();
+        int[] groundingNames = readColumn(in, nGroundings);
+        double[] groundingStatusColumn = readDoubleColumn(in, nGroundings);
+        byte[] equality = new byte[nGroundings];
+        in.readFully(equality);
+        int[] incomingCounts = readColumn(in, nGroundings);
+        Set<String> groundingNodes = new TreeSet<>();
+        Map<String, Double> groundingStatus = new TreeMap<>();
+        Set<String> equalityGroundings = new TreeSet<>();
+        Map<String, List<Tuple>> incomingLinks = new TreeMap<>();
+        for (int g = 0; g < nGroundings; g++) {
+            String grounding = dict[groundingNames[g]];
+            groundingNodes.add(grounding);
+            groundingStatus.put(grounding, groundingStatusColumn[g]);
+            if (equality[g] != 0)
+                equalityGroundings.add(grounding);
+            List<Tuple> incoming = new ArrayList<>(incomingCounts[g]);
+            for (int k = 0; k < incomingCounts[g]; k++) {
+                incoming.add(new Tuple(dict[in.readInt()], grounding));
+            }
+            incomingLinks.put(grounding, incoming);
+        }
+
+        int nAtoms = in.readInt();
+        int[] atomNames = readColumn(in, nAtoms);
+        double[] atomValues = readDoubleColumn(in, nAtoms);
+        int[] atomStatusColumn = readColumn(in, nAtoms);
+        Set<String> atomNodes = new TreeSet<>();
+        BeliefMap beliefValues = new BeliefMap(nAtoms);
+        Map<String, String> atomStatus = new TreeMap<>();
+        for (int a = 0; a < nAtoms; a++) {
+            String atom = dict[atomNames[a]];
+            atomNodes.add(atom);
+            beliefValues.putValue(atom, atomValues[a]);
+            String status = lookup(dict, atomStatusColumn[a]);
+            if (status != null)
+                atomStatus.put(atom, status);
+        }
+
+        int nLinks = in.readInt();
+        int[] linkAtoms = readColumn(in, nLinks);
+        int[] linkGroundings = readColumn(in, nLinks);
+        int[] linkStatusColumn = readColumn(in, nLinks);
+        byte[] linkFlags = new byte[nLinks];
+        in.readFully(linkFlags);
+        double[] linkStrengthColumn = readDoubleColumn(in, nLinks);
+        double[] counterfactual = readDoubleColumn(in, nLinks);
+        double[] upperCounterfactual = readDoubleColumn(in, nLinks);
+        Set<Tuple> links = new TreeSet<>();
+        Map<Tuple, String> linkStatus = new TreeMap<>();
+        Map<Tuple, Double> linkToCounterfactual = new TreeMap<>();
+        Map<Tuple, double[]> equalityRuleLinkToCounterfactual = new TreeMap<>();
+        Map<Tuple, Double> linkStrength = new TreeMap<>();
+        Map<String, Set<Tuple>> outgoingLinks = new TreeMap<>();
+        for (int l = 0; l < nLinks; l++) {
+            String atom = dict[atomNames[linkAtoms[l]]];
+            String grounding = (linkGroundings[l] < 0) ? null : dict[groundingNames[linkGroundings[l]]];
+            Tuple link = new Tuple(atom, grounding);
+            links.add(link);
+            String status = lookup(dict, linkStatusColumn[l]);
+            if (status != null)
+                linkStatus.put(link, status);
+            byte flags = linkFlags[l];
+            linkStrength.put(link, ((flags & HAS_STRENGTH) != 0) ? linkStrengthColumn[l] : null);
+            if ((flags & HAS_EQUALITY_COUNTERFACTUALS) != 0) {
+                equalityRuleLinkToCounterfactual.put(link, new double[]{counterfactual[l], upperCounterfactual[l]});
+            } else if ((flags & HAS_COUNTERFACTUAL) != 0) {
+                linkToCounterfactual.put(link, counterfactual[l]);
+            }
+            outgoingLinks.computeIfAbsent(atom, x -> new TreeSet<>()).add(link);
+        }
+
+        int nValues = in.readInt();
+        int[] valueAtoms = readColumn(in, nValues);
+        double[] values = readDoubleColumn(in, nValues);
+        BeliefMap scoreMap = new BeliefMap(nValues);
+        for (int i = 0; i < nValues; i++) {
+            scoreMap.putValue(dict[valueAtoms[i]], values[i]);
+        }
+
+        int nPreds = in.readInt();
+        for (int i = 0; i < nPreds; i++) {
+            String predName = dict[in.readInt()];
+            int arity = in.readInt();
+            String predClass = lookup(dict, in.readInt());
+            talkingPreds.put(predName, InferenceResultIo.createTalkingPredicate(predName, arity, predClass));
+        }
+
+        RagFilter ragFilter = InferenceResultIo.createRagFilter(filterClass);
+        ragFilter.setAll(beliefValues, groundPreds2ActualNames, ignoreList, ignoreInGui, preventUserInteraction,
+                fixedAtoms, hiddenAtoms);
+        RuleAtomGraph rag = new RuleAtomGraph(groundingNodes, groundingStatus, equalityGroundings, atomNodes,
+                atomStatus, links, linkStatus, linkToCounterfactual, equalityRuleLinkToCounterfactual, linkStrength,
+                outgoingLinks, incomingLinks, ragFilter);
+        return InferenceResultIo.createResult(rag, scoreMap, talkingPreds, talkingRules);
+    }
+
+    private static String lookup(String[] dict, int id) {
+        return (id < 0) ? null : dict[id];
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        writeColumn(out, ids);
+    }
+
+    private static void writeColumn(DataOutputStream out, int[] column) throws IOException {
+        for (int x : column) {
+            out.writeInt(x);
+        }
+    }
+
+    private static void writeColumn(DataOutputStream out, double[] column) throws IOException {
+        for (double x : column) {
+            out.writeDouble(x);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        return readColumn(in, in.readInt());
+    }
+
+    private static int[] readColumn(DataInputStream in, int n) throws IOException {
+        int[] column = new int[n];
+        for (int i = 0; i < n; i++) {
+            column[i] = in.readInt();
+        }
+        return column;
+    }
+
+    private static double[] readDoubleColumn(DataInputStream in, int n) throws IOException {
+        double[] column = new double[n];
+        for (int i = 0; i < n; i++) {
+            column[i] = in.readDouble();
+        }
+        return column;
+    }
+
+    private static <C extends Collection<String>> C readStrings(DataInputStream in, String[] dict, C strings)
+            throws IOException {
+        for (int id : readInts(in)) {
+            strings.add(dict[id]);
+        }
+        return strings;
+    }
+
+    /**
+     * Assigns consecutive ids to strings in the order they are first seen.
+     */
+    static class StringDictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int id(String s) {
+            if (s == null)
+                return -1;
+            Integer id = ids.get(s);
+            if (id == null) {
+                id = strings.size();
+                ids.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        int[] ids(Collection<String> collection) {
+            int[] result = new int[collection.size()];
+            int i = 0;
+            for (String s : collection) {
+                result[i++] = id(s);
+            }
+            return result;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        static String[] read(DataInputStream in) throws IOException {
+            String[] strings = new String[in.readInt()];
+            byte[] buffer = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = in.readInt();
+                if (buffer.length < length)
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                strings[i] = new String(buffer, 0, length, StandardCharsets.UTF_8);
+            }
+            return strings;
+        }
+    }
+
+}
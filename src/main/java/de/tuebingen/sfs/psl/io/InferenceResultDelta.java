@@ -0,0 +1,479 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+/**
+ * The differences between two successive versions of an {@link InferenceResult}:
+ * changed inference and belief values, added, removed and re-evaluated groundings, atoms and links,
+ * and changes to the fixed and hidden atoms.
+ * The other filter settings are assumed not to change between versions.
+ *
+ * @see InferenceResultHistory
+ */
+public class InferenceResultDelta {
+
+    private static final byte HAS_STRENGTH = 1;
+    private static final byte HAS_COUNTERFACTUAL = 2;
+    private static final byte HAS_EQUALITY_COUNTERFACTUALS = 4;
+
+    Map<String, Double> changedValues = new TreeMap<>();
+    Set<String> removedValues = new TreeSet<>();
+    Map<String, Double> changedBeliefs = new TreeMap<>();
+    Set<String> removedBeliefs = new TreeSet<>();
+
+    // groundings that were added or whose atoms changed, with all their information
+    Map<String, GroundingEntry> addedGroundings = new TreeMap<>();
+    Map<String, Double> changedGroundingStatus = new TreeMap<>();
+    Set<String> removedGroundings = new TreeSet<>();
+
+    Set<String> addedAtoms = new TreeSet<>();
+    Map<String, String> changedAtomStatus = new TreeMap<>();
+    Set<String> removedAtoms = new TreeSet<>();
+
+    // links that were added or changed
+    Map<Tuple, LinkEntry> changedLinks = new TreeMap<>();
+    Set<Tuple> removedLinks = new TreeSet<>();
+
+    // null if unchanged
+    Set<String> fixedAtoms = null;
+    Set<String> hiddenAtoms = null;
+
+    // class and serialized parameters of the rules needed by added groundings
+    List<String[]> addedRules = new ArrayList<>();
+
+    static InferenceResultDelta compute(TsvRagData from, TsvRagData to) {
+        InferenceResultDelta delta = new InferenceResultDelta();
+        compareValues(from.scoreMap, to.scoreMap, delta.changedValues, delta.removedValues);
+        compareValues(from.beliefValues, to.beliefValues, delta.changedBeliefs, delta.removedBeliefs);
+
+        for (String grounding : to.groundingNodes) {
+            boolean equality = to.equalityGroundings.contains(grounding);
+            if (!from.groundingNodes.contains(grounding)
+                    || equality != from.equalityGroundings.contains(grounding)
+                    || !to.incomingLinks.get(grounding).equals(from.incomingLinks.get(grounding))) {
+                List<String> atoms = new ArrayList<>();
+                for (Tuple link : to.incomingLinks.get(grounding)) {
+                    atoms.add(link.get(0));
+                }
+                delta.addedGroundings.put(grounding,
+                        new GroundingEntry(to.groundingStatus.get(grounding), equality, atoms));
+            } else if (!to.groundingStatus.get(grounding).equals(from.groundingStatus.get(grounding))) {
+                delta.changedGroundingStatus.put(grounding, to.groundingStatus.get(grounding));
+            }
+        }
+        for (String grounding : from.groundingNodes) {
+            if (!to.groundingNodes.contains(grounding))
+                delta.removedGroundings.add(grounding);
+        }
+
+        for (String atom : to.atomNodes) {
+            String status = to.atomStatus.get(atom);
+            if (!from.atomNodes.contains(atom)) {
+                delta.addedAtoms.add(atom);
+                delta.changedAtomStatus.put(atom, status);
+            } else if (!Objects.equals(status, from.atomStatus.get(atom))) {
+                delta.changedAtomStatus.put(atom, status);
+            }
+        }
+        for (String atom : from.atomNodes) {
+            if (!to.atomNodes.contains(atom))
+                delta.removedAtoms.add(atom);
+        }
+
+        for (Tuple link : to.links) {
+            LinkEntry entry = new LinkEntry(to.linkStatus.get(link), to.linkStrength.get(link),
+                    to.linkToCounterfactual.get(link), to.equalityRuleLinkToCounterfactual.get(link));
+            if (!from.links.contains(link) || !entry.equals(new LinkEntry(from.linkStatus.get(link),
+                    from.linkStrength.get(link), from.linkToCounterfactual.get(link),
+                    from.equalityRuleLinkToCounterfactual.get(link)))) {
+                delta.changedLinks.put(link, entry);
+            }
+        }
+        for (Tuple link : from.links) {
+            if (!to.links.contains(link))
+                delta.removedLinks.add(link);
+        }
+
+        if (!from.fixedAtoms.equals(to.fixedAtoms))
+            delta.fixedAtoms = new TreeSet<>(to.fixedAtoms);
+        if (!from.hiddenAtoms.equals(to.hiddenAtoms))
+            delta.hiddenAtoms = new TreeSet<>(to.hiddenAtoms);
+
+        for (Map.Entry<String, TalkingRuleOrConstraint> entry : to.talkingRules.entrySet()) {
+            if (!from.talkingRules.containsKey(entry.getKey()))
+                delta.addedRules.add(new String[]{entry.getValue().getClass().getName(),
+                        entry.getValue().getSerializedParameters()});
+        }
+        return delta;
+    }
+
+    private static void compareValues(BeliefMap from, BeliefMap to, Map<String, Double> changed, Set<String> removed) {
+        to.forEachValue((atom, value) -> {
+            if (Double.compare(from.getValue(atom, Double.NaN), value) != 0)
+                changed.put(atom, value);
+        });
+        from.forEachValue((atom, value) -> {
+            if (!to.containsKey(atom))
+                removed.add(atom);
+        });
+    }
+
+    /**
+     * Turns the contents of the previous version into the contents of the next one.
+     */
+    void applyTo(TsvRagData data) {
+        for (String atom : removedValues) {
+            data.scoreMap.remove(atom);
+        }
+        changedValues.forEach(data.scoreMap::putValue);
+        for (String atom : removedBeliefs) {
+            data.beliefValues.remove(atom);
+        }
+        changedBeliefs.forEach(data.beliefValues::putValue);
+
+        for (Tuple link : removedLinks) {
+            removeLink(data, link);
+        }
+        for (String grounding : removedGroundings) {
+            data.groundingNodes.remove(grounding);
+            data.groundingStatus.remove(grounding);
+            data.equalityGroundings.remove(grounding);
+            data.incomingLinks.remove(grounding);
+        }
+        for (String atom : removedAtoms) {
+            data.atomNodes.remove(atom);
+            data.atomStatus.remove(atom);
+            data.outgoingLinks.remove(atom);
+        }
+
+        for (String[] rule : addedRules) {
+            data.addRule(rule[0], rule[1]);
+        }
+        data.atomNodes.addAll(addedAtoms);
+        data.atomStatus.putAll(changedAtomStatus);
+        for (Map.Entry<String, GroundingEntry> entry : addedGroundings.entrySet()) {
+            GroundingEntry grounding = entry.getValue();
+            data.addGrounding(entry.getKey(), grounding.status, grounding.atoms);
+            if (grounding.equality)
+                data.equalityGroundings.add(entry.getKey());
+            else
+                data.equalityGroundings.remove(entry.getKey());
+        }
+        data.groundingStatus.putAll(changedGroundingStatus);
+        for (Map.Entry<Tuple, LinkEntry> entry : changedLinks.entrySet()) {
+            Tuple link = entry.getKey();
+            LinkEntry linkEntry = entry.getValue();
+            removeLink(data, link);
+            data.addLink(link.get(0), link.get(1), linkEntry.status, linkEntry.strength, linkEntry.counterfactual,
+                    linkEntry.equalityCounterfactuals);
+        }
+
+        if (fixedAtoms != null) {
+            data.fixedAtoms.clear();
+            data.fixedAtoms.addAll(fixedAtoms);
+        }
+        if (hiddenAtoms != null) {
+            data.hiddenAtoms.clear();
+            data.hiddenAtoms.addAll(hiddenAtoms);
+        }
+    }
+
+    private static void removeLink(TsvRagData data, Tuple link) {
+        data.links.remove(link);
+        data.linkStatus.remove(link);
+        data.linkStrength.remove(link);
+        data.linkToCounterfactual.remove(link);
+        data.equalityRuleLinkToCounterfactual.remove(link);
+        Set<Tuple> outgoing = data.outgoingLinks.get(link.get(0));
+        if (outgoing != null)
+            outgoing.remove(link);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of changed entries
+     */
+    public int size() {
+        return changedValues.size() + removedValues.size() + changedBeliefs.size() + removedBeliefs.size()
+                + addedGroundings.size() + changedGroundingStatus.size() + removedGroundings.size()
+                + addedAtoms.size() + changedAtomStatus.size() + removedAtoms.size()
+                + changedLinks.size() + removedLinks.size() + addedRules.size()
+                + (fixedAtoms == null ? 0 : 1) + (hiddenAtoms == null ? 0 : 1);
+    }
+
+    public Map<String, Double> getChangedValues() {
+        return changedValues;
+    }
+
+    public Set<String> getRemovedValues() {
+        return removedValues;
+    }
+
+    public Map<String, Double> getChangedGroundingStatus() {
+        return changedGroundingStatus;
+    }
+
+    public Set<String> getAddedGroundings() {
+        return addedGroundings.keySet();
+    }
+
+    public Set<String> getRemovedGroundings() {
+        return removedGroundings;
+    }
+
+    public Set<Tuple> getChangedLinks() {
+        return changedLinks.keySet();
+    }
+
+    public Set<Tuple> getRemovedLinks() {
+        return removedLinks;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        writeValues(out, changedValues);
+        writeStrings(out, removedValues);
+        writeValues(out, changedBeliefs);
+        writeStrings(out, removedBeliefs);
+
+        out.writeInt(addedGroundings.size());
+        for (Map.Entry<String, GroundingEntry> entry : addedGroundings.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeDouble(entry.getValue().status);
+            out.writeBoolean(entry.getValue().equality);
+            writeStrings(out, entry.getValue().atoms);
+        }
+        writeValues(out, changedGroundingStatus);
+        writeStrings(out, removedGroundings);
+
+        writeStrings(out, addedAtoms);
+        out.writeInt(changedAtomStatus.size());
+        for (Map.Entry<String, String> entry : changedAtomStatus.entrySet()) {
+            out.writeUTF(entry.getKey());
+            writeNullable(out, entry.getValue());
+        }
+        writeStrings(out, removedAtoms);
+
+        out.writeInt(changedLinks.size());
+        for (Map.Entry<Tuple, LinkEntry> entry : changedLinks.entrySet()) {
+            LinkEntry link = entry.getValue();
+            out.writeUTF(entry.getKey().get(0));
+            out.writeUTF(entry.getKey().get(1));
+            writeNullable(out, link.status);
+            byte flags = 0;
+            if (link.strength != null)
+                flags |= HAS_STRENGTH;
+            if (link.equalityCounterfactuals != null)
+                flags |= HAS_EQUALITY_COUNTERFACTUALS;
+            else if (link.counterfactual != null)
+                flags |= HAS_COUNTERFACTUAL;
+            out.writeByte(flags);
+            if (link.strength != null)
+                out.writeDouble(link.strength);
+            if (link.equalityCounterfactuals != null) {
+                out.writeDouble(link.equalityCounterfactuals[0]);
+                out.writeDouble(link.equalityCounterfactuals[1]);
+            } else if (link.counterfactual != null) {
+                out.writeDouble(link.counterfactual);
+            }
+        }
+        out.writeInt(removedLinks.size());
+        for (Tuple link : removedLinks) {
+            out.writeUTF(link.get(0));
+            out.writeUTF(link.get(1));
+        }
+
+        out.writeBoolean(fixedAtoms != null);
+        if (fixedAtoms != null)
+            writeStrings(out, fixedAtoms);
+        out.writeBoolean(hiddenAtoms != null);
+        if (hiddenAtoms != null)
+            writeStrings(out, hiddenAtoms);
+
+        out.writeInt(addedRules.size());
+        for (String[] rule : addedRules) {
+            out.writeUTF(rule[0]);
+            out.writeUTF(rule[1]);
+        }
+    }
+
+    static InferenceResultDelta read(DataInputStream in) throws IOException {
+        InferenceResultDelta delta = new InferenceResultDelta();
+        readValues(in, delta.changedValues);
+        readStrings(in, delta.removedValues);
+        readValues(in, delta.changedBeliefs);
+        readStrings(in, delta.removedBeliefs);
+
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String grounding = in.readUTF();
+            double status = in.readDouble();
+            boolean equality = in.readBoolean();
+            List<String> atoms = new ArrayList<>();
+            readStrings(in, atoms);
+            delta.addedGroundings.put(grounding, new GroundingEntry(status, equality, atoms));
+        }
+        readValues(in, delta.changedGroundingStatus);
+        readStrings(in, delta.removedGroundings);
+
+        readStrings(in, delta.addedAtoms);
+        n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String atom = in.readUTF();
+            delta.changedAtomStatus.put(atom, in.readBoolean() ? in.readUTF() : null);
+        }
+        readStrings(in, delta.removedAtoms);
+
+        n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            Tuple link = new Tuple(in.readUTF(), in.readUTF());
+            String status = in.readBoolean() ? in.readUTF() : null;
+            byte flags = in.readByte();
+            Double strength = ((flags & HAS_STRENGTH) != 0) ? in.readDouble() : null;
+            Double counterfactual = null;
+            double[] equalityCounterfactuals = null;
+            if ((flags & HAS_EQUALITY_COUNTERFACTUALS) != 0)
+                equalityCounterfactuals = new double[]{in.readDouble(), in.readDouble()};
+            else if ((flags & HAS_COUNTERFACTUAL) != 0)
+                counterfactual = in.readDouble();
+            delta.changedLinks.put(link, new LinkEntry(status, strength, counterfactual, equalityCounterfactuals));
+        }
+        n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            delta.removedLinks.add(new Tuple(in.readUTF(), in.readUTF()));
+        }
+
+        if (in.readBoolean()) {
+            delta.fixedAtoms = new TreeSet<>();
+            readStrings(in, delta.fixedAtoms);
+        }
+        if (in.readBoolean()) {
+            delta.hiddenAtoms = new TreeSet<>();
+            readStrings(in, delta.hiddenAtoms);
+        }
+
+        n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            delta.addedRules.add(new String[]{in.readUTF(), in.readUTF()});
+        }
+        return delta;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static void readStrings(DataInputStream in, Collection<String> strings) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    private static void writeValues(DataOutputStream out, Map<String, Double> values) throws IOException {
+        out.writeInt(values.size());
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeDouble(entry.getValue());
+        }
+    }
+
+    private static void readValues(DataInputStream in, Map<String, Double> values) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            values.put(in.readUTF(), in.readDouble());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceResultDelta[" + (changedValues.size() + removedValues.size()) + " values, "
+                + (addedGroundings.size() + changedGroundingStatus.size() + removedGroundings.size()) + " groundings, "
+                + (addedAtoms.size() + changedAtomStatus.size() + removedAtoms.size()) + " atoms, "
+                + (changedLinks.size() + removedLinks.size()) + " links]";
+    }
+
+    static class GroundingEntry {
+        final double status;
+        final boolean equality;
+        final List<String> atoms;
+
+        GroundingEntry(double status, boolean equality, List<String> atoms) {
+            this.status = status;
+            this.equality = equality;
+            this.atoms = atoms;
+        }
+    }
+
+    static class LinkEntry {
+        final String status;
+        final Double strength;
+        final Double counterfactual;
+        final double[] equalityCounterfactuals;
+
+        LinkEntry(String status, Double strength, Double counterfactual, double[] equalityCounterfactuals) {
+            this.status = status;
+            this.strength = strength;
+            this.counterfactual = counterfactual;
+            this.equalityCounterfactuals = equalityCounterfactuals;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LinkEntry))
+                return false;
+            LinkEntry other = (LinkEntry) o;
+            return Objects.equals(status, other.status) && Objects.equals(strength, other.strength)
+                    && Objects.equals(counterfactual, other.counterfactual)
+                    && Arrays.equals(equalityCounterfactuals, other.equalityCounterfactuals);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(status, strength, counterfactual) * 31 + Arrays.hashCode(equalityCounterfactuals);
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+
+/**
+ * A sequence of versions of an {@link InferenceResult}, e.g. one after every edit in an interactive session,
+ * stored as a base result plus one {@link InferenceResultDelta} per subsequent version.
+ * A copy of every n-th version (see {@link #getCheckpointInterval()}) is kept in memory, so reconstructing
+ * a version only needs to apply the deltas since the closest checkpoint.
+ * <p>
+ * On disk, the base result is stored in the format of {@link InferenceResultBinaryIo},
+ * followed by the deltas, so a new version can be appended without rewriting the file
+ * (see {@link #appendToFile(File, InferenceResultDelta)}).
+ */
+public class InferenceResultHistory {
+
+    // "PSLD"
+    static final int MAGIC = 0x50534C44;
+    static final int VERSION = 1;
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+
+    private final int checkpointInterval;
+    private final Map<String, TalkingPredicate> talkingPreds;
+    private final Map<String, TalkingRuleOrConstraint> talkingRules;
+    private final InferenceResult base;
+    private final List<InferenceResultDelta> deltas = new ArrayList<>();
+    // version -> contents, never built into a result directly
+    private final TreeMap<Integer, TsvRagData> checkpoints = new TreeMap<>();
+    private TsvRagData latest;
+
+    public InferenceResultHistory(InferenceResult base, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules) {
+        this(base, talkingPreds, talkingRules, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    public InferenceResultHistory(InferenceResult base, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, int checkpointInterval) {
+        if (checkpointInterval < 1)
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        this.checkpointInterval = checkpointInterval;
+        this.talkingPreds = (talkingPreds == null) ? new TreeMap<>() : talkingPreds;
+        this.talkingRules = (talkingRules == null) ? new TreeMap<>() : talkingRules;
+        this.base = base;
+        this.latest = TsvRagData.fromResult(base, this.talkingPreds, this.talkingRules);
+        checkpoints.put(0, latest.copy());
+    }
+
+    /**
+     * Stores the differences to the latest version. The result can be modified afterwards,
+     * the history does not keep any references to it.
+     *
+     * @return the number of the new version (the base result is version 0)
+     */
+    public int addVersion(InferenceResult result) {
+        TsvRagData next = TsvRagData.fromResult(result, talkingPreds, talkingRules);
+        addDelta(InferenceResultDelta.compute(latest, next), next);
+        return deltas.size();
+    }
+
+    private void addDelta(InferenceResultDelta delta, TsvRagData next) {
+        deltas.add(delta);
+        latest = next;
+        if (deltas.size() % checkpointInterval == 0)
+            checkpoints.put(deltas.size(), latest.copy());
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @return the number of the latest version
+     */
+    public int getLatestVersion() {
+        return deltas.size();
+    }
+
+    public InferenceResult getBase() {
+        return base;
+    }
+
+    /**
+     * @param version between 1 and {@link #getLatestVersion()}
+     * @return the changes from the previous version to the given one
+     */
+    public InferenceResultDelta getDelta(int version) {
+        return deltas.get(version - 1);
+    }
+
+    /**
+     * @return a newly built InferenceResult for the given version
+     */
+    public InferenceResult getVersion(int version) {
+        if (version < 0 || version > deltas.size())
+            throw new IndexOutOfBoundsException("No version " + version + " (latest: " + deltas.size() + ")");
+        TsvRagData data;
+        if (version == deltas.size()) {
+            data = latest.copy();
+        } else {
+            // version 0 is always a checkpoint
+            int checkpoint = checkpoints.floorKey(version);
+            data = checkpoints.get(checkpoint).copy();
+            for (int i = checkpoint; i < version; i++) {
+                deltas.get(i).applyTo(data);
+            }
+        }
+        return data.build(new TreeMap<>(talkingPreds), new TreeMap<>(talkingRules));
+    }
+
+    public void saveToFile(File path) {
+        if (!path.exists() && path.getParentFile() != null) {
+            path.getParentFile().mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path),
+                InferenceResultIo.BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ByteArrayOutputStream baseBytes = new ByteArrayOutputStream();
+            InferenceResultBinaryIo.saveToFile(base, talkingPreds, talkingRules, baseBytes);
+            out.writeInt(baseBytes.size());
+            baseBytes.writeTo(out);
+            for (InferenceResultDelta delta : deltas) {
+                writeDelta(out, delta);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds a version to a history file written by {@link #saveToFile(File)}.
+     */
+    public static void appendToFile(File path, InferenceResultDelta delta) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(path, true), InferenceResultIo.BUFFER_SIZE))) {
+            writeDelta(out, delta);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void writeDelta(DataOutputStream out, InferenceResultDelta delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        delta.write(new DataOutputStream(bytes));
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    public static InferenceResultHistory fromFile(File path, Map<String, TalkingPredicate> talkingPreds,
+                                                  Map<String, TalkingRuleOrConstraint> talkingRules) {
+        if (talkingPreds == null)
+            talkingPreds = new TreeMap<>();
+        if (talkingRules == null)
+            talkingRules = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path),
+                InferenceResultIo.BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not an InferenceResult history file.");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported InferenceResult history version " + version + ".");
+            byte[] baseBytes = new byte[in.readInt()];
+            in.readFully(baseBytes);
+            InferenceResult base = InferenceResultBinaryIo.fromFile(new ByteArrayInputStream(baseBytes),
+                    talkingPreds, talkingRules);
+            InferenceResultHistory history = new InferenceResultHistory(base, talkingPreds, talkingRules);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] deltaBytes = new byte[length];
+                in.readFully(deltaBytes);
+                InferenceResultDelta delta = InferenceResultDelta.read(
+                        new DataInputStream(new ByteArrayInputStream(deltaBytes)));
+                TsvRagData next = history.latest;
+                delta.applyTo(next);
+                history.addDelta(delta, next);
+            }
+            return history;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+}
@@ -15,7 +15,9 @@
  */
 package de.tuebingen.sfs.psl.io;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -24,19 +26,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -46,11 +44,13 @@ import de.tuebingen.sfs.psl.engine.RagFilter;
 import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
 import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
 import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
 import de.tuebingen.sfs.psl.util.data.Tuple;
 
 public class InferenceResultIo {
 
     public static String INFERENCE_RESULT_PATH = "src/test/resources/serialization/inference-result.txt";
+    public static final int BUFFER_SIZE = 1 << 16;
 
     public static void saveToFile(InferenceResult inferenceResult, PslProblem problem, ObjectMapper mapper) {
         saveToFile(inferenceResult, problem.getTalkingPredicates(), problem.getTalkingRules(), mapper);
@@ -67,6 +67,12 @@ public class InferenceResultIo {
 
     public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
                                   Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper, File path) {
+        saveToFile(inferenceResult, talkingPreds, talkingRules, mapper, path, false);
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper, File path,
+                                  boolean gzip) {
         System.out.println("PATH");
         System.out.println(path);
         System.out.println(path.exists());
@@ -74,8 +80,8 @@ public class InferenceResultIo {
             path.getParentFile().mkdirs();
         }
 
-        try {
-            saveToFile(inferenceResult, talkingPreds, talkingRules, mapper, new FileOutputStream(path));
+        try (OutputStream out = new FileOutputStream(path)) {
+            saveToFile(inferenceResult, talkingPreds, talkingRules, mapper, out, gzip);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -83,56 +89,131 @@ public class InferenceResultIo {
 
     public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
                                   Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper, OutputStream out) throws IOException {
-        StringBuilder sb = new StringBuilder();
+        saveToFile(inferenceResult, talkingPreds, talkingRules, mapper, out, false);
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper, OutputStream out,
+                                  boolean gzip) throws IOException {
+        saveToFile(inferenceResult, talkingPreds, talkingRules, mapper, out, gzip, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Writes the result section by section (one line at a time) through a buffer of fixed size,
+     * so memory use does not depend on the size of the graph.
+     * The stream is flushed but not closed.
+     *
+     * @param gzip             compress the output (fromFile detects compressed input)
+     * @param compressionLevel a {@link Deflater} compression level, only used if gzip is true
+     */
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper, OutputStream out,
+                                  boolean gzip, int compressionLevel) throws IOException {
+        GZIPOutputStream gzipOut = null;
+        OutputStream os = out;
+        if (gzip) {
+            gzipOut = new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(compressionLevel);
+                }
+            };
+            os = gzipOut;
+        }
+        BufferedWriter w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+
         RuleAtomGraph rag = inferenceResult.getRag();
         RagFilter filter = rag.getRagFilter();
-        sb.append("RAG FILTER\n===============");
-        sb.append("\nCLASS\t").append(filter.getClass().getName());
-        sb.append("\nIGNORE LIST\t").append(filter.getIgnoreList());
-        sb.append("\nIGNORE IN GUI\t").append(filter.getIgnoreInGui());
-        sb.append("\nPREVENT USER INTERACTION\t").append(filter.getPreventUserInteraction());
-        sb.append("\nPRED TO NAME\t").append(filter.getGroundPred2ActualNames());
-        sb.append("\nFIXED ATOMS\t").append(filter.getFixedAtoms());
-        sb.append("\nHIDDEN ATOMS\t").append(filter.getHiddenAtoms());
-
-        sb.append("\n\n\nRULE GROUNDINGS\n===============\nGROUNDING\tSTATUS\tINCOMING\tCLASS\tPARAMETERS\n");
+        w.write("RAG FILTER\n===============");
+        w.write("\nCLASS\t" + filter.getClass().getName());
+        w.write("\nIGNORE LIST\t" + filter.getIgnoreList());
+        w.write("\nIGNORE IN GUI\t" + filter.getIgnoreInGui());
+        w.write("\nPREVENT USER INTERACTION\t" + filter.getPreventUserInteraction());
+        w.write("\nPRED TO NAME\t" + filter.getGroundPred2ActualNames());
+        w.write("\nFIXED ATOMS\t" + filter.getFixedAtoms());
+        w.write("\nHIDDEN ATOMS\t" + filter.getHiddenAtoms());
+
+        w.write("\n\n\nRULE GROUNDINGS\n===============\nGROUNDING\tSTATUS\tINCOMING\tCLASS\tPARAMETERS\n");
         for (String grounding : rag.getGroundingNodes()) {
-            sb.append(grounding).append("\t").append(rag.getGroundingStatus(grounding)).append("\t");
-            sb.append(rag.getIncomingLinks(grounding).stream().map(x -> x.get(0)).collect(Collectors.toList()));
+            w.write(grounding);
+            w.write("\t");
+            w.write(String.valueOf(rag.getGroundingStatus(grounding)));
+            w.write("\t[");
+            boolean first = true;
+            for (Tuple link : rag.getIncomingLinks(grounding)) {
+                if (!first)
+                    w.write(", ");
+                w.write(link.get(0));
+                first = false;
+            }
+            w.write("]");
             TalkingRuleOrConstraint rule = talkingRules.get(grounding.substring(0, grounding.indexOf('[')));
-            sb.append("\t").append(rule.getClass().getName()).append("\t").append(rule.getSerializedParameters())
-                    .append("\n");
+            w.write("\t");
+            w.write(rule.getClass().getName());
+            w.write("\t");
+            w.write(rule.getSerializedParameters());
+            w.write("\n");
         }
-        sb.append("\n\nEQUALITY RULES\n===============\n").append(rag.getEqualityGroundings());
-        sb.append("\n\nATOM LINKS\n===============\n");
-        sb.append("ATOM\tBELIEF VALUE\tATOM STATUS\tGROUNDING\tLINK STATUS\tLINK STRENGTH\tCOUNTERFACTUAL DIST TO SAT\n");
+        w.write("\n\nEQUALITY RULES\n===============\n[");
+        boolean first = true;
+        for (String grounding : rag.getEqualityGroundings()) {
+            if (!first)
+                w.write(", ");
+            w.write(grounding);
+            first = false;
+        }
+        w.write("]");
+        w.write("\n\nATOM LINKS\n===============\n");
+        w.write("ATOM\tBELIEF VALUE\tATOM STATUS\tGROUNDING\tLINK STATUS\tLINK STRENGTH\tCOUNTERFACTUAL DIST TO SAT\n");
         for (String atom : rag.getAtomNodes()) {
+            String atomPrefix = atom + "\t" + filter.getValueForAtom(atom) + "\t" + rag.getAtomStatus(atom) + "\t";
             for (Tuple link : rag.getOutgoingLinks(atom)) {
-                sb.append(atom).append("\t").append(filter.getValueForAtom(atom)).append("\t")
-                        .append(rag.getAtomStatus(atom)).append("\t");
-                sb.append(link.get(1)).append("\t").append(rag.getLinkStatus(link)).append("\t");
-                sb.append(rag.getLinkStrength(link)).append("\t");
+                w.write(atomPrefix);
+                w.write(link.get(1));
+                w.write("\t");
+                w.write(String.valueOf(rag.getLinkStatus(link)));
+                w.write("\t");
+                w.write(String.valueOf(rag.getLinkStrength(link)));
+                w.write("\t");
                 double[] eqCounterfactual = rag.getCounterfactualsForEqualityRule(link);
                 if (eqCounterfactual == null) {
-                    sb.append(rag.getCounterfactual(link));
+                    w.write(String.valueOf(rag.getCounterfactual(link)));
                 } else {
-                    sb.append(eqCounterfactual[0]).append(";").append(eqCounterfactual[1]);
+                    w.write(eqCounterfactual[0] + ";" + eqCounterfactual[1]);
                 }
-                sb.append("\n");
+                w.write("\n");
             }
         }
-        sb.append("\n\nINFERENCE VALUES\n===============\n");
-        sb.append("ATOM\tBELIEF VALUE\n");
-        for (Entry<String, Double> entry : inferenceResult.getInferenceValues().entrySet()) {
-            sb.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+        w.write("\n\nINFERENCE VALUES\n===============\n");
+        w.write("ATOM\tBELIEF VALUE\n");
+        Map<String, Double> inferenceValues = inferenceResult.getInferenceValues();
+        if (inferenceValues instanceof BeliefMap) {
+            // in key order without boxing; the map keeps its sorted key order between writes,
+            // so this costs one reference per atom once, not a copy of the keys per write
+            BeliefMap beliefMap = (BeliefMap) inferenceValues;
+            for (String atom : beliefMap.keySet()) {
+                w.write(atom);
+                w.write("\t");
+                w.write(String.valueOf(beliefMap.getValue(atom, 0.0)));
+                w.write("\n");
+            }
+        } else {
+            for (Entry<String, Double> entry : inferenceValues.entrySet()) {
+                w.write(entry.getKey());
+                w.write("\t");
+                w.write(String.valueOf(entry.getValue()));
+                w.write("\n");
+            }
         }
-        sb.append("\n\nTALKING PREDICATE CLASSES\n===============\nNAME\tARITY\tCLASS\n");
+        w.write("\n\nTALKING PREDICATE CLASSES\n===============\nNAME\tARITY\tCLASS\n");
         for (Entry<String, TalkingPredicate> entry : talkingPreds.entrySet()) {
-            sb.append(entry.getKey()).append("\t").append(entry.getValue().getArity()).append("\t")
-                    .append(entry.getValue().getClass().getName()).append("\n");
+            w.write(entry.getKey() + "\t" + entry.getValue().getArity() + "\t"
+                    + entry.getValue().getClass().getName() + "\n");
         }
 
-        out.write(sb.toString().getBytes());
+        w.flush();
+        if (gzipOut != null)
+            gzipOut.finish();
+        out.flush();
     }
 
     public static InferenceResult fromFile(ObjectMapper mapper, Map<String, TalkingPredicate> talkingPreds,
@@ -163,32 +244,14 @@ public class InferenceResultIo {
             talkingPreds = new TreeMap<>();
         if (talkingRules == null)
             talkingRules = new TreeMap<>();
+        try {
+            is = decompressIfNeeded(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
 
-        Pattern atomPattern = Pattern.compile("\\w{4,}\\([^\\(]+\\)");
-
-        String filterClass = null;
-        Set<String> ignoreList = new TreeSet<>();
-        Set<String> ignoreInGui = new TreeSet<>();
-        Set<String> preventUserInteraction = new TreeSet<>();
-        Map<String, String> groundPreds2ActualNames = new TreeMap<>();
-        Set<String> fixedAtoms = new HashSet<>();
-        Set<String> hiddenAtoms = new HashSet<>();
-
-        Set<String> groundingNodes = new TreeSet<String>();
-        Map<String, Double> groundingStatus = new TreeMap<>();
-        Set<String> equalityGroundings = new TreeSet<>();
-        Set<String> atomNodes = new TreeSet<String>();
-        Map<String, Double> beliefValues = new TreeMap<>();
-        Map<String, String> atomStatus = new TreeMap<>();
-        Set<Tuple> links = new TreeSet<>();
-        Map<Tuple, String> linkStatus = new TreeMap<>();
-        Map<Tuple, Double> linkToCounterfactual = new TreeMap<>();
-        Map<Tuple, double[]> equalityRuleLinkToCounterfactual = new TreeMap<>();
-        Map<Tuple, Double> linkStrength = new TreeMap<>();
-        Map<String, Set<Tuple>> outgoingLinks = new TreeMap<>();
-        Map<String, List<Tuple>> incomingLinks = new TreeMap<>();
-        Map<String, Double> scoreMap = new TreeMap<>();
-
+        TsvRagData data = new TsvRagData();
         BufferedReader br = null;
         String line = "";
         TSV_SECTION current = null;
@@ -200,193 +263,18 @@ public class InferenceResultIo {
                 if (line.isEmpty()) {
                     continue;
                 }
-                if (line.equalsIgnoreCase("RAG FILTER")) {
-                    br.readLine(); // ====
-                    for (int i = 0; i < 5; i++) {
-                        line = br.readLine().trim();
-                        if (line.startsWith("CLASS")) {
-                            filterClass = line.split("\t")[1];
-                        } else if (line.startsWith("IGNORE LIST")) {
-                            line = line.split("\t")[1].trim();
-                            // Remove [ ]
-                            line = line.substring(1, line.length() - 1);
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-                            for (String item : line.split(",")) {
-                                ignoreList.add(item.trim());
-                            }
-                        } else if (line.startsWith("IGNORE IN GUI")) {
-                            line = line.split("\t")[1];
-                            // Remove [ ]
-                            line = line.substring(1, line.length() - 1);
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-                            for (String item : line.split(",")) {
-                                ignoreInGui.add(item.trim());
-                            }
-                        } else if (line.startsWith("PREVENT USER INTERACTION")) {
-                            line = line.split("\t")[1];
-                            // Remove [ ]
-                            line = line.substring(1, line.length() - 1);
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-                            for (String item : line.split(",")) {
-                                preventUserInteraction.add(item.trim());
-                            }
-                        } else if (line.startsWith("PRED")) {
-                            line = line.split("\t")[1];
-                            // Remove { }
-                            line = line.substring(1, line.length() - 1);
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-                            for (String item : line.split(",")) {
-                                String[] entry = item.split("=");
-                                groundPreds2ActualNames.put(entry[0].trim(), entry[1].trim());
-                            }
-                        } else if (line.startsWith("FIXED")) {
-                        	line = line.split("\t")[1];
-                            // Remove { }
-                            line = line.substring(1, line.length() - 1);
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-                            for (String item : line.split(",")) {
-                                fixedAtoms.add(item.trim());
-                            }
-                        } else if (line.startsWith("HIDDEN")) {
-                            line = line.split("\t")[1];
-                            // Remove { }
-                            line = line.substring(1, line.length() - 1);
-                            if (line.isEmpty()) {
-                                continue;
-                            }
-                            for (String item : line.split(",")) {
-                                hiddenAtoms.add(item.trim());
-                            }
-                        }
-                    }
-                    continue;
-                }
-                if (line.equalsIgnoreCase("RULE GROUNDINGS")) {
-                    br.readLine(); // ====
-                    br.readLine(); // table header
-                    current = TSV_SECTION.GROUNDINGS;
-                    continue;
-                }
-                if (line.equalsIgnoreCase("ATOM LINKS")) {
-                    br.readLine(); // ====
-                    br.readLine(); // table header
-                    current = TSV_SECTION.ATOMS;
-                    continue;
-                }
-                if (line.equalsIgnoreCase("INFERENCE VALUES")) {
-                    br.readLine(); // ====
-                    br.readLine(); // table header
-                    current = TSV_SECTION.SCORES;
-                    continue;
-                }
-                if (line.equalsIgnoreCase("TALKING PREDICATE CLASSES")) {
-                    br.readLine(); // ====
-                    br.readLine(); // table header
-                    current = TSV_SECTION.TALKING_PREDS;
-                    continue;
-                }
-                if (line.equalsIgnoreCase("EQUALITY RULES")) {
-                    br.readLine();
-                    line = br.readLine().trim();
-                    line.substring(1, line.length() - 1);
-                    for (String grounding : line.split(",")) {
-                        equalityGroundings.add(grounding.trim());
+                TSV_SECTION section = TSV_SECTION.forHeader(line);
+                if (section != null) {
+                    for (int i = 0; i < section.linesAfterHeader; i++) {
+                        br.readLine(); // ==== and table header
                     }
+                    current = section;
                     continue;
                 }
                 if (current == null) {
                     continue;
                 }
-                String[] fields = line.split("\t");
-                switch (current) {
-                    case GROUNDINGS:
-                        String grounding = fields[0].trim();
-                        groundingNodes.add(grounding);
-                        groundingStatus.put(grounding, Double.parseDouble(fields[1].trim()));
-                        List<Tuple> incoming = new ArrayList<Tuple>();
-                        Matcher matcher = atomPattern.matcher(fields[2].trim());
-                        while (matcher.find()) {
-                            incoming.add(new Tuple(matcher.group(), grounding));
-                        }
-                        incomingLinks.put(grounding, incoming);
-                        String ruleClass = fields[3].trim();
-                        String parameters = "";
-                        if (fields.length > 4)
-                            parameters = fields[4].trim();
-                        TalkingRuleOrConstraint rule = null;
-                        try {
-                            Class c = Class.forName(ruleClass);
-                            // NOTE: We're not using the newer version
-                            // c.getDeclaredConstructor(String.class).newInstance(parameters)
-                            // since it was introduced after Java 8.
-                            rule = (TalkingRuleOrConstraint) c.getConstructor(String.class).newInstance(parameters);
-                            talkingRules.put(rule.getName(), rule);
-                        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException
-                                | NullPointerException | IllegalArgumentException | InvocationTargetException
-                                | NoSuchMethodException | SecurityException e) {
-                            System.err.println("Could not create TalkingRule of type " + ruleClass + ". Tried to call `new "
-                                    + ruleClass.substring(ruleClass.lastIndexOf('.')) + "(" + parameters + ")`:");
-                            e.printStackTrace();
-                            System.err.println("Skipping this entry.");
-                        }
-                        break;
-                    case ATOMS:
-                        String atom = fields[0].trim();
-                        atomNodes.add(atom);
-                        beliefValues.put(atom, Double.parseDouble(fields[1].trim()));
-                        atomStatus.put(atom, fields[2].trim());
-                        Tuple link = new Tuple(atom, fields[3].trim());
-                        links.add(link);
-                        linkStatus.put(link, fields[4].trim());
-                        if (fields[5].trim().equals("null")) {
-                            linkStrength.put(link, null);
-                        } else {
-                            linkStrength.put(link, Double.parseDouble(fields[5].trim()));
-                        }
-                        if (fields[6].contains(";")) {
-                            String[] entries = fields[6].split(";");
-                            equalityRuleLinkToCounterfactual.put(link, new double[]{
-                                    Double.parseDouble(entries[0].trim()), Double.parseDouble(entries[1].trim())});
-                        } else {
-                            linkToCounterfactual.put(link, Double.parseDouble(fields[6].trim()));
-                        }
-                        if (!outgoingLinks.containsKey(atom)) {
-                            outgoingLinks.put(atom, new TreeSet<>());
-                        }
-                        outgoingLinks.get(atom).add(link);
-                        break;
-                    case SCORES:
-                        scoreMap.put(fields[0].trim(), Double.parseDouble(fields[1].trim()));
-                        break;
-                    case TALKING_PREDS:
-                        String predName = fields[0].trim();
-                        Integer arity = Integer.parseInt(fields[1].trim());
-                        String predClass = fields[2].trim();
-                        TalkingPredicate pred = null;
-                        try {
-                            Class c = Class.forName(predClass);
-                            // NOTE: We're not using the newer version
-                            // c.getDeclaredConstructor().newInstance();
-                            // since it was introduced after Java 8.
-                            pred = (TalkingPredicate) c.newInstance();
-                        } catch (Exception e) {
-                            pred = new TalkingPredicate(predName, arity);
-                        }
-                        talkingPreds.put(predName, pred);
-                        break;
-                    default:
-                        break;
-                }
+                parseLine(data, current, line);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -406,46 +294,134 @@ public class InferenceResultIo {
                 }
             }
         }
+        return data.build(talkingPreds, talkingRules);
+    }
 
-        RagFilter ragFilter = null;
+    static void parseLine(TsvRagData data, TSV_SECTION section, String line) {
+        switch (section) {
+            case FILTER:
+                data.parseFilterLine(line);
+                break;
+            case EQUALITY:
+                data.parseEqualityLine(line);
+                break;
+            case GROUNDINGS:
+                data.parseGroundingLine(line.split("\t"));
+                break;
+            case ATOMS:
+                data.parseAtomLine(line.split("\t"));
+                break;
+            case SCORES:
+                data.parseScoreLine(line.split("\t"));
+                break;
+            case TALKING_PREDS:
+                data.parseTalkingPredLine(line.split("\t"));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the stream itself, or a decompressing stream if it starts with the gzip magic number
+     */
+    static InputStream decompressIfNeeded(InputStream is) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(is, BUFFER_SIZE);
+        bis.mark(2);
+        int b1 = bis.read();
+        int b2 = bis.read();
+        bis.reset();
+        if (b1 == (GZIPInputStream.GZIP_MAGIC & 0xff) && b2 == (GZIPInputStream.GZIP_MAGIC >> 8))
+            return new GZIPInputStream(bis, BUFFER_SIZE);
+        return bis;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static RagFilter createRagFilter(String filterClass) {
         if (filterClass == null || filterClass.isEmpty()) {
             System.err.println("RagFilter not specified; creating standard RagFilter.");
-            ragFilter = new RagFilter();
-        } else {
-            try {
-                Class c = Class.forName(filterClass);
-                // NOTE: We're not using the newer version
-                // c.getDeclaredConstructor().newInstance();
-                // since it was introduced after Java 8.
-                ragFilter = (RagFilter) c.newInstance();
-//			} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | IllegalArgumentException
-//					| InvocationTargetException | NoSuchMethodException | SecurityException e) {
-            } catch (Exception e) {
-                System.err.println("Could not create RagFilter of type " + filterClass + ":");
-                e.printStackTrace();
-                System.err.println("Creating standard RagFilter instead.");
-                ragFilter = new RagFilter();
-            }
+            return new RagFilter();
+        }
+        try {
+            Class c = Class.forName(filterClass);
+            // NOTE: We're not using the newer version
+            // c.getDeclaredConstructor().newInstance();
+            // since it was introduced after Java 8.
+            return (RagFilter) c.newInstance();
+        } catch (Exception e) {
+            System.err.println("Could not create RagFilter of type " + filterClass + ":");
+            e.printStackTrace();
+            System.err.println("Creating standard RagFilter instead.");
+            return new RagFilter();
         }
-        ragFilter.setAll(beliefValues, groundPreds2ActualNames, ignoreList, ignoreInGui, preventUserInteraction,
-                fixedAtoms, hiddenAtoms);
-        RuleAtomGraph rag = new RuleAtomGraph(groundingNodes, groundingStatus, equalityGroundings, atomNodes,
-                atomStatus, links, linkStatus, linkToCounterfactual, equalityRuleLinkToCounterfactual, linkStrength,
-                outgoingLinks, incomingLinks, ragFilter);
+    }
 
+    @SuppressWarnings("rawtypes")
+    static TalkingRuleOrConstraint createTalkingRule(String ruleClass, String parameters) {
+        try {
+            Class c = Class.forName(ruleClass);
+            // NOTE: We're not using the newer version
+            // c.getDeclaredConstructor(String.class).newInstance(parameters)
+            // since it was introduced after Java 8.
+            return (TalkingRuleOrConstraint) c.getConstructor(String.class).newInstance(parameters);
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException
+                | NullPointerException | IllegalArgumentException | InvocationTargetException
+                | NoSuchMethodException | SecurityException e) {
+            System.err.println("Could not create TalkingRule of type " + ruleClass + ". Tried to call `new "
+                    + ruleClass.substring(ruleClass.lastIndexOf('.')) + "(" + parameters + ")`:");
+            e.printStackTrace();
+            System.err.println("Skipping this entry.");
+        }
+        return null;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static TalkingPredicate createTalkingPredicate(String predName, int arity, String predClass) {
+        try {
+            Class c = Class.forName(predClass);
+            // NOTE: We're not using the newer version
+            // c.getDeclaredConstructor().newInstance();
+            // since it was introduced after Java 8.
+            return (TalkingPredicate) c.newInstance();
+        } catch (Exception e) {
+            return new TalkingPredicate(predName, arity);
+        }
+    }
+
+    static InferenceResult createResult(RuleAtomGraph rag, Map<String, Double> scoreMap,
+                                        Map<String, TalkingPredicate> talkingPreds,
+                                        Map<String, TalkingRuleOrConstraint> talkingRules) {
         for (TalkingRuleOrConstraint rule : talkingRules.values()) {
             rule.setTalkingPredicates(talkingPreds);
         }
 
         if (scoreMap.isEmpty())
             return new InferenceResult(rag);
-        if (groundingNodes.isEmpty())
+        if (rag.getGroundingNodes().isEmpty())
             return new InferenceResult(scoreMap);
         return new InferenceResult(rag, scoreMap);
     }
 
-    private static enum TSV_SECTION {
-        ATOMS, GROUNDINGS, TALKING_PREDS, SCORES
+    static enum TSV_SECTION {
+        FILTER("RAG FILTER", 1), GROUNDINGS("RULE GROUNDINGS", 2), EQUALITY("EQUALITY RULES", 1),
+        ATOMS("ATOM LINKS", 2), SCORES("INFERENCE VALUES", 2), TALKING_PREDS("TALKING PREDICATE CLASSES", 2);
+
+        final String header;
+        // separator line, table header
+        final int linesAfterHeader;
+
+        TSV_SECTION(String header, int linesAfterHeader) {
+            this.header = header;
+            this.linesAfterHeader = linesAfterHeader;
+        }
+
+        static TSV_SECTION forHeader(String line) {
+            for (TSV_SECTION section : values()) {
+                if (section.header.equalsIgnoreCase(line))
+                    return section;
+            }
+            return null;
+        }
     }
 
 }
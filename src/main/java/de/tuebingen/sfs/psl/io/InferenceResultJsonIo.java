@@ -0,0 +1,492 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.PressureIndex;
+import de.tuebingen.sfs.psl.engine.PslProblem;
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+/**
+ * A JSON representation of {@link InferenceResult}s, with the same contents as the TSV format of
+ * {@link InferenceResultIo}. Reading and writing use Jackson's streaming API, one grounding or atom at a time,
+ * so no tree model of the entire result is built:
+ *
+ * <pre>
+ * {"filter": {"class": ..., "ignoreList": [...], "ignoreInGui": [...], "preventUserInteraction": [...],
+ *             "groundPreds2ActualNames": {...}, "fixedAtoms": [...], "hiddenAtoms": [...]},
+ *  "rules": [{"name": ..., "class": ..., "parameters": ...}, ...],
+ *  "groundings": [{"name": ..., "status": ..., "equality": ..., "atoms": [...]}, ...],
+ *  "atoms": [{"name": ..., "belief": ..., "status": ...,
+ *             "links": [{"grounding": ..., "status": ..., "strength": ...,
+ *                        "counterfactual": ... | "counterfactuals": [..., ...]}, ...]}, ...],
+ *  "values": {atom: value, ...},
+ *  "talkingPredicates": [{"name": ..., "arity": ..., "class": ...}, ...]}
+ * </pre>
+ */
+public class InferenceResultJsonIo {
+
+    public static void saveToFile(InferenceResult inferenceResult, PslProblem problem, ObjectMapper mapper,
+                                  File path) {
+        saveToFile(inferenceResult, problem.getTalkingPredicates(), problem.getTalkingRules(), mapper, path);
+    }
+
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper, File path) {
+        if (!path.exists() && path.getParentFile() != null) {
+            path.getParentFile().mkdirs();
+        }
+        try (OutputStream out = new FileOutputStream(path)) {
+            saveToFile(inferenceResult, talkingPreds, talkingRules, mapper, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The stream is flushed but not closed.
+     *
+     * @param mapper provides the JsonFactory (and its settings); may be null
+     */
+    public static void saveToFile(InferenceResult inferenceResult, Map<String, TalkingPredicate> talkingPreds,
+                                  Map<String, TalkingRuleOrConstraint> talkingRules, ObjectMapper mapper,
+                                  OutputStream out) throws IOException {
+        JsonGenerator gen = getFactory(mapper).createGenerator(out, JsonEncoding.UTF8);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        RuleAtomGraph rag = inferenceResult.getRag();
+        RagFilter filter = rag.getRagFilter();
+
+        gen.writeStartObject();
+        gen.writeObjectFieldStart("filter");
+        gen.writeStringField("class", filter.getClass().getName());
+        writeStrings(gen, "ignoreList", filter.getIgnoreList());
+        writeStrings(gen, "ignoreInGui", filter.getIgnoreInGui());
+        writeStrings(gen, "preventUserInteraction", filter.getPreventUserInteraction());
+        gen.writeObjectFieldStart("groundPreds2ActualNames");
+        for (Entry<String, String> entry : filter.getGroundPred2ActualNames().entrySet()) {
+            gen.writeStringField(entry.getKey(), entry.getValue());
+        }
+        gen.writeEndObject();
+        writeStrings(gen, "fixedAtoms", filter.getFixedAtoms());
+        writeStrings(gen, "hiddenAtoms", filter.getHiddenAtoms());
+        gen.writeEndObject();
+
+        Map<String, TalkingRuleOrConstraint> rules = new TreeMap<>();
+        for (String grounding : rag.getGroundingNodes()) {
+            String ruleName = PressureIndex.ruleName(grounding);
+            TalkingRuleOrConstraint rule = talkingRules.get(ruleName);
+            if (rule != null)
+                rules.put(ruleName, rule);
+        }
+        gen.writeArrayFieldStart("rules");
+        for (Entry<String, TalkingRuleOrConstraint> entry : rules.entrySet()) {
+            gen.writeStartObject();
+            gen.writeStringField("name", entry.getKey());
+            gen.writeStringField("class", entry.getValue().getClass().getName());
+            gen.writeStringField("parameters", entry.getValue().getSerializedParameters());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("groundings");
+        for (String grounding : rag.getGroundingNodes()) {
+            gen.writeStartObject();
+            gen.writeStringField("name", grounding);
+            Double status = rag.getGroundingStatus(grounding);
+            gen.writeNumberField("status", (status == null) ? 0.0 : status);
+            if (rag.isEqualityRule(grounding))
+                gen.writeBooleanField("equality", true);
+            gen.writeArrayFieldStart("atoms");
+            List<Tuple> incoming = rag.getIncomingLinks(grounding);
+            if (incoming != null) {
+                for (Tuple link : incoming) {
+                    gen.writeString(link.get(0));
+                }
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        gen.writeArrayFieldStart("atoms");
+        for (String atom : rag.getAtomNodes()) {
+            gen.writeStartObject();
+            gen.writeStringField("name", atom);
+            gen.writeNumberField("belief", filter.getValueForAtom(atom));
+            gen.writeStringField("status", rag.getAtomStatus(atom));
+            gen.writeArrayFieldStart("links");
+            for (Tuple link : rag.getOutgoingLinks(atom)) {
+                gen.writeStartObject();
+                gen.writeStringField("grounding", link.get(1));
+                gen.writeStringField("status", rag.getLinkStatus(link));
+                Double strength = rag.getLinkStrength(link);
+                if (strength != null)
+                    gen.writeNumberField("strength", strength);
+                double[] eqCounterfactual = rag.getCounterfactualsForEqualityRule(link);
+                if (eqCounterfactual != null) {
+                    gen.writeArrayFieldStart("counterfactuals");
+                    gen.writeNumber(eqCounterfactual[0]);
+                    gen.writeNumber(eqCounterfactual[1]);
+                    gen.writeEndArray();
+                } else {
+                    Double counterfactual = rag.getCounterfactual(link);
+                    if (counterfactual != null)
+                        gen.writeNumberField("counterfactual", counterfactual);
+                }
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+
+        gen.writeObjectFieldStart("values");
+        Map<String, Double> inferenceValues = inferenceResult.getInferenceValues();
+        if (inferenceValues instanceof BeliefMap) {
+            BeliefMap beliefMap = (BeliefMap) inferenceValues;
+            for (String atom : beliefMap.keySet()) {
+                gen.writeNumberField(atom, beliefMap.getValue(atom, 0.0));
+            }
+        } else {
+            for (Entry<String, Double> entry : inferenceValues.entrySet()) {
+                gen.writeNumberField(entry.getKey(), entry.getValue());
+            }
+        }
+        gen.writeEndObject();
+
+        gen.writeArrayFieldStart("talkingPredicates");
+        for (Entry<String, TalkingPredicate> entry : talkingPreds.entrySet()) {
+            gen.writeStartObject();
+            gen.writeStringField("name", entry.getKey());
+            gen.writeNumberField("arity", entry.getValue().getArity());
+            gen.writeStringField("class", entry.getValue().getClass().getName());
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.flush();
+    }
+
+    public static InferenceResult fromFile(ObjectMapper mapper, File path, Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules) {
+        try (InputStream is = new FileInputStream(path)) {
+            return fromFile(mapper, is, talkingPreds, talkingRules);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * The stream is not closed. Unknown fields are skipped.
+     *
+     * @param mapper provides the JsonFactory (and its settings); may be null
+     */
+    public static InferenceResult fromFile(ObjectMapper mapper, InputStream is,
+                                           Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules) throws IOException {
+        if (talkingPreds == null)
+            talkingPreds = new TreeMap<>();
+        if (talkingRules == null)
+            talkingRules = new TreeMap<>();
+
+        TsvRagData data = new TsvRagData();
+        JsonParser parser = getFactory(mapper).createParser(is);
+        parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "filter":
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    readFilter(parser, data);
+                    break;
+                case "rules":
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readRule(parser, data);
+                    }
+                    break;
+                case "groundings":
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readGrounding(parser, data);
+                    }
+                    break;
+                case "atoms":
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readAtom(parser, data);
+                    }
+                    break;
+                case "values":
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String atom = parser.getCurrentName();
+                        parser.nextToken();
+                        data.scoreMap.putValue(atom, parser.getDoubleValue());
+                    }
+                    break;
+                case "talkingPredicates":
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        readTalkingPredicate(parser, data);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return data.build(talkingPreds, talkingRules);
+    }
+
+    private static JsonFactory getFactory(ObjectMapper mapper) {
+        if (mapper == null)
+            return new JsonFactory();
+        return mapper.getFactory();
+    }
+
+    private static void writeStrings(JsonGenerator gen, String field, Collection<String> strings) throws IOException {
+        gen.writeArrayFieldStart(field);
+        for (String string : strings) {
+            gen.writeString(string);
+        }
+        gen.writeEndArray();
+    }
+
+    private static void expect(JsonParser parser, JsonToken token, JsonToken expected) throws IOException {
+        if (token != expected)
+            throw new IOException("Expected " + expected + " but found " + token + " at "
+                    + parser.getCurrentLocation() + " while trying to deserialize InferenceResult instance.");
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        List<String> strings = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            strings.add(parser.getText());
+        }
+        return strings;
+    }
+
+    private static void readStrings(JsonParser parser, Set<String> set) throws IOException {
+        set.addAll(readStrings(parser));
+    }
+
+    private static void readFilter(JsonParser parser, TsvRagData data) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "class":
+                    data.filterClass = parser.getText();
+                    break;
+                case "ignoreList":
+                    readStrings(parser, data.ignoreList);
+                    break;
+                case "ignoreInGui":
+                    readStrings(parser, data.ignoreInGui);
+                    break;
+                case "preventUserInteraction":
+                    readStrings(parser, data.preventUserInteraction);
+                    break;
+                case "groundPreds2ActualNames":
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String pred = parser.getCurrentName();
+                        parser.nextToken();
+                        data.groundPreds2ActualNames.put(pred, parser.getText());
+                    }
+                    break;
+                case "fixedAtoms":
+                    readStrings(parser, data.fixedAtoms);
+                    break;
+                case "hiddenAtoms":
+                    readStrings(parser, data.hiddenAtoms);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readRule(JsonParser parser, TsvRagData data) throws IOException {
+        String ruleClass = null;
+        String parameters = "";
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("class"))
+                ruleClass = parser.getText();
+            else if (field.equals("parameters"))
+                parameters = parser.getText();
+            else
+                parser.skipChildren();
+        }
+        if (ruleClass != null)
+            data.addRule(ruleClass, parameters);
+    }
+
+    private static void readGrounding(JsonParser parser, TsvRagData data) throws IOException {
+        String name = null;
+        double status = 0.0;
+        boolean equality = false;
+        List<String> atoms = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "name":
+                    name = parser.getText();
+                    break;
+                case "status":
+                    status = parser.getDoubleValue();
+                    break;
+                case "equality":
+                    equality = parser.getBooleanValue();
+                    break;
+                case "atoms":
+                    atoms = readStrings(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (name == null)
+            throw new IOException("Grounding without a name at " + parser.getCurrentLocation() + ".");
+        data.addGrounding(name, status, atoms);
+        if (equality)
+            data.equalityGroundings.add(name);
+    }
+
+    private static void readAtom(JsonParser parser, TsvRagData data) throws IOException {
+        String name = null;
+        double belief = 0.0;
+        String status = null;
+        // the links are added once the other fields of the atom are known
+        List<Object[]> links = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "name":
+                    name = parser.getText();
+                    break;
+                case "belief":
+                    belief = parser.getDoubleValue();
+                    break;
+                case "status":
+                    status = parser.getValueAsString();
+                    break;
+                case "links":
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        links.add(readLink(parser));
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (name == null)
+            throw new IOException("Atom without a name at " + parser.getCurrentLocation() + ".");
+        String atom = data.addAtom(name, belief, status);
+        for (Object[] link : links) {
+            data.addLink(atom, (String) link[0], (String) link[1], (Double) link[2], (Double) link[3],
+                    (double[]) link[4]);
+        }
+    }
+
+    // grounding, status, strength, counterfactual, equality counterfactuals
+    private static Object[] readLink(JsonParser parser) throws IOException {
+        Object[] link = new Object[5];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "grounding":
+                    link[0] = parser.getText();
+                    break;
+                case "status":
+                    link[1] = parser.getValueAsString();
+                    break;
+                case "strength":
+                    link[2] = parser.getDoubleValue();
+                    break;
+                case "counterfactual":
+                    link[3] = parser.getDoubleValue();
+                    break;
+                case "counterfactuals":
+                    parser.nextToken();
+                    double lower = parser.getDoubleValue();
+                    parser.nextToken();
+                    double upper = parser.getDoubleValue();
+                    expect(parser, parser.nextToken(), JsonToken.END_ARRAY);
+                    link[4] = new double[]{lower, upper};
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return link;
+    }
+
+    private static void readTalkingPredicate(JsonParser parser, TsvRagData data) throws IOException {
+        String name = null;
+        int arity = 0;
+        String predClass = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("name"))
+                name = parser.getText();
+            else if (field.equals("arity"))
+                arity = parser.getIntValue();
+            else if (field.equals("class"))
+                predClass = parser.getText();
+            else
+                parser.skipChildren();
+        }
+        if (name != null && predClass != null)
+            data.talkingPreds.put(name, InferenceResultIo.createTalkingPredicate(name, arity, predClass));
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+/**
+ * A {@link RuleAtomGraph} whose nodes and links are loaded on demand from an {@link IndexedRagFile}.
+ * Graph traversals only touch the records they need; operations over the entire graph
+ * (e.g. {@link #getTotalDistanceToSatisfaction()}) still work, but read the whole file.
+ * Changes (e.g. via {@link #updateValue(String, double)}) are kept in memory on top of the file,
+ * which is never written to. As the file contains no ground rules, groundings are not re-evaluated.
+ */
+public class LazyRuleAtomGraph extends RuleAtomGraph implements Closeable {
+
+    private final IndexedRagFile file;
+
+    LazyRuleAtomGraph(IndexedRagFile file, Set<String> groundingNodes, Map<String, Double> groundingStatus,
+                      Set<String> equalityGroundings, Set<String> atomNodes, Map<String, String> atomStatus,
+                      Set<Tuple> links, Map<Tuple, String> linkStatus, Map<Tuple, Double> linkToCounterfactual,
+                      Map<Tuple, double[]> equalityRuleLinkToCounterfactual, Map<Tuple, Double> linkStrength,
+                      Map<String, Set<Tuple>> outgoingLinks, Map<String, List<Tuple>> incomingLinks,
+                      RagFilter renderer) {
+        super(groundingNodes, groundingStatus, equalityGroundings, atomNodes, atomStatus, links, linkStatus,
+                linkToCounterfactual, equalityRuleLinkToCounterfactual, linkStrength, outgoingLinks, incomingLinks,
+                renderer);
+        this.file = file;
+        detach();
+    }
+
+    public IndexedRagFile getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.io.InferenceResultIo.TSV_SECTION;
+import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+
+/**
+ * Reads the TSV format of {@link InferenceResultIo} from a memory-mapped file.
+ * The section boundaries are located first; the RULE GROUNDINGS and ATOM LINKS sections are then
+ * split into chunks at line boundaries, which are parsed in parallel and merged in file order.
+ * Gzipped files and files over 2 GB are read sequentially via {@link InferenceResultIo#fromFile}.
+ */
+public class ParallelInferenceResultReader {
+
+    // approximate number of bytes per chunk
+    public static int CHUNK_SIZE = 1 << 20;
+
+    public static InferenceResult fromFile(String path, Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules) {
+        return fromFile(new File(path), talkingPreds, talkingRules);
+    }
+
+    public static InferenceResult fromFile(File path, Map<String, TalkingPredicate> talkingPreds,
+                                           Map<String, TalkingRuleOrConstraint> talkingRules) {
+        if (talkingPreds == null)
+            talkingPreds = new TreeMap<>();
+        if (talkingRules == null)
+            talkingRules = new TreeMap<>();
+        try (FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (!isGzip(buffer))
+                    return read(buffer, talkingPreds, talkingRules);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        try {
+            return InferenceResultIo.fromFile(null, new FileInputStream(path), talkingPreds, talkingRules);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static boolean isGzip(ByteBuffer buffer) {
+        return buffer.limit() >= 2 && (buffer.get(0) & 0xff) == 0x1f && (buffer.get(1) & 0xff) == 0x8b;
+    }
+
+    static InferenceResult read(ByteBuffer buffer, Map<String, TalkingPredicate> talkingPreds,
+                                Map<String, TalkingRuleOrConstraint> talkingRules) {
+        List<Chunk> chunks = new ArrayList<>();
+        List<int[]> headers = findHeaders(buffer);
+        for (int i = 0; i < headers.size(); i++) {
+            TSV_SECTION section = TSV_SECTION.values()[headers.get(i)[0]];
+            int start = headers.get(i)[1];
+            for (int l = 0; l <= section.linesAfterHeader; l++) {
+                start = nextLine(buffer, start);
+            }
+            int end = (i + 1 < headers.size()) ? headers.get(i + 1)[1] : buffer.limit();
+            if (start >= end)
+                continue;
+            if (section == TSV_SECTION.GROUNDINGS || section == TSV_SECTION.ATOMS) {
+                while (start < end) {
+                    int chunkEnd = (end - start > CHUNK_SIZE) ? Math.min(end, nextLine(buffer, start + CHUNK_SIZE)) : end;
+                    chunks.add(new Chunk(section, start, chunkEnd));
+                    start = chunkEnd;
+                }
+            } else {
+                chunks.add(new Chunk(section, start, end));
+            }
+        }
+
+        List<TsvRagData> parts = chunks.parallelStream().map(chunk -> chunk.parse(buffer))
+                .collect(Collectors.toList());
+        TsvRagData data = new TsvRagData();
+        for (TsvRagData part : parts) {
+            data.merge(part);
+        }
+        return data.build(talkingPreds, talkingRules);
+    }
+
+    /**
+     * @return (section ordinal, offset) for each section header, in file order
+     */
+    private static List<int[]> findHeaders(ByteBuffer buffer) {
+        byte[][] headerBytes = new byte[TSV_SECTION.values().length][];
+        for (TSV_SECTION section : TSV_SECTION.values()) {
+            headerBytes[section.ordinal()] = section.header.getBytes(StandardCharsets.UTF_8);
+        }
+        List<int[]> headers = new ArrayList<>();
+        int pos = 0;
+        int limit = buffer.limit();
+        while (pos < limit) {
+            for (TSV_SECTION section : TSV_SECTION.values()) {
+                if (isLine(buffer, pos, headerBytes[section.ordinal()])) {
+                    headers.add(new int[]{section.ordinal(), pos});
+                    break;
+                }
+            }
+            pos = nextLine(buffer, pos);
+        }
+        return headers;
+    }
+
+    // whether the line starting at pos consists of the given bytes
+    private static boolean isLine(ByteBuffer buffer, int pos, byte[] line) {
+        int limit = buffer.limit();
+        if (pos + line.length > limit)
+            return false;
+        for (int i = 0; i < line.length; i++) {
+            if (buffer.get(pos + i) != line[i])
+                return false;
+        }
+        int end = pos + line.length;
+        return end == limit || buffer.get(end) == '\n' || buffer.get(end) == '\r';
+    }
+
+    private static int nextLine(ByteBuffer buffer, int pos) {
+        int limit = buffer.limit();
+        while (pos < limit && buffer.get(pos) != '\n')
+            pos++;
+        return Math.min(pos + 1, limit);
+    }
+
+    private static class Chunk {
+        final TSV_SECTION section;
+        final int start;
+        final int end;
+
+        Chunk(TSV_SECTION section, int start, int end) {
+            this.section = section;
+            this.start = start;
+            this.end = end;
+        }
+
+        TsvRagData parse(ByteBuffer buffer) {
+            byte[] bytes = new byte[end - start];
+            ByteBuffer view = buffer.duplicate();
+            view.position(start);
+            view.get(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+
+            TsvRagData data = new TsvRagData();
+            int from = 0;
+            while (from < text.length()) {
+                int to = text.indexOf('\n', from);
+                if (to < 0)
+                    to = text.length();
+                String line = text.substring(from, to).trim();
+                from = to + 1;
+                if (line.isEmpty())
+                    continue;
+                try {
+                    InferenceResultIo.parseLine(data, section, line);
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    System.err.println("Skipping malformed TSV line while trying to deserialize InferenceResult instance:");
+                    System.err.println("\"" + line + "\"");
+                }
+            }
+            return data;
+        }
+    }
+
+}
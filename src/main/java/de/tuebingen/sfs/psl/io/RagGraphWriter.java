@@ -0,0 +1,265 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import de.tuebingen.sfs.psl.engine.GraphMLWriter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Buffered, optionally gzipped export of rule-atom graphs, either as GraphML (for yEd)
+ * or as a compact edge list (TSV or binary) for downstream graph tools.
+ * The atom and grounding filters select a subgraph on the fly; an edge is written if both of its
+ * endpoints pass the filters.
+ */
+public class RagGraphWriter extends GraphMLWriter {
+
+    public static final int BINARY_MAGIC = 0x52414745; // "RAGE"
+    public static final int BINARY_VERSION = 1;
+    public static final byte ATOM_NODE = 0;
+    public static final byte GROUNDING_NODE = 1;
+
+    public RagGraphWriter(Writer out) {
+        super(out, true);
+    }
+
+    private RagGraphWriter(Writer out, boolean closeUnderlying) {
+        super(out, closeUnderlying);
+    }
+
+    public RagGraphWriter(OutputStream os, boolean gzip) throws IOException {
+        super(bufferedWriter(wrap(os, gzip)), true);
+    }
+
+    public RagGraphWriter(File path, boolean gzip) throws IOException {
+        super(bufferedWriter(open(path, gzip)), true);
+    }
+
+    /**
+     * Wraps a stream that belongs to the caller (e.g. System.out): {@link #close()} only flushes.
+     */
+    public static RagGraphWriter borrow(OutputStream os) {
+        return new RagGraphWriter(bufferedWriter(os), false);
+    }
+
+    private static OutputStream wrap(OutputStream os, boolean gzip) throws IOException {
+        if (gzip)
+            return new GZIPOutputStream(os, BUFFER_SIZE);
+        return new BufferedOutputStream(os, BUFFER_SIZE);
+    }
+
+    // the file is closed again if the gzip header cannot be written
+    private static OutputStream open(File path, boolean gzip) throws IOException {
+        OutputStream os = new FileOutputStream(path);
+        try {
+            return wrap(os, gzip);
+        } catch (IOException e) {
+            os.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Whole-graph exports
+     */
+
+    public void writeGraphML(RuleAtomGraph rag) throws IOException {
+        writeGraphML(rag, null, null);
+    }
+
+    public void writeGraphML(RuleAtomGraph rag, Predicate<String> atomFilter, Predicate<String> groundingFilter)
+            throws IOException {
+        writeHeader();
+        writeAtomNodes(rag, atomFilter);
+        writeGroundingNodes(rag, groundingFilter);
+        writeLinks(rag, atomFilter, groundingFilter);
+        writeClosingTags();
+    }
+
+    public void writeAtomNodes(RuleAtomGraph rag, Predicate<String> atomFilter) throws IOException {
+        for (String atom : rag.getAtomNodes()) {
+            if (atomFilter != null && !atomFilter.test(atom))
+                continue;
+            writeNode(atom, rag.getRagFilter().atomToColor(atom), "#000000", "roundrectangle");
+        }
+    }
+
+    public void writeGroundingNodes(RuleAtomGraph rag, Predicate<String> groundingFilter) throws IOException {
+        for (String grounding : rag.getGroundingNodes()) {
+            if (groundingFilter != null && !groundingFilter.test(grounding))
+                continue;
+            writeNode(grounding, "#000000", rag.distToSatisfactionToColor(rag.getGroundingStatus(grounding)),
+                    "rectangle");
+        }
+    }
+
+    public void writeLinks(RuleAtomGraph rag, Predicate<String> atomFilter, Predicate<String> groundingFilter)
+            throws IOException {
+        int edgeId = 0;
+        for (String atom : rag.getAtomNodes()) {
+            if (atomFilter != null && !atomFilter.test(atom))
+                continue;
+            for (Tuple link : rag.getOutgoingLinks(atom)) {
+                String grounding = link.get(1);
+                if (groundingFilter != null && !groundingFilter.test(grounding))
+                    continue;
+                writeEdge(edgeId++, atom, grounding, rag.statusToColor(rag.getLinkStatus(link)), 2.0, "none");
+            }
+        }
+    }
+
+    /**
+     * One line per atom-grounding link:
+     * ATOM, GROUNDING, LINK STATUS, BELIEF VALUE (of the atom), DIST TO SAT (of the grounding).
+     */
+    public void writeEdgeListTsv(RuleAtomGraph rag, Predicate<String> atomFilter, Predicate<String> groundingFilter)
+            throws IOException {
+        out.write("ATOM\tGROUNDING\tLINK STATUS\tBELIEF VALUE\tDIST TO SAT\n");
+        for (String atom : rag.getAtomNodes()) {
+            if (atomFilter != null && !atomFilter.test(atom))
+                continue;
+            String belief = Double.toString(rag.getValue(atom));
+            for (Tuple link : rag.getOutgoingLinks(atom)) {
+                String grounding = link.get(1);
+                if (groundingFilter != null && !groundingFilter.test(grounding))
+                    continue;
+                out.write(atom);
+                out.write('\t');
+                out.write(grounding);
+                out.write('\t');
+                out.write(String.valueOf(rag.getLinkStatus(link)));
+                out.write('\t');
+                out.write(belief);
+                out.write('\t');
+                out.write(Double.toString(rag.getGroundingStatus(grounding)));
+                out.write('\n');
+            }
+        }
+    }
+
+    /*
+     * Static convenience methods
+     */
+
+    public static void exportToGraphML(RuleAtomGraph rag, File path, boolean gzip) throws IOException {
+        exportToGraphML(rag, path, gzip, null, null);
+    }
+
+    public static void exportToGraphML(RuleAtomGraph rag, File path, boolean gzip, Predicate<String> atomFilter,
+                                       Predicate<String> groundingFilter) throws IOException {
+        try (RagGraphWriter writer = new RagGraphWriter(path, gzip)) {
+            writer.writeGraphML(rag, atomFilter, groundingFilter);
+        }
+    }
+
+    public static void exportEdgeListTsv(RuleAtomGraph rag, File path, boolean gzip) throws IOException {
+        exportEdgeListTsv(rag, path, gzip, null, null);
+    }
+
+    public static void exportEdgeListTsv(RuleAtomGraph rag, File path, boolean gzip, Predicate<String> atomFilter,
+                                         Predicate<String> groundingFilter) throws IOException {
+        try (RagGraphWriter writer = new RagGraphWriter(path, gzip)) {
+            writer.writeEdgeListTsv(rag, atomFilter, groundingFilter);
+        }
+    }
+
+    public static void exportEdgeListBinary(RuleAtomGraph rag, File path, boolean gzip) throws IOException {
+        try (OutputStream os = new FileOutputStream(path)) {
+            exportEdgeListBinary(rag, os, gzip, null, null);
+        }
+    }
+
+    /**
+     * Binary edge list (big-endian, as written by {@link DataOutputStream}):
+     * <pre>
+     * int magic, int version
+     * int nNodes, then per node: byte type (0 = atom, 1 = grounding), UTF name,
+     *     double value (belief value for atoms, distance to satisfaction for groundings)
+     * int nEdges, then per edge: int atomId, int groundingId, byte link status ('+', '-', '=')
+     * </pre>
+     * Node IDs are the positions in the node table. The stream is closed afterwards.
+     */
+    public static void exportEdgeListBinary(RuleAtomGraph rag, OutputStream os, boolean gzip,
+                                            Predicate<String> atomFilter, Predicate<String> groundingFilter)
+            throws IOException {
+        try (OutputStream target = os; DataOutputStream out = new DataOutputStream(wrap(target, gzip))) {
+            Map<String, Integer> nodeIds = new HashMap<>();
+            int nEdges = 0;
+            for (String atom : rag.getAtomNodes()) {
+                if (atomFilter == null || atomFilter.test(atom))
+                    nodeIds.put(atom, nodeIds.size());
+            }
+            for (String grounding : rag.getGroundingNodes()) {
+                if (groundingFilter == null || groundingFilter.test(grounding))
+                    nodeIds.put(grounding, nodeIds.size());
+            }
+            for (String atom : rag.getAtomNodes()) {
+                if (!nodeIds.containsKey(atom))
+                    continue;
+                for (Tuple link : rag.getOutgoingLinks(atom)) {
+                    if (nodeIds.containsKey(link.get(1)))
+                        nEdges++;
+                }
+            }
+
+            out.writeInt(BINARY_MAGIC);
+            out.writeInt(BINARY_VERSION);
+            out.writeInt(nodeIds.size());
+            for (String atom : rag.getAtomNodes()) {
+                if (!nodeIds.containsKey(atom))
+                    continue;
+                out.writeByte(ATOM_NODE);
+                out.writeUTF(atom);
+                out.writeDouble(rag.getValue(atom));
+            }
+            for (String grounding : rag.getGroundingNodes()) {
+                if (!nodeIds.containsKey(grounding))
+                    continue;
+                out.writeByte(GROUNDING_NODE);
+                out.writeUTF(grounding);
+                out.writeDouble(rag.getGroundingStatus(grounding));
+            }
+            out.writeInt(nEdges);
+            for (String atom : rag.getAtomNodes()) {
+                Integer atomId = nodeIds.get(atom);
+                if (atomId == null)
+                    continue;
+                for (Tuple link : rag.getOutgoingLinks(atom)) {
+                    Integer groundingId = nodeIds.get(link.get(1));
+                    if (groundingId == null)
+                        continue;
+                    String status = rag.getLinkStatus(link);
+                    out.writeInt(atomId);
+                    out.writeInt(groundingId);
+                    out.writeByte((status == null || status.isEmpty()) ? '?' : status.charAt(0));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import de.tuebingen.sfs.psl.engine.AtomKey;
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.PressureIndex;
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.pred.TalkingPredicate;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+/**
+ * The contents of (a part of) a TSV file written by {@link InferenceResultIo}, parsed line by line.
+ * Parts parsed independently can be combined via {@link #merge(TsvRagData)}.
+ * Also filled record by record by {@link InferenceResultJsonIo}.
+ */
+class TsvRagData {
+
+    String filterClass = null;
+    Set<String> ignoreList = new TreeSet<>();
+    Set<String> ignoreInGui = new TreeSet<>();
+    Set<String> preventUserInteraction = new TreeSet<>();
+    Map<String, String> groundPreds2ActualNames = new TreeMap<>();
+    Set<String> fixedAtoms = new HashSet<>();
+    Set<String> hiddenAtoms = new HashSet<>();
+
+    Set<String> groundingNodes = new TreeSet<>();
+    Map<String, Double> groundingStatus = new TreeMap<>();
+    Set<String> equalityGroundings = new TreeSet<>();
+    Set<String> atomNodes = new TreeSet<>();
+    BeliefMap beliefValues = new BeliefMap();
+    Map<String, String> atomStatus = new TreeMap<>();
+    Set<Tuple> links = new TreeSet<>();
+    Map<Tuple, String> linkStatus = new TreeMap<>();
+    Map<Tuple, Double> linkToCounterfactual = new TreeMap<>();
+    Map<Tuple, double[]> equalityRuleLinkToCounterfactual = new TreeMap<>();
+    Map<Tuple, Double> linkStrength = new TreeMap<>();
+    Map<String, Set<Tuple>> outgoingLinks = new TreeMap<>();
+    Map<String, List<Tuple>> incomingLinks = new TreeMap<>();
+    BeliefMap scoreMap = new BeliefMap();
+
+    Map<String, TalkingRuleOrConstraint> talkingRules = new TreeMap<>();
+    Map<String, TalkingPredicate> talkingPreds = new TreeMap<>();
+    // rule class + parameters of the rules that were already created
+    private Set<String> seenRules = new HashSet<>();
+
+    // one of the lines of the RAG FILTER section
+    void parseFilterLine(String line) {
+        if (line.startsWith("CLASS")) {
+            filterClass = line.split("\t")[1].trim();
+            return;
+        }
+        String[] fields = line.split("\t");
+        if (fields.length < 2)
+            return;
+        // Remove [ ] or { }
+        String content = fields[1].trim();
+        content = content.substring(1, content.length() - 1);
+        if (content.isEmpty())
+            return;
+        if (line.startsWith("IGNORE LIST")) {
+            addAll(content, ignoreList);
+        } else if (line.startsWith("IGNORE IN GUI")) {
+            addAll(content, ignoreInGui);
+        } else if (line.startsWith("PREVENT USER INTERACTION")) {
+            addAll(content, preventUserInteraction);
+        } else if (line.startsWith("PRED")) {
+            for (String item : content.split(",")) {
+                String[] entry = item.split("=");
+                groundPreds2ActualNames.put(entry[0].trim(), entry[1].trim());
+            }
+        } else if (line.startsWith("FIXED")) {
+            for (String item : splitAtomList(content)) {
+                fixedAtoms.add(AtomKey.canonical(item));
+            }
+        } else if (line.startsWith("HIDDEN")) {
+            for (String item : splitAtomList(content)) {
+                hiddenAtoms.add(AtomKey.canonical(item));
+            }
+        }
+    }
+
+    private static void addAll(String content, Set<String> set) {
+        for (String item : content.split(",")) {
+            set.add(item.trim());
+        }
+    }
+
+    // the line after the EQUALITY RULES header
+    void parseEqualityLine(String line) {
+        line = line.trim();
+        if (line.startsWith("[") && line.endsWith("]"))
+            line = line.substring(1, line.length() - 1);
+        for (String grounding : line.split(",")) {
+            grounding = grounding.trim();
+            if (!grounding.isEmpty())
+                equalityGroundings.add(grounding);
+        }
+    }
+
+    void parseGroundingLine(String[] fields) {
+        String grounding = fields[0].trim();
+        String atoms = fields[2].trim();
+        if (atoms.startsWith("[") && atoms.endsWith("]"))
+            atoms = atoms.substring(1, atoms.length() - 1);
+        addGrounding(grounding, Double.parseDouble(fields[1].trim()), splitAtomList(atoms));
+        String ruleClass = fields[3].trim();
+        String parameters = "";
+        if (fields.length > 4)
+            parameters = fields[4].trim();
+        addRule(ruleClass, parameters);
+    }
+
+    void addRule(TalkingRuleOrConstraint rule) {
+        if (seenRules.add(rule.getClass().getName() + "\t" + rule.getSerializedParameters()))
+            talkingRules.put(rule.getName(), rule);
+    }
+
+    void addRule(String ruleClass, String parameters) {
+        // the rule is the same for all groundings, only create it once
+        if (seenRules.add(ruleClass + "\t" + parameters)) {
+            TalkingRuleOrConstraint rule = InferenceResultIo.createTalkingRule(ruleClass, parameters);
+            if (rule != null)
+                talkingRules.put(rule.getName(), rule);
+        }
+    }
+
+    void parseAtomLine(String[] fields) {
+        String atom = addAtom(fields[0].trim(), Double.parseDouble(fields[1].trim()), fields[2].trim());
+        Double strength = null;
+        if (!fields[5].trim().equals("null"))
+            strength = Double.parseDouble(fields[5].trim());
+        Double counterfactual = null;
+        double[] equalityCounterfactuals = null;
+        if (fields[6].contains(";")) {
+            String[] entries = fields[6].split(";");
+            equalityCounterfactuals = new double[]{
+                    Double.parseDouble(entries[0].trim()), Double.parseDouble(entries[1].trim())};
+        } else if (!fields[6].trim().equals("null")) {
+            counterfactual = Double.parseDouble(fields[6].trim());
+        }
+        addLink(atom, fields[3].trim(), fields[4].trim(), strength, counterfactual, equalityCounterfactuals);
+    }
+
+    void addGrounding(String grounding, double status, List<String> atoms) {
+        groundingNodes.add(grounding);
+        groundingStatus.put(grounding, status);
+        List<Tuple> incoming = new ArrayList<Tuple>();
+        for (String atom : atoms) {
+            incoming.add(new Tuple(AtomKey.canonical(atom), grounding));
+        }
+        incomingLinks.put(grounding, incoming);
+    }
+
+    /**
+     * @return the canonical form of the atom
+     */
+    String addAtom(String atom, double belief, String status) {
+        atom = AtomKey.canonical(atom);
+        atomNodes.add(atom);
+        beliefValues.putValue(atom, belief);
+        atomStatus.put(atom, status);
+        return atom;
+    }
+
+    void addLink(String atom, String grounding, String status, Double strength, Double counterfactual,
+                 double[] equalityCounterfactuals) {
+        Tuple link = new Tuple(atom, grounding);
+        links.add(link);
+        linkStatus.put(link, status);
+        linkStrength.put(link, strength);
+        if (equalityCounterfactuals != null)
+            equalityRuleLinkToCounterfactual.put(link, equalityCounterfactuals);
+        else if (counterfactual != null)
+            linkToCounterfactual.put(link, counterfactual);
+        Set<Tuple> outgoing = outgoingLinks.get(atom);
+        if (outgoing == null) {
+            outgoing = new TreeSet<>();
+            outgoingLinks.put(atom, outgoing);
+        }
+        outgoing.add(link);
+    }
+
+    void parseScoreLine(String[] fields) {
+        scoreMap.putValue(fields[0].trim(), Double.parseDouble(fields[1].trim()));
+    }
+
+    void parseTalkingPredLine(String[] fields) {
+        String predName = fields[0].trim();
+        int arity = Integer.parseInt(fields[1].trim());
+        talkingPreds.put(predName, InferenceResultIo.createTalkingPredicate(predName, arity, fields[2].trim()));
+    }
+
+    /**
+     * Adds the contents of a part parsed separately.
+     */
+    void merge(TsvRagData other) {
+        if (filterClass == null)
+            filterClass = other.filterClass;
+        ignoreList.addAll(other.ignoreList);
+        ignoreInGui.addAll(other.ignoreInGui);
+        preventUserInteraction.addAll(other.preventUserInteraction);
+        groundPreds2ActualNames.putAll(other.groundPreds2ActualNames);
+        fixedAtoms.addAll(other.fixedAtoms);
+        hiddenAtoms.addAll(other.hiddenAtoms);
+
+        groundingNodes.addAll(other.groundingNodes);
+        groundingStatus.putAll(other.groundingStatus);
+        equalityGroundings.addAll(other.equalityGroundings);
+        atomNodes.addAll(other.atomNodes);
+        other.beliefValues.forEachValue(beliefValues::putValue);
+        atomStatus.putAll(other.atomStatus);
+        links.addAll(other.links);
+        linkStatus.putAll(other.linkStatus);
+        linkToCounterfactual.putAll(other.linkToCounterfactual);
+        equalityRuleLinkToCounterfactual.putAll(other.equalityRuleLinkToCounterfactual);
+        linkStrength.putAll(other.linkStrength);
+        for (Map.Entry<String, Set<Tuple>> entry : other.outgoingLinks.entrySet()) {
+            Set<Tuple> outgoing = outgoingLinks.get(entry.getKey());
+            if (outgoing == null)
+                outgoingLinks.put(entry.getKey(), entry.getValue());
+            else
+                outgoing.addAll(entry.getValue());
+        }
+        incomingLinks.putAll(other.incomingLinks);
+        other.scoreMap.forEachValue(scoreMap::putValue);
+
+        for (Map.Entry<String, TalkingRuleOrConstraint> entry : other.talkingRules.entrySet()) {
+            talkingRules.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        talkingPreds.putAll(other.talkingPreds);
+        seenRules.addAll(other.seenRules);
+    }
+
+    /**
+     * @return the contents of an existing result, as they would be parsed from its TSV serialization
+     */
+    static TsvRagData fromResult(InferenceResult result, Map<String, TalkingPredicate> talkingPreds,
+                                 Map<String, TalkingRuleOrConstraint> talkingRules) {
+        TsvRagData data = new TsvRagData();
+        RuleAtomGraph rag = result.getRag();
+        RagFilter filter = rag.getRagFilter();
+        data.filterClass = filter.getClass().getName();
+        data.ignoreList.addAll(filter.getIgnoreList());
+        data.ignoreInGui.addAll(filter.getIgnoreInGui());
+        data.preventUserInteraction.addAll(filter.getPreventUserInteraction());
+        data.groundPreds2ActualNames.putAll(filter.getGroundPred2ActualNames());
+        data.fixedAtoms.addAll(filter.getFixedAtoms());
+        data.hiddenAtoms.addAll(filter.getHiddenAtoms());
+
+        for (String grounding : rag.getGroundingNodes()) {
+            List<String> atoms = new ArrayList<>();
+            List<Tuple> incoming = rag.getIncomingLinks(grounding);
+            if (incoming != null) {
+                for (Tuple link : incoming) {
+                    atoms.add(link.get(0));
+                }
+            }
+            Double status = rag.getGroundingStatus(grounding);
+            data.addGrounding(grounding, (status == null) ? 0.0 : status, atoms);
+            if (rag.isEqualityRule(grounding))
+                data.equalityGroundings.add(grounding);
+            TalkingRuleOrConstraint rule = talkingRules.get(PressureIndex.ruleName(grounding));
+            if (rule != null)
+                data.addRule(rule);
+        }
+        for (String atom : rag.getAtomNodes()) {
+            atom = data.addAtom(atom, filter.getValueForAtom(atom), rag.getAtomStatus(atom));
+            for (Tuple link : rag.getOutgoingLinks(atom)) {
+                double[] eqCounterfactual = rag.getCounterfactualsForEqualityRule(link);
+                data.addLink(atom, link.get(1), rag.getLinkStatus(link), rag.getLinkStrength(link),
+                        (eqCounterfactual == null) ? rag.getCounterfactual(link) : null, eqCounterfactual);
+            }
+        }
+        Map<String, Double> inferenceValues = result.getInferenceValues();
+        if (inferenceValues instanceof BeliefMap)
+            ((BeliefMap) inferenceValues).forEachValue(data.scoreMap::putValue);
+        else
+            data.scoreMap.putAll(inferenceValues);
+        data.talkingPreds.putAll(talkingPreds);
+        return data;
+    }
+
+    /**
+     * @return a deep copy (except for the talking predicates and rules), which can be modified and built independently
+     */
+    TsvRagData copy() {
+        TsvRagData copy = new TsvRagData();
+        copy.merge(this);
+        for (Map.Entry<String, Set<Tuple>> entry : copy.outgoingLinks.entrySet()) {
+            entry.setValue(new TreeSet<>(entry.getValue()));
+        }
+        for (Map.Entry<String, List<Tuple>> entry : copy.incomingLinks.entrySet()) {
+            entry.setValue(new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    InferenceResult build(Map<String, TalkingPredicate> talkingPreds,
+                          Map<String, TalkingRuleOrConstraint> talkingRules) {
+        talkingPreds.putAll(this.talkingPreds);
+        talkingRules.putAll(this.talkingRules);
+        RagFilter ragFilter = InferenceResultIo.createRagFilter(filterClass);
+        ragFilter.setAll(beliefValues, groundPreds2ActualNames, ignoreList, ignoreInGui, preventUserInteraction,
+                fixedAtoms, hiddenAtoms);
+        RuleAtomGraph rag = new RuleAtomGraph(groundingNodes, groundingStatus, equalityGroundings, atomNodes,
+                atomStatus, links, linkStatus, linkToCounterfactual, equalityRuleLinkToCounterfactual, linkStrength,
+                outgoingLinks, incomingLinks, ragFilter);
+        return InferenceResultIo.createResult(rag, scoreMap, talkingPreds, talkingRules);
+    }
+
+    // splits a comma-separated list of atoms, ignoring the commas between the arguments of an atom
+    static List<String> splitAtomList(String line) {
+        List<String> atoms = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                atoms.add(line.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        String last = line.substring(start).trim();
+        if (!last.isEmpty())
+            atoms.add(last);
+        return atoms;
+    }
+
+}
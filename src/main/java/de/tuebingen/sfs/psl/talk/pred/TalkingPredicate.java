@@ -18,6 +18,7 @@ package de.tuebingen.sfs.psl.talk.pred;
 import java.util.Arrays;
 import java.util.List;
 
+import de.tuebingen.sfs.psl.engine.AtomKey;
 import de.tuebingen.sfs.psl.engine.PslProblem;
 import de.tuebingen.sfs.psl.talk.ConstantRenderer;
 import de.tuebingen.sfs.psl.util.data.StringUtils;
@@ -58,8 +59,7 @@ public class TalkingPredicate {
 	public static String[] extractArgs(String atomString) {
 		if (atomString == null)
 			return null;
-		String argString = atomString.substring(atomString.indexOf('(') + 1, atomString.length() - 1);
-		return StringUtils.split(argString, ", ");
+		return AtomKey.of(atomString).getArgs();
 	}
 
 	public String getSymbol() {
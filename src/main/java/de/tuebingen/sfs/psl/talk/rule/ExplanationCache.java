@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.talk.rule;
+
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.ConstantRenderer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * The most recently used explanations for the groundings of a {@link RuleAtomGraph},
+ * keyed by the graph's version, the grounding, the context atom and the type of explanation (why/why not).
+ * Explanations generated with different renderers are stored separately.
+ * <p>
+ * Changing the graph (see {@link RuleAtomGraph#updateValue(String, double)}) or any belief value of its
+ * RagFilter (which subgraphs share) increases its version, which invalidates all cached explanations.
+ */
+public class ExplanationCache {
+
+    public static int DEFAULT_CAPACITY = 1000;
+
+    private final Map<Key, String> entries;
+    private long version = -1;
+    private int hits = 0;
+    private int misses = 0;
+
+    public ExplanationCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ExplanationCache(int capacity) {
+        entries = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param explanation generates the explanation if it isn't cached; called without holding the cache's lock
+     */
+    public String get(long ragVersion, ConstantRenderer renderer, String groundingName, String contextAtom,
+                      boolean whyExplanation, Supplier<String> explanation) {
+        Key key = new Key(ragVersion, renderer, groundingName, contextAtom, whyExplanation);
+        synchronized (this) {
+            String cached = entries.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        String generated = explanation.get();
+        if (generated != null) {
+            synchronized (this) {
+                // explanations for older versions of the graph can't be requested anymore
+                if (ragVersion > version) {
+                    entries.clear();
+                    version = ragVersion;
+                }
+                if (ragVersion == version)
+                    entries.put(key, generated);
+            }
+        }
+        return generated;
+    }
+
+    public synchronized void invalidate() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    private static class Key {
+        final long ragVersion;
+        final ConstantRenderer renderer;
+        final String groundingName;
+        final String contextAtom;
+        final boolean whyExplanation;
+
+        Key(long ragVersion, ConstantRenderer renderer, String groundingName, String contextAtom,
+            boolean whyExplanation) {
+            this.ragVersion = ragVersion;
+            this.renderer = renderer;
+            this.groundingName = groundingName;
+            this.contextAtom = contextAtom;
+            this.whyExplanation = whyExplanation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            // renderers are compared by identity
+            return ragVersion == other.ragVersion && renderer == other.renderer
+                    && whyExplanation == other.whyExplanation && groundingName.equals(other.groundingName)
+                    && Objects.equals(contextAtom, other.contextAtom);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Long.hashCode(ragVersion);
+            result = 31 * result + System.identityHashCode(renderer);
+            result = 31 * result + groundingName.hashCode();
+            result = 31 * result + Objects.hashCode(contextAtom);
+            result = 31 * result + (whyExplanation ? 1 : 0);
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.talk.rule;
+
+import de.tuebingen.sfs.psl.engine.PressureIndex;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.ConstantRenderer;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Generates the explanations for all (or a filtered set of) atom-grounding links of a {@link RuleAtomGraph}
+ * in parallel, e.g. for reports. The links are processed in chunks, and the explanations of each chunk
+ * are passed on in the order of the graph's groundings, so only one chunk is kept in memory.
+ * <p>
+ * Each worker thread gets its own talking rules and renderer from the suppliers, so rules, talking predicates
+ * and renderers that are not thread-safe can be confined to a single worker by supplying new instances.
+ * Thread-safe (e.g. stateless) ones can be shared by supplying the same instance every time.
+ * The graph must not be changed while the explanations are generated.
+ */
+public class ExplanationPregenerator {
+
+    public static int DEFAULT_CHUNK_SIZE = 4096;
+
+    public interface ExplanationSink {
+        void accept(String atom, String grounding, boolean whyExplanation, String explanation) throws IOException;
+    }
+
+    private final Supplier<Map<String, TalkingRuleOrConstraint>> rules;
+    private final Supplier<ConstantRenderer> renderers;
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean whyExplanations = true;
+    private boolean whyNotExplanations = true;
+
+    /**
+     * Shares the rules and the renderer among all workers, so they need to be thread-safe.
+     *
+     * @param renderer can be null
+     */
+    public ExplanationPregenerator(Map<String, TalkingRuleOrConstraint> rules, ConstantRenderer renderer) {
+        this(() -> rules, () -> renderer);
+    }
+
+    /**
+     * @param rules     rule name -> talking rule, called once per worker thread
+     * @param renderers called once per worker thread, can return null
+     */
+    public ExplanationPregenerator(Supplier<Map<String, TalkingRuleOrConstraint>> rules,
+                                   Supplier<ConstantRenderer> renderers) {
+        this.rules = rules;
+        this.renderers = renderers;
+    }
+
+    public void setNumberOfThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public void setWhyExplanations(boolean whyExplanations) {
+        this.whyExplanations = whyExplanations;
+    }
+
+    public void setWhyNotExplanations(boolean whyNotExplanations) {
+        this.whyNotExplanations = whyNotExplanations;
+    }
+
+    /**
+     * Writes one line per explanation: atom, grounding, "why" or "whyNot", explanation (tab-separated).
+     * Tabs and line breaks within the explanations are replaced by spaces. The writer is not closed.
+     *
+     * @return the number of explanations written
+     */
+    public int writeExplanations(RuleAtomGraph rag, Writer out) throws IOException {
+        return writeExplanations(rag, null, out);
+    }
+
+    /**
+     * @param linkFilter (atom, grounding) -> whether to explain the link; null for all links
+     */
+    public int writeExplanations(RuleAtomGraph rag, BiPredicate<String, String> linkFilter, Writer out)
+            throws IOException {
+        int n = generateExplanations(rag, linkFilter, (atom, grounding, why, explanation) -> {
+            out.write(atom);
+            out.write('\t');
+            out.write(grounding);
+            out.write('\t');
+            out.write(why ? "why" : "whyNot");
+            out.write('\t');
+            out.write(explanation.replace('\t', ' ').replace('\r', ' ').replace('\n', ' '));
+            out.write('\n');
+        });
+        out.flush();
+        return n;
+    }
+
+    /**
+     * Passes the explanations to the sink on the calling thread, in the order of the graph's groundings.
+     * Links whose grounding has no talking rule, or whose explanation could not be generated, are skipped.
+     *
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting for the workers
+     *                                (its interrupt flag is set again)
+     *
+     * @param linkFilter (atom, grounding) -> whether to explain the link; null for all links
+     * @return the number of explanations passed to the sink
+     */
+    public int generateExplanations(RuleAtomGraph rag, BiPredicate<String, String> linkFilter, ExplanationSink sink)
+            throws IOException {
+        List<Boolean> types = new ArrayList<>();
+        if (whyExplanations)
+            types.add(true);
+        if (whyNotExplanations)
+            types.add(false);
+
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> new Worker(rules.get(), renderers.get()));
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        int n = 0;
+        try {
+            List<Link> chunk = new ArrayList<>(chunkSize);
+            for (String grounding : rag.getGroundingNodes()) {
+                List<Tuple> incoming = rag.getIncomingLinks(grounding);
+                if (incoming == null)
+                    continue;
+                for (Tuple link : incoming) {
+                    String atom = link.get(0);
+                    if (linkFilter != null && !linkFilter.test(atom, grounding))
+                        continue;
+                    for (boolean why : types) {
+                        chunk.add(new Link(atom, grounding, why));
+                    }
+                    if (chunk.size() >= chunkSize) {
+                        n += processChunk(rag, chunk, executor, workers, sink);
+                        chunk = new ArrayList<>(chunkSize);
+                    }
+                }
+            }
+            n += processChunk(rag, chunk, executor, workers, sink);
+        } finally {
+            executor.shutdown();
+        }
+        return n;
+    }
+
+    private int processChunk(RuleAtomGraph rag, List<Link> chunk, ExecutorService executor,
+                             ThreadLocal<Worker> workers, ExplanationSink sink) throws IOException {
+        String[] explanations = new String[chunk.size()];
+        // a few slices per thread, since explanations can take very different amounts of time
+        int sliceSize = Math.max(1, chunk.size() / (nThreads * 4));
+        List<Future<?>> slices = new ArrayList<>();
+        for (int start = 0; start < chunk.size(); start += sliceSize) {
+            int from = start;
+            int to = Math.min(start + sliceSize, chunk.size());
+            slices.add(executor.submit(() -> {
+                Worker worker = workers.get();
+                for (int i = from; i < to; i++) {
+                    Link link = chunk.get(i);
+                    explanations[i] = worker.explain(rag, link.atom, link.grounding, link.whyExplanation);
+                }
+            }));
+        }
+        try {
+            for (Future<?> slice : slices) {
+                slice.get();
+            }
+        } catch (InterruptedException e) {
+            cancel(slices);
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException(
+                    "Interrupted while generating explanations");
+            interrupted.initCause(e);
+            throw interrupted;
+        } catch (ExecutionException e) {
+            // failures of single explanations are caught by the workers, so this is a failure of the setup
+            // (e.g. of the suppliers) and would affect the remaining slices as well
+            cancel(slices);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException("Could not generate explanations", cause);
+        }
+
+        int n = 0;
+        for (int i = 0; i < explanations.length; i++) {
+            if (explanations[i] == null)
+                continue;
+            Link link = chunk.get(i);
+            sink.accept(link.atom, link.grounding, link.whyExplanation, explanations[i]);
+            n++;
+        }
+        return n;
+    }
+
+    private static void cancel(List<Future<?>> slices) {
+        for (Future<?> slice : slices) {
+            slice.cancel(true);
+        }
+    }
+
+    private static class Link {
+        final String atom;
+        final String grounding;
+        final boolean whyExplanation;
+
+        Link(String atom, String grounding, boolean whyExplanation) {
+            this.atom = atom;
+            this.grounding = grounding;
+            this.whyExplanation = whyExplanation;
+        }
+    }
+
+    private static class Worker {
+        final Map<String, TalkingRuleOrConstraint> rules;
+        final ConstantRenderer renderer;
+
+        Worker(Map<String, TalkingRuleOrConstraint> rules, ConstantRenderer renderer) {
+            this.rules = rules;
+            this.renderer = renderer;
+        }
+
+        String explain(RuleAtomGraph rag, String atom, String grounding, boolean whyExplanation) {
+            TalkingRuleOrConstraint rule = rules.get(PressureIndex.ruleName(grounding));
+            if (rule == null)
+                return null;
+            try {
+                return rule.generateExplanation(renderer, grounding, atom, rag, whyExplanation);
+            } catch (Exception e) {
+                System.err.println("Could not generate the explanation for " + atom + " in " + grounding + ":");
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+}
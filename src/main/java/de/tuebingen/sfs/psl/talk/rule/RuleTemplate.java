@@ -0,0 +1,213 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.talk.rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The atoms of a rule string, parsed once: for each atom (in the order of the rule string)
+ * the predicate, the arguments (variables or quoted constants), whether it is negated
+ * and whether it is in the head of a logical rule. Comparisons like "(X != Y)" are included
+ * with the comparison operator as their predicate.
+ */
+public class RuleTemplate {
+
+    private final List<AtomPattern> atoms;
+    private final AtomPattern consequent;
+
+    private RuleTemplate(List<AtomPattern> atoms) {
+        this.atoms = Collections.unmodifiableList(atoms);
+        AtomPattern consequent = null;
+        int headAtoms = 0;
+        for (AtomPattern atom : atoms) {
+            if (atom.isInHead()) {
+                headAtoms++;
+                consequent = atom;
+            }
+        }
+        // disjunctions in the head have no single consequent
+        this.consequent = (headAtoms == 1 && !consequent.isComparison()) ? consequent : null;
+    }
+
+    public static RuleTemplate compile(String ruleString) {
+        // the head of a logical rule is after "->"/">>" or before "<-"/"<<"
+        int headStart = 0;
+        int headEnd = 0;
+        int arrow = indexOfEither(ruleString, "->", ">>");
+        if (arrow >= 0) {
+            headStart = arrow + 2;
+            headEnd = ruleString.length();
+        } else {
+            arrow = indexOfEither(ruleString, "<-", "<<");
+            if (arrow >= 0)
+                headEnd = arrow;
+        }
+
+        List<AtomPattern> atoms = new ArrayList<>();
+        int i = 0;
+        while (i < ruleString.length()) {
+            if (ruleString.charAt(i) != '(') {
+                i++;
+                continue;
+            }
+            int close = ruleString.indexOf(')', i);
+            if (close < 0)
+                break;
+            int predStart = i;
+            while (predStart > 0 && isPredicateChar(ruleString.charAt(predStart - 1))) {
+                predStart--;
+            }
+            boolean inHead = predStart >= headStart && predStart < headEnd;
+            if (predStart < i) {
+                boolean negated = isNegated(ruleString, predStart);
+                atoms.add(new AtomPattern(ruleString.substring(predStart, i), splitArgs(ruleString, i + 1, close),
+                        negated, inHead, false));
+                i = close + 1;
+                continue;
+            }
+            AtomPattern comparison = parseComparison(ruleString.substring(i + 1, close), inHead);
+            if (comparison != null) {
+                atoms.add(comparison);
+                i = close + 1;
+            } else {
+                // parentheses for grouping
+                i++;
+            }
+        }
+        return new RuleTemplate(atoms);
+    }
+
+    private static int indexOfEither(String s, String a, String b) {
+        int i = s.indexOf(a);
+        int j = s.indexOf(b);
+        if (i < 0)
+            return j;
+        return (j < 0) ? i : Math.min(i, j);
+    }
+
+    private static boolean isPredicateChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '#';
+    }
+
+    private static boolean isNegated(String ruleString, int predStart) {
+        int i = predStart - 1;
+        while (i >= 0 && Character.isWhitespace(ruleString.charAt(i))) {
+            i--;
+        }
+        return i >= 0 && (ruleString.charAt(i) == '~' || ruleString.charAt(i) == '!');
+    }
+
+    private static String[] splitArgs(String s, int from, int to) {
+        List<String> args = new ArrayList<>();
+        int start = from;
+        while (start <= to) {
+            int comma = s.indexOf(',', start);
+            int end = (comma < 0 || comma > to) ? to : comma;
+            args.add(s.substring(start, end).trim());
+            start = end + 1;
+        }
+        return args.toArray(new String[0]);
+    }
+
+    private static AtomPattern parseComparison(String content, boolean inHead) {
+        for (String operator : new String[]{"!=", "==", "="}) {
+            int i = content.indexOf(operator);
+            if (i >= 0) {
+                String[] args = new String[]{content.substring(0, i).trim(),
+                        content.substring(i + operator.length()).trim()};
+                return new AtomPattern(operator, args, false, inHead, true);
+            }
+        }
+        return null;
+    }
+
+    public List<AtomPattern> getAtoms() {
+        return atoms;
+    }
+
+    public int size() {
+        return atoms.size();
+    }
+
+    /**
+     * @return the head atom of a logical rule, or null if the head is a disjunction or the rule has no head
+     */
+    public AtomPattern getConsequent() {
+        return consequent;
+    }
+
+    public static class AtomPattern {
+
+        private final String predicate;
+        private final String[] args;
+        private final boolean negated;
+        private final boolean inHead;
+        private final boolean comparison;
+
+        AtomPattern(String predicate, String[] args, boolean negated, boolean inHead, boolean comparison) {
+            this.predicate = predicate;
+            this.args = args;
+            this.negated = negated;
+            this.inHead = inHead;
+            this.comparison = comparison;
+        }
+
+        public String getPredicate() {
+            return predicate;
+        }
+
+        public int getArity() {
+            return args.length;
+        }
+
+        public String getArg(int i) {
+            return args[i];
+        }
+
+        public String[] getArgs() {
+            return args.clone();
+        }
+
+        /**
+         * @return false for quoted constants
+         */
+        public boolean isVariable(int i) {
+            return !(args[i].startsWith("'") || args[i].startsWith("\""));
+        }
+
+        public boolean isNegated() {
+            return negated;
+        }
+
+        public boolean isInHead() {
+            return inHead;
+        }
+
+        public boolean isComparison() {
+            return comparison;
+        }
+
+        @Override
+        public String toString() {
+            if (comparison)
+                return "(" + args[0] + " " + predicate + " " + args[1] + ")";
+            return predicate + "(" + String.join(", ", args) + ")";
+        }
+    }
+
+}
@@ -110,30 +110,17 @@ public abstract class TalkingLogicalRuleOrConstraint extends TalkingRuleOrConstr
         String consequent = null;
         boolean negatedConsequent = false;
         PrintableAtom printableConsequent = null;
-        String rule = getRuleString();
-        if (rule.contains("->")) {
-            consequent = rule.split("->")[1];
-        } else if (rule.contains(">>")) {
-            consequent = rule.split(">>")[1];
-        } else if (rule.contains("<-")) {
-            consequent = rule.split("<-")[0];
-        } else if (rule.contains("<<")) {
-            consequent = rule.split("<<")[0];
-        }
-        if (consequent == null || consequent.contains("|")) {
+        RuleTemplate.AtomPattern head = getRuleTemplate().getConsequent();
+        if (head == null) {
             // Default explanations for consequents with disjunctions
             printableConsequent = null;
         } else {
-            consequent = consequent.strip();
-            negatedConsequent = consequent.startsWith("~") || consequent.startsWith("!");
-            if (negatedConsequent) {
-                consequent = consequent.substring(1).strip();
-            }
+            consequent = head.toString();
+            negatedConsequent = head.isNegated();
             printableConsequent = new PrintableAtom(consequent);
-            String[] predDetails = StringUtils.split(consequent, '(');
-            printableConsequent.setPred(nameToTalkingPredicate.get(predDetails[0]));
+            printableConsequent.setPred(nameToTalkingPredicate.get(head.getPredicate()));
             // Placeholder args:
-            printableConsequent.setArgs(predDetails[1].substring(0, predDetails[1].length() - 1).split(",\\s?"));
+            printableConsequent.setArgs(head.getArgs());
         }
 
         // All arguments of the ground rule that are eligible for printing (unequal to the context atom and unequal to the consequent atom)
@@ -15,6 +15,7 @@
  */
 package de.tuebingen.sfs.psl.talk.rule;
 
+import de.tuebingen.sfs.psl.engine.AtomKey;
 import de.tuebingen.sfs.psl.engine.PslProblem;
 import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
 import de.tuebingen.sfs.psl.talk.BeliefScale;
@@ -41,8 +42,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static de.tuebingen.sfs.psl.talk.rule.SentenceHelper.*;
 
@@ -58,8 +57,6 @@ import static de.tuebingen.sfs.psl.talk.rule.SentenceHelper.*;
 // https://github.com/jdellert/etinen-shared/tree/master/src/main/java/de/tuebingen/sfs/eie/talk
 public abstract class TalkingRuleOrConstraint {
 
-    //	private static final Pattern ATOM_PATTERN = Pattern.compile("(?<=\\w\\()[^\\(]+(?=\\))");
-    private static final Pattern ATOM_PATTERN = Pattern.compile("\\w{4,}\\([^\\(]+\\)");
     // Rule name
     private String name;
     // String representation of rule
@@ -71,6 +68,8 @@ public abstract class TalkingRuleOrConstraint {
     // Arguments of the rule as entered in the rule string
     // (e.g. "Prec(Lang1, Lang2, Proto)")
     private String[] args;
+    // The atoms of the rule string, parsed once
+    private RuleTemplate template;
     private PslProblem pslProblem = null;
     private Map<String, TalkingPredicate> talkingPreds = null;
 
@@ -139,6 +138,7 @@ public abstract class TalkingRuleOrConstraint {
     protected void setRule(String ruleString, Rule rule) {
         this.rule = rule;
         this.ruleString = ruleString;
+        this.template = RuleTemplate.compile(ruleString);
 
         if (rule != null) {
             List<SummationAtomOrAtom> atoms;
@@ -165,18 +165,13 @@ public abstract class TalkingRuleOrConstraint {
             return;
         }
 
+        // comparisons like (A != B) are not linked to the groundings in the RAG
         List<String> args = new ArrayList<>();
-        Matcher matcher = ATOM_PATTERN.matcher(ruleString);
-        while (matcher.find()) {
-            String argSection = matcher.group();
-            for (String arg : argSection.split(",")) {
-                args.add(arg.trim());
-            }
-        }
-        this.args = new String[args.size()];
-        for (int i = 0; i < args.size(); i++) {
-            this.args[i] = args.get(i);
+        for (RuleTemplate.AtomPattern atom : template.getAtoms()) {
+            if (!atom.isComparison())
+                args.add(atom.toString());
         }
+        this.args = args.toArray(new String[0]);
     }
 
     public String getName() {
@@ -211,6 +206,13 @@ public abstract class TalkingRuleOrConstraint {
         return args;
     }
 
+    /**
+     * @return the predicates, arguments and polarities of the atoms in the rule string
+     */
+    public RuleTemplate getRuleTemplate() {
+        return template;
+    }
+
     protected PslProblem getPslProblem() {
         return pslProblem;
     }
@@ -229,6 +231,17 @@ public abstract class TalkingRuleOrConstraint {
         return getDefaultExplanation(renderer, groundingName, contextAtom, rag, whyExplanation);
     }
 
+    /**
+     * Like {@link #generateExplanation(ConstantRenderer, String, String, RuleAtomGraph, boolean)}, but
+     * reuses explanations from the graph's {@link ExplanationCache} as long as the graph doesn't change.
+     * Use this when the same explanations are requested repeatedly, e.g. while navigating the graph in a viewer.
+     */
+    public String getCachedExplanation(ConstantRenderer renderer, String groundingName, String contextAtom,
+                                       RuleAtomGraph rag, boolean whyExplanation) {
+        return rag.getExplanationCache().get(rag.getVersion(), renderer, groundingName, contextAtom, whyExplanation,
+                () -> generateExplanation(renderer, groundingName, contextAtom, rag, whyExplanation));
+    }
+
     public abstract String getDefaultExplanation(ConstantRenderer renderer, String groundingName, String contextAtom,
                                                  RuleAtomGraph rag, boolean whyExplanation);
 
@@ -593,13 +606,13 @@ public abstract class TalkingRuleOrConstraint {
         HashMap<String, Double> beliefValues = new HashMap<>();
         HashMap<String, String[]> arguments = new HashMap<>();
 
-        for (int i = 0; i < args.length; i++) {
+        for (int i = 0; i < Math.min(args.length, atomToStatus.size()); i++) {
             String groundAtom = atomToStatus.get(i).get(0);
-            String[] predDetails = groundAtom.split("\\(");
-            String predName = predDetails[0];
+            AtomKey key = rag.getAtomKey(groundAtom);
+            String predName = key.getPredicate();
             atoms.put(predName, groundAtom);
             beliefValues.put(predName, rag.getValue(groundAtom));
-            arguments.put(predName, predDetails[1].substring(0, predDetails[1].length() - 1).split(","));
+            arguments.put(predName, key.getArgs());
         }
         return new HashMap[]{atoms, beliefValues, arguments};
     }
@@ -615,14 +628,14 @@ public abstract class TalkingRuleOrConstraint {
         HashMap<String, Double> beliefValuesLite = new HashMap<>();
         HashMap<String, String[]> argumentsLite = new HashMap<>();
 
-        for (int i = 0; i < args.length; i++) {
+        for (int i = 0; i < Math.min(args.length, atomToStatus.size()); i++) {
             String groundAtom = atomToStatus.get(i).get(0);
             beliefValues.put(groundAtom, rag.getValue(groundAtom));
-            String[] predDetails = groundAtom.split("\\(");
-            String predName = predDetails[0];
+            AtomKey key = rag.getAtomKey(groundAtom);
+            String predName = key.getPredicate();
             atomsLite.put(predName, groundAtom);
             beliefValuesLite.put(predName, rag.getValue(groundAtom));
-            argumentsLite.put(predName, predDetails[1].substring(0, predDetails[1].length() - 1).split(","));
+            argumentsLite.put(predName, key.getArgs());
         }
         return new HashMap[]{atomsLite, beliefValues, beliefValuesLite, argumentsLite};
     }
@@ -665,12 +678,13 @@ public abstract class TalkingRuleOrConstraint {
                 continue;
             }
 
-            String[] predDetails = StringUtils.split(atom, '(');
-            if (rag.getIgnoredPredicates().contains(predDetails[0])) {
+            AtomKey key = rag.getAtomKey(atom);
+            String predName = key.getPredicate();
+            if (rag.getIgnoredPredicates().contains(predName)) {
                 continue;
             }
-            PrintableAtom talkingAtom = new PrintableAtom(atom, nameToTalkingPredicate.get(predDetails[0]),
-                    predDetails[1].substring(0, predDetails[1].length() - 1).split(",\\s?"), rag.getValue(atom));
+            PrintableAtom talkingAtom = new PrintableAtom(atom, nameToTalkingPredicate.get(predName),
+                    key.getArgs(), rag.getValue(atom));
 
             if (atom.equals(contextAtom)) {
                 printableContextAtom = talkingAtom;
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.util.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Map from atom strings to belief values, using open addressing (linear probing) over
+ * parallel key and value arrays. The primitive accessors {@link #getValue(String, double)} and
+ * {@link #putValue(String, double)} avoid boxing.
+ * <p>
+ * {@link #entrySet()} and {@link #keySet()} iterate in the order of the keys, like the TreeMaps this class
+ * replaces. The sorted order is computed on the first iteration after keys were added or removed and kept
+ * until the next such change (changing the value of an existing key keeps it).
+ * {@link #forEachValue(ObjDoubleConsumer)} visits the entries in arbitrary order without sorting.
+ */
+public class BeliefMap extends AbstractMap<String, Double> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.6;
+    // marks removed entries, compared by reference
+    private static final String REMOVED = new String("<removed>");
+
+    private String[] keys;
+    private double[] values;
+    private int size;
+    // occupied slots, including removed entries
+    private int used;
+    // the keys in sorted order, null if keys were added or removed since it was computed;
+    // volatile, since it is built lazily by readers, which may iterate concurrently (e.g. explanation threads)
+    private volatile String[] sortedKeys;
+    // number of structural changes, for fail-fast iteration
+    private int modCount;
+
+    public BeliefMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BeliefMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize)
+            capacity <<= 1;
+        keys = new String[capacity];
+        values = new double[capacity];
+    }
+
+    public BeliefMap(Map<String, Double> map) {
+        this(map.size());
+        if (map instanceof BeliefMap) {
+            ((BeliefMap) map).forEachValue(this::putValue);
+        } else {
+            for (Map.Entry<String, Double> entry : map.entrySet()) {
+                putValue(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // slot of the key, or -1 if absent
+    private int slotOf(String key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k != REMOVED && k.equals(key))
+                return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public double getValue(String key, double defaultValue) {
+        int slot = slotOf(key);
+        return (slot < 0) ? defaultValue : values[slot];
+    }
+
+    /**
+     * @return the previous value, or NaN if the key was not present
+     */
+    public double putValue(String key, double value) {
+        if (key == null)
+            throw new NullPointerException("BeliefMap does not support null keys");
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        int free = -1;
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k == REMOVED) {
+                if (free < 0)
+                    free = i;
+            } else if (k.equals(key)) {
+                double old = values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        if (free < 0) {
+            free = i;
+            used++;
+        }
+        keys[free] = key;
+        values[free] = value;
+        size++;
+        sortedKeys = null;
+        modCount++;
+        if (used > keys.length * MAX_LOAD)
+            rehash(size > keys.length * MAX_LOAD / 2 ? keys.length << 1 : keys.length);
+        return Double.NaN;
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        double[] oldValues = values;
+        keys = new String[capacity];
+        values = new double[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            String k = oldKeys[j];
+            if (k == null || k == REMOVED)
+                continue;
+            int i = hash(k) & mask;
+            while (keys[i] != null)
+                i = (i + 1) & mask;
+            keys[i] = k;
+            values[i] = oldValues[j];
+        }
+        used = size;
+    }
+
+    private void removeSlot(int slot) {
+        keys[slot] = REMOVED;
+        size--;
+        sortedKeys = null;
+        modCount++;
+    }
+
+    public void forEachValue(ObjDoubleConsumer<String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            String k = keys[i];
+            if (k != null && k != REMOVED)
+                action.accept(k, values[i]);
+        }
+    }
+
+    private String[] getSortedKeys() {
+        String[] sorted = sortedKeys;
+        if (sorted == null) {
+            sorted = new String[size];
+            int n = 0;
+            for (String k : keys) {
+                if (k != null && k != REMOVED)
+                    sorted[n++] = k;
+            }
+            Arrays.sort(sorted);
+            sortedKeys = sorted;
+        }
+        return sorted;
+    }
+
+    /**
+     * @return a copy of the keys in sorted order (use {@link #keySet()} to iterate without copying)
+     */
+    public String[] sortedKeys() {
+        return getSortedKeys().clone();
+    }
+
+    public TreeMap<String, Double> toSortedMap() {
+        TreeMap<String, Double> sorted = new TreeMap<>();
+        forEachValue(sorted::put);
+        return sorted;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && slotOf((String) key) >= 0;
+    }
+
+    @Override
+    public Double get(Object key) {
+        if (!(key instanceof String))
+            return null;
+        int slot = slotOf((String) key);
+        return (slot < 0) ? null : values[slot];
+    }
+
+    @Override
+    public Double getOrDefault(Object key, Double defaultValue) {
+        if (!(key instanceof String))
+            return defaultValue;
+        int slot = slotOf((String) key);
+        return (slot < 0) ? defaultValue : values[slot];
+    }
+
+    @Override
+    public Double put(String key, Double value) {
+        if (value == null)
+            throw new NullPointerException("BeliefMap does not support null values (key: " + key + ")");
+        int slot = (key == null) ? -1 : slotOf(key);
+        if (slot >= 0) {
+            double old = values[slot];
+            values[slot] = value;
+            return old;
+        }
+        putValue(key, value);
+        return null;
+    }
+
+    @Override
+    public Double remove(Object key) {
+        if (!(key instanceof String))
+            return null;
+        int slot = slotOf((String) key);
+        if (slot < 0)
+            return null;
+        double old = values[slot];
+        removeSlot(slot);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+        used = 0;
+        sortedKeys = null;
+        modCount++;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Double>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Double>>() {
+            @Override
+            public Iterator<Map.Entry<String, Double>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new KeyIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                return BeliefMap.this.remove(o) != null;
+            }
+        };
+    }
+
+    // iterates over the sorted keys as of its creation
+    private class KeyIterator implements Iterator<String> {
+        final String[] order = getSortedKeys();
+        int expectedModCount = modCount;
+        int next = 0;
+        String last = null;
+
+        @Override
+        public boolean hasNext() {
+            return next < order.length;
+        }
+
+        @Override
+        public String next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (next >= order.length)
+                throw new NoSuchElementException();
+            last = order[next++];
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            BeliefMap.this.remove(last);
+            expectedModCount = modCount;
+            last = null;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, Double>> {
+        final KeyIterator keyIterator = new KeyIterator();
+
+        @Override
+        public boolean hasNext() {
+            return keyIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, Double> next() {
+            String key = keyIterator.next();
+            return new Entry(key, values[slotOf(key)]);
+        }
+
+        @Override
+        public void remove() {
+            keyIterator.remove();
+        }
+    }
+
+    private class Entry implements Map.Entry<String, Double> {
+        final String key;
+        // as of the creation of the entry or its last setValue(), so that it stays usable after the key is removed
+        double value;
+
+        Entry(String key, double value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Double getValue() {
+            return value;
+        }
+
+        @Override
+        public Double setValue(Double value) {
+            Double old = put(key, value);
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Double.valueOf(value).equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Double.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import de.tuebingen.sfs.psl.util.data.RankingEntry;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class PressureIndexTest extends TestCase {
+
+    private Set<String> groundings;
+    private Map<String, Double> status;
+    // the full scan and sort that the index replaces
+    private List<RankingEntry<String>> sorted;
+
+    @Override
+    protected void setUp() throws Exception {
+        Random random = new Random(3);
+        groundings = new HashSet<>();
+        status = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            String grounding = "rule" + random.nextInt(4) + "[" + i + "]";
+            groundings.add(grounding);
+            // few distinct values for many ties, and some groundings without a status
+            int value = random.nextInt(12);
+            if (value < 10)
+                status.put(grounding, (value == 0) ? -0.0 : value / 10.0);
+        }
+        sorted = new ArrayList<>();
+        for (String grounding : groundings) {
+            sorted.add(new RankingEntry<>(grounding, status.getOrDefault(grounding, 0.0)));
+        }
+        Collections.sort(sorted);
+    }
+
+    private static List<RankingEntry<String>> entries(PressureIndex index) {
+        List<RankingEntry<String>> entries = new ArrayList<>();
+        for (int i = 0; i < index.size(); i++) {
+            entries.add(new RankingEntry<>(index.getGrounding(i), index.getPressure(i)));
+        }
+        return entries;
+    }
+
+    private static List<RankingEntry<String>> above(List<RankingEntry<String>> entries, double minPressure) {
+        List<RankingEntry<String>> above = new ArrayList<>();
+        for (RankingEntry<String> entry : entries) {
+            if (entry.value > minPressure)
+                above.add(entry);
+        }
+        return above;
+    }
+
+    public void testOrderMatchesRankingEntries() {
+        assertEquals(sorted, entries(PressureIndex.build(groundings, status)));
+    }
+
+    public void testThresholdAndTopK() {
+        PressureIndex index = PressureIndex.build(groundings, status);
+        for (double minPressure : new double[]{-1.0, 0.0, 0.25, 0.5, 0.9, 1.0}) {
+            List<RankingEntry<String>> expected = above(sorted, minPressure);
+            assertEquals(expected, index.aboveThreshold(minPressure));
+            assertEquals(expected.size(), index.countAbove(minPressure));
+            for (int k : new int[]{0, 1, 7, 1000}) {
+                List<RankingEntry<String>> top = new ArrayList<>(expected);
+                Collections.reverse(top);
+                top = top.subList(0, Math.min(k, top.size()));
+                assertEquals(top, index.topK(k, minPressure));
+            }
+        }
+        double sum = 0.0;
+        for (RankingEntry<String> entry : sorted) {
+            if (entry.value >= 0.5)
+                sum += entry.value;
+        }
+        assertEquals(sum, index.sumAtLeast(0.5), 1e-9);
+    }
+
+    public void testGroupByRule() {
+        Map<String, PressureIndex> ruleToIndex = PressureIndex.build(groundings, status).groupByRule();
+        assertEquals(4, ruleToIndex.size());
+        for (Map.Entry<String, PressureIndex> entry : ruleToIndex.entrySet()) {
+            List<RankingEntry<String>> expected = new ArrayList<>();
+            for (RankingEntry<String> ranked : sorted) {
+                if (PressureIndex.ruleName(ranked.key).equals(entry.getKey()))
+                    expected.add(ranked);
+            }
+            assertEquals(expected, entries(entry.getValue()));
+        }
+    }
+
+    public void testEmpty() {
+        PressureIndex index = PressureIndex.build(new HashSet<>(), status);
+        assertEquals(0, index.size());
+        assertTrue(index.topK(5).isEmpty());
+        assertTrue(index.groupByRule().isEmpty());
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ProblemManagerTest extends TestCase {
+
+    private ProblemManager problemManager;
+    private DatabaseManager dbManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        problemManager = ProblemManager.defaultProblemManager();
+        dbManager = problemManager.getDbManager();
+    }
+
+    // variants of a problem write the same atoms, so they must give the same results as separate runs
+    public void testIsolatedVariantsMatchSequentialRuns() {
+        List<PslProblem> variants = new ArrayList<>();
+        variants.add(new WeightedPslProblem(dbManager, "VariantA", 1.0));
+        variants.add(new WeightedPslProblem(dbManager, "VariantB", 5.0));
+        assertTrue(problemManager.getPartitionManager().haveOverlappingWriteAtoms(variants));
+
+        List<List<InferenceResult>> isolated = problemManager.registerAndRunIsolated(variants,
+                problem -> () -> Collections.singletonList(problem.call()), 2);
+        assertEquals(2, isolated.size());
+
+        InferenceResult sequentialA = problemManager.registerAndRunProblem(
+                new WeightedPslProblem(dbManager, "SequentialA", 1.0));
+        InferenceResult sequentialB = problemManager.registerAndRunProblem(
+                new WeightedPslProblem(dbManager, "SequentialB", 5.0));
+        assertSameValues(sequentialA.getInferenceValues(), isolated.get(0).get(0).getInferenceValues());
+        assertSameValues(sequentialB.getInferenceValues(), isolated.get(1).get(0).getInferenceValues());
+        assertTrue(isolated.get(0).get(0).getInferenceValues().get("consequent(a)") > 0.9);
+        assertTrue(isolated.get(1).get(0).getInferenceValues().get("consequent(a)") < 0.1);
+    }
+
+    public void testRuleWeightsChangeResults() {
+        PslProblem problem = new WeightedPslProblem(dbManager, "Weights", 1.0);
+        List<Map<String, Double>> weightSettings = new ArrayList<>();
+        weightSettings.add(Collections.singletonMap("prior", 5.0));
+        // no overrides: the problem's own weights
+        weightSettings.add(new TreeMap<>());
+        List<InferenceResult> results = problemManager.registerAndRunIsolated(Arrays.asList(problem),
+                p -> () -> p.callForRuleWeights(weightSettings), 1).get(0);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getInferenceValues().get("consequent(a)") < 0.1);
+        assertTrue(results.get(1).getInferenceValues().get("consequent(a)") > 0.9);
+
+        // the weights are restored after each run
+        Map<String, Double> previousWeights = problem.setRuleWeights(Collections.singletonMap("prior", 1.0));
+        assertEquals(1.0, previousWeights.get("prior"), 0.0);
+    }
+
+    private static void assertSameValues(Map<String, Double> expected, Map<String, Double> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()), 1e-3);
+        }
+    }
+
+}
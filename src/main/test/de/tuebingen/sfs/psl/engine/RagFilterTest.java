@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class RagFilterTest extends TestCase {
+
+    public void testCanonicalAtoms() {
+        String canonical = "pred(a, b)";
+        assertSame(canonical, AtomKey.canonical(canonical));
+        assertEquals(canonical, AtomKey.canonical("pred(a,b)"));
+        assertEquals(canonical, AtomKey.canonical(" pred ( a ,  b ) "));
+        assertEquals("pred(a b, c)", AtomKey.canonical("pred(a b,c)"));
+        assertEquals("pred()", AtomKey.canonical("pred()"));
+        assertEquals("x", AtomKey.canonical(" x "));
+
+        AtomKey key = AtomKey.of("pred(a,b,c)");
+        assertEquals("pred", key.getPredicate());
+        assertEquals(3, key.getArity());
+        assertEquals("c", key.getArg(2));
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(key.getArgs()));
+        assertEquals(AtomKey.of("pred(a, b, c)"), key);
+    }
+
+    public void testAtomKeyPool() {
+        AtomKey.Pool pool = new AtomKey.Pool();
+        AtomKey key = pool.of("pred(a,b)");
+        assertSame(key, pool.of("pred(a, b)"));
+        assertSame(pool.canonical("pred( a,b)"), pool.canonical("pred(a, b)"));
+        // raw spellings are not stored
+        assertEquals(1, pool.size());
+        pool.clear();
+        assertEquals(0, pool.size());
+        assertEquals(key, pool.of("pred(a, b)"));
+
+        RagFilter filter = new RagFilter();
+        assertNotSame(filter.getAtomKeyPool(), new RagFilter().getAtomKeyPool());
+    }
+
+    public void testFixedAtomsAreCopiedAndCanonical() {
+        Set<String> fixed = new HashSet<>(Collections.singleton("p(a,b)"));
+        Set<String> hidden = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList("h(x,y)", "h(z)")));
+        RagFilter filter = new RagFilter(null, fixed, hidden);
+
+        // the caller's sets are left as they are
+        assertEquals(Collections.singleton("p(a,b)"), fixed);
+        assertEquals(new TreeSet<>(Arrays.asList("h(x,y)", "h(z)")), hidden);
+        fixed.add("q(c)");
+        assertFalse(filter.isFixed("q(c)"));
+
+        assertTrue(filter.isFixed("p(a, b)"));
+        assertTrue(filter.isFixed("p(a,b)"));
+        assertTrue(filter.isFixed(AtomKey.of("p(a,b)")));
+        assertEquals(new TreeSet<>(Arrays.asList("h(x, y)", "h(z)")), new TreeSet<>(filter.getHiddenAtoms()));
+
+        // atoms added later on are canonicalized as well
+        filter.getFixedAtoms().add("r(a,b)");
+        assertTrue(filter.isFixed("r(a, b)"));
+        assertTrue(filter.getFixedAtoms().contains("r(a, b)"));
+        assertTrue(filter.getFixedAtoms().remove("r( a,b )"));
+        assertFalse(filter.isFixed("r(a,b)"));
+        assertEquals(Collections.singleton("p(a, b)"), new HashSet<>(filter.getFixedAtoms()));
+    }
+
+    private static Map<String, Double> atomsWithArgumentByScan(Map<String, Double> beliefValues, int position,
+                                                               String argument) {
+        Map<String, Double> atoms = new TreeMap<>();
+        for (Map.Entry<String, Double> entry : beliefValues.entrySet()) {
+            AtomKey key = AtomKey.of(entry.getKey());
+            if (position < key.getArity() && key.getArg(position).equals(argument))
+                atoms.put(entry.getKey(), entry.getValue());
+        }
+        return atoms;
+    }
+
+    private static void assertIndexMatchesScan(RagFilter filter) {
+        Map<String, Double> values = new TreeMap<>(filter.getBeliefValues());
+        for (int position = 0; position < 3; position++) {
+            for (int arg = 0; arg < 6; arg++) {
+                assertEquals(atomsWithArgumentByScan(values, position, "c" + arg),
+                        filter.getAtomsWithArgument(position, "c" + arg));
+            }
+        }
+    }
+
+    // the index is kept up to date whichever way the belief values are changed
+    public void testArgumentIndexFollowsChanges() {
+        for (Map<String, Double> values : Arrays.<Map<String, Double>>asList(new TreeMap<>(), null)) {
+            RagFilter filter = new RagFilter(values);
+            Random random = new Random(5);
+            for (int round = 0; round < 2000; round++) {
+                String atom = "p(c" + random.nextInt(6) + ", c" + random.nextInt(6) + ")";
+                long version = filter.getVersion();
+                Map<String, Double> before = new TreeMap<>(filter.getBeliefValues());
+                switch (random.nextInt(4)) {
+                    case 0:
+                        filter.updateToneForAtom(atom, random.nextDouble());
+                        break;
+                    case 1:
+                        filter.getBeliefValues().put(atom, random.nextDouble());
+                        break;
+                    case 2:
+                        filter.getBeliefValues().remove(atom);
+                        break;
+                    default:
+                        filter.getBeliefValues().keySet().removeIf(key -> key.startsWith("p(c" + random.nextInt(6)));
+                }
+                if (!before.equals(filter.getBeliefValues()))
+                    assertTrue(filter.getVersion() > version);
+                if (round % 50 == 0)
+                    assertIndexMatchesScan(filter);
+            }
+            assertIndexMatchesScan(filter);
+
+            for (Iterator<Map.Entry<String, Double>> it = filter.getBeliefValues().entrySet().iterator();
+                 it.hasNext(); ) {
+                Map.Entry<String, Double> entry = it.next();
+                if (entry.getKey().contains("c1,"))
+                    it.remove();
+                else
+                    entry.setValue(0.5);
+            }
+            assertIndexMatchesScan(filter);
+            assertEquals(0.5, filter.getValueForAtom(filter.getBeliefValues().keySet().iterator().next()), 0.0);
+            filter.getBeliefValues().clear();
+            assertTrue(filter.getAtomsWithFirstArgument("c0").isEmpty());
+            filter.getBeliefValues().put("q(c0)", 1.0);
+            assertEquals(Collections.singletonMap("q(c0)", 1.0), filter.getAtomsWithFirstArgument("c0"));
+        }
+    }
+
+}
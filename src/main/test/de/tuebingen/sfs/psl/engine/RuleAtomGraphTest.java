@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+import junit.framework.TestCase;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class RuleAtomGraphTest extends TestCase {
+
+    private List<String> atoms;
+    private Map<String, GroundRuleData> groundings;
+    private BeliefMap values;
+    private Random random;
+
+    @Override
+    protected void setUp() throws Exception {
+        random = new Random(7);
+        atoms = new ArrayList<>();
+        values = new BeliefMap();
+        for (int i = 0; i < 12; i++) {
+            atoms.add("pred(x" + i + ")");
+            values.putValue(atoms.get(i), random.nextDouble());
+        }
+        groundings = new LinkedHashMap<>();
+        for (int i = 1; i <= 30; i++) {
+            String[] groundingAtoms = pickAtoms(2 + random.nextInt(2));
+            double[] signs = new double[groundingAtoms.length];
+            for (int j = 0; j < signs.length; j++) {
+                signs[j] = random.nextBoolean() ? 1.0 : -1.0;
+            }
+            groundings.put("logical[" + i + "]", new GroundRuleData(groundingAtoms, rendered(groundingAtoms.length),
+                    signs, null, 0.0, 0.5 + random.nextDouble()));
+        }
+        FunctionComparator[] comparators = FunctionComparator.values();
+        for (int i = 1; i <= 15; i++) {
+            String[] groundingAtoms = pickAtoms(3);
+            double[] coefficients = {1.0, -1.0, 0.5};
+            groundings.put("arithmetic[" + i + "]", new GroundRuleData(groundingAtoms,
+                    rendered(groundingAtoms.length), coefficients, comparators[i % comparators.length],
+                    random.nextDouble(), 1.0));
+        }
+    }
+
+    private String[] pickAtoms(int n) {
+        List<String> shuffled = new ArrayList<>(atoms);
+        Collections.shuffle(shuffled, random);
+        return shuffled.subList(0, n).toArray(new String[0]);
+    }
+
+    private static boolean[] rendered(int n) {
+        boolean[] rendered = new boolean[n];
+        Arrays.fill(rendered, true);
+        return rendered;
+    }
+
+    // evaluates every grounding from scratch
+    private RuleAtomGraph build(BeliefMap values) {
+        RuleAtomGraph rag = new RuleAtomGraph(new RagFilter(new BeliefMap(values)));
+        for (Map.Entry<String, GroundRuleData> entry : groundings.entrySet()) {
+            rag.addGrounding(entry.getKey(), entry.getValue());
+        }
+        return rag;
+    }
+
+    private static void assertSameEvaluation(RuleAtomGraph expected, RuleAtomGraph actual) {
+        assertEquals(expected.getGroundingNodes(), actual.getGroundingNodes());
+        assertEquals(expected.getEqualityGroundings(), actual.getEqualityGroundings());
+        for (String grounding : expected.getGroundingNodes()) {
+            assertEquals(grounding, expected.getGroundingStatus(grounding), actual.getGroundingStatus(grounding));
+            for (Tuple link : expected.getIncomingLinks(grounding)) {
+                assertEquals(link.toString(), expected.getLinkStatus(link), actual.getLinkStatus(link));
+                assertEquals(link.toString(), expected.getCounterfactual(link), actual.getCounterfactual(link));
+                double[] expectedEq = expected.getCounterfactualsForEqualityRule(link);
+                double[] actualEq = actual.getCounterfactualsForEqualityRule(link);
+                assertTrue(link.toString(), Arrays.equals(expectedEq, actualEq));
+            }
+        }
+        assertEquals(expected.getTotalDistanceToSatisfaction(), actual.getTotalDistanceToSatisfaction(), 1e-9);
+        Map<String, Double> expectedByRule = expected.getDistanceToSatisfactionByRule();
+        Map<String, Double> actualByRule = actual.getDistanceToSatisfactionByRule();
+        assertEquals(expectedByRule.keySet(), actualByRule.keySet());
+        for (Map.Entry<String, Double> entry : expectedByRule.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue(), actualByRule.get(entry.getKey()), 1e-9);
+        }
+    }
+
+    public void testUpdateValueMatchesFullEvaluation() {
+        RuleAtomGraph rag = build(values);
+        // computed before the updates, so that it is kept up to date incrementally
+        rag.getTotalDistanceToSatisfaction();
+        rag.getDistanceToSatisfactionByRule();
+        for (int round = 0; round < 100; round++) {
+            String atom = atoms.get(random.nextInt(atoms.size()));
+            double newValue = (random.nextInt(4) == 0) ? random.nextInt(2) : random.nextDouble();
+            long version = rag.getVersion();
+            assertEquals(values.getValue(atom, -1.0), rag.updateValue(atom, newValue), 0.0);
+            assertTrue(rag.getVersion() > version);
+            values.putValue(atom, newValue);
+            if (round % 10 == 9)
+                assertSameEvaluation(build(values), rag);
+        }
+    }
+
+    public void testDetachedGraphIsUpdated() {
+        RuleAtomGraph rag = build(values);
+        assertFalse(rag.isDetached());
+        new InferenceResult(rag).detach();
+        assertTrue(rag.isDetached());
+        try {
+            rag.getRuleForGrounding("logical[1]");
+            fail("ground rule of a detached graph requested");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertNotNull(rag.getGroundRuleData("logical[1]"));
+        for (int round = 0; round < 20; round++) {
+            String atom = atoms.get(random.nextInt(atoms.size()));
+            double newValue = random.nextDouble();
+            rag.updateValue(atom, newValue);
+            values.putValue(atom, newValue);
+        }
+        assertSameEvaluation(build(values), rag);
+    }
+
+    public void testRecomputeGroundingsForAtom() {
+        RuleAtomGraph rag = build(values);
+        String atom = atoms.get(0);
+        int linked = rag.getOutgoingLinks(atom).size();
+        assertEquals(linked, rag.recomputeGroundingsForAtom(atom));
+        assertEquals(0, rag.recomputeGroundingsForAtom("pred(unknown)"));
+    }
+
+    // breadth-first search over the whole graph: the groundings at most hops links away, with all their atoms
+    private static void assertIsNeighborhood(RuleAtomGraph rag, String node, int hops, RuleAtomGraph neighborhood) {
+        Map<String, Integer> dist = new HashMap<>();
+        LinkedList<String> agenda = new LinkedList<>();
+        dist.put(node, 0);
+        agenda.add(node);
+        while (!agenda.isEmpty()) {
+            String current = agenda.poll();
+            List<String> neighbors = new ArrayList<>();
+            if (rag.getAtomNodes().contains(current)) {
+                for (Tuple link : rag.getOutgoingLinks(current))
+                    neighbors.add(link.get(1));
+            } else {
+                for (Tuple link : rag.getIncomingLinks(current))
+                    neighbors.add(link.get(0));
+            }
+            for (String neighbor : neighbors) {
+                if (!dist.containsKey(neighbor)) {
+                    dist.put(neighbor, dist.get(current) + 1);
+                    agenda.add(neighbor);
+                }
+            }
+        }
+        Set<String> groundings = new TreeSet<>();
+        Set<String> atoms = new TreeSet<>();
+        if (rag.getAtomNodes().contains(node))
+            atoms.add(node);
+        for (String grounding : rag.getGroundingNodes()) {
+            if (dist.containsKey(grounding) && dist.get(grounding) <= hops) {
+                groundings.add(grounding);
+                for (Tuple link : rag.getIncomingLinks(grounding))
+                    atoms.add(link.get(0));
+            }
+        }
+        assertEquals(groundings, neighborhood.getGroundingNodes());
+        assertEquals(atoms, neighborhood.getAtomNodes());
+        for (String grounding : groundings) {
+            assertEquals(rag.getIncomingLinks(grounding), neighborhood.getIncomingLinks(grounding));
+            assertEquals(rag.getGroundingStatus(grounding), neighborhood.getGroundingStatus(grounding));
+        }
+    }
+
+    public void testNeighborhood() {
+        RuleAtomGraph rag = build(values);
+        for (int hops = 0; hops <= 4; hops++) {
+            assertIsNeighborhood(rag, atoms.get(3), hops, rag.getNeighborhood(atoms.get(3), hops));
+            assertIsNeighborhood(rag, "logical[5]", hops, rag.getNeighborhood("logical[5]", hops));
+        }
+        assertNull(rag.getNeighborhood("pred(unknown)", 2));
+        assertSame(rag.getRagFilter(), rag.getNeighborhood(atoms.get(3), 2).getRagFilter());
+    }
+
+    public void testNeighborhoodLimits() {
+        RuleAtomGraph rag = build(values);
+        String atom = atoms.get(0);
+        double minPressure = 0.1;
+        // the groundings of the atom above the threshold, highest pressure first
+        List<String> ranked = new ArrayList<>();
+        for (Tuple link : rag.getOutgoingLinks(atom)) {
+            if (rag.getGroundingStatus(link.get(1)) > minPressure)
+                ranked.add(link.get(1));
+        }
+        ranked.sort((a, b) -> {
+            int c = Double.compare(rag.getGroundingStatus(b), rag.getGroundingStatus(a));
+            return (c != 0) ? c : a.compareTo(b);
+        });
+        assertTrue(ranked.size() > 2);
+        assertEquals(ranked.size(), rag.countGroundingsForAtom(atom, minPressure));
+
+        RuleAtomGraph top = rag.getNeighborhood(atom, 1, 2, minPressure);
+        assertEquals(new TreeSet<>(ranked.subList(0, 2)), top.getGroundingNodes());
+
+        // pages of two groundings cover all of them exactly once
+        List<String> paged = new ArrayList<>();
+        for (int offset = 0; offset < ranked.size(); offset += 2) {
+            Set<String> page = rag.getNeighborhood(atom, 1, Integer.MAX_VALUE, minPressure, offset, 2)
+                    .getGroundingNodes();
+            assertEquals(new TreeSet<>(ranked.subList(offset, Math.min(offset + 2, ranked.size()))), page);
+            paged.addAll(page);
+        }
+        assertEquals(new HashSet<>(ranked), new HashSet<>(paged));
+        assertEquals(ranked.size(), paged.size());
+        assertTrue(rag.getNeighborhood(atom, 1, Integer.MAX_VALUE, minPressure, ranked.size(), 2)
+                .getGroundingNodes().isEmpty());
+    }
+
+    // the subgraph shares the filter, so value changes through it have to reach the full graph as well
+    public void testSubgraphUpdatesParent() {
+        RuleAtomGraph rag = build(values);
+        rag.getTotalDistanceToSatisfaction();
+        RuleAtomGraph neighborhood = rag.getNeighborhood(atoms.get(0), 2);
+        String atom = neighborhood.getAtomNodes().iterator().next();
+
+        long version = rag.getVersion();
+        long subVersion = neighborhood.getVersion();
+        neighborhood.updateValue(atom, 0.99);
+        values.putValue(atom, 0.99);
+        assertTrue(rag.getVersion() > version);
+        assertTrue(neighborhood.getVersion() > subVersion);
+        RuleAtomGraph expected = build(values);
+        assertSameEvaluation(expected, rag);
+        for (String grounding : neighborhood.getGroundingNodes()) {
+            assertEquals(expected.getGroundingStatus(grounding), neighborhood.getGroundingStatus(grounding));
+        }
+
+        // direct changes of the shared filter change the versions of both graphs
+        version = rag.getVersion();
+        subVersion = neighborhood.getVersion();
+        rag.getRagFilter().getBeliefValues().put(atom, 0.5);
+        assertTrue(rag.getVersion() > version);
+        assertTrue(neighborhood.getVersion() > subVersion);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.RankingEntry;
+import junit.framework.TestCase;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class SensitivityAnalysisTest extends TestCase {
+
+    private List<String> atoms;
+    private Map<String, GroundRuleData> groundings;
+    private BeliefMap values;
+
+    @Override
+    protected void setUp() throws Exception {
+        Random random = new Random(11);
+        atoms = new ArrayList<>();
+        values = new BeliefMap();
+        for (int i = 0; i < 8; i++) {
+            atoms.add("pred(x" + i + ")");
+            // some values at the bounds, where perturbations are cut off
+            double value = (i < 2) ? i : random.nextDouble();
+            values.putValue(atoms.get(i), value);
+        }
+        groundings = new LinkedHashMap<>();
+        for (int i = 1; i <= 20; i++) {
+            String[] groundingAtoms = {atoms.get(random.nextInt(8)), atoms.get(random.nextInt(8))};
+            double[] signs = {1.0, -1.0};
+            groundings.put("logical[" + i + "]", new GroundRuleData(groundingAtoms, new boolean[]{true, true},
+                    signs, null, 0.0, 0.5 + random.nextDouble()));
+        }
+        for (int i = 1; i <= 10; i++) {
+            String[] groundingAtoms = {atoms.get(random.nextInt(8)), atoms.get(random.nextInt(8))};
+            groundings.put("arithmetic[" + i + "]", new GroundRuleData(groundingAtoms, new boolean[]{true, true},
+                    new double[]{1.0, -0.5}, FunctionComparator.LTE, random.nextDouble() - 0.5, 1.0));
+        }
+        // an atom in two positions of the same grounding
+        groundings.put("twice[1]", new GroundRuleData(new String[]{atoms.get(3), atoms.get(3)},
+                new boolean[]{true, true}, new double[]{1.0, 1.0}, FunctionComparator.LTE, 0.8, 1.0));
+    }
+
+    private RuleAtomGraph build(BeliefMap values) {
+        RuleAtomGraph rag = new RuleAtomGraph(new RagFilter(new BeliefMap(values)));
+        for (Map.Entry<String, GroundRuleData> entry : groundings.entrySet()) {
+            rag.addGrounding(entry.getKey(), entry.getValue());
+        }
+        return rag;
+    }
+
+    private double totalDistanceWith(String atom, double value) {
+        BeliefMap changed = new BeliefMap(values);
+        changed.putValue(atom, value);
+        return build(changed).getTotalDistanceToSatisfaction();
+    }
+
+    // every delta is the same as the change in the total distance of a graph built with the perturbed value
+    public void testDeltasMatchRebuiltGraphs() {
+        RuleAtomGraph rag = build(values);
+        double total = rag.getTotalDistanceToSatisfaction();
+        SensitivityAnalysis analysis = SensitivityAnalysis.compute(rag);
+        double[] offsets = analysis.getOffsets();
+        assertTrue(Arrays.equals(SensitivityAnalysis.DEFAULT_OFFSETS, offsets));
+        assertEquals(rag.getAtomNodes().size(), analysis.size());
+        for (String atom : rag.getAtomNodes()) {
+            double value = values.get(atom);
+            for (int k = 0; k < offsets.length; k++) {
+                double lowered = totalDistanceWith(atom, Math.max(0.0, value - offsets[k]));
+                double raised = totalDistanceWith(atom, Math.min(1.0, value + offsets[k]));
+                assertEquals(atom + " -" + offsets[k], lowered - total, analysis.getLowerDelta(atom, k), 1e-9);
+                assertEquals(atom + " +" + offsets[k], raised - total, analysis.getRaiseDelta(atom, k), 1e-9);
+            }
+        }
+        assertFalse(analysis.contains("missing(x)"));
+        assertEquals(0.0, analysis.getLowerDelta("missing(x)", 0), 0.0);
+    }
+
+    public void testRankings() {
+        SensitivityAnalysis analysis = SensitivityAnalysis.compute(build(values), 0.1);
+        List<RankingEntry<String>> influence = analysis.rankAtomsByInfluence(0);
+        assertFalse(influence.isEmpty());
+        for (int i = 0; i < influence.size(); i++) {
+            String atom = influence.get(i).key;
+            double expected = Math.max(Math.abs(analysis.getLowerDelta(atom, 0)),
+                    Math.abs(analysis.getRaiseDelta(atom, 0)));
+            assertEquals(expected, influence.get(i).value, 0.0);
+            assertTrue(expected > 0.0);
+            if (i > 0)
+                assertTrue(influence.get(i - 1).value >= influence.get(i).value);
+        }
+        for (boolean raise : new boolean[]{false, true}) {
+            for (RankingEntry<String> entry : analysis.rankAtomsByImprovement(0, raise)) {
+                double delta = raise ? analysis.getRaiseDelta(entry.key, 0) : analysis.getLowerDelta(entry.key, 0);
+                assertEquals(-delta, entry.value, 0.0);
+                assertTrue(entry.value > 0.0);
+            }
+        }
+    }
+
+}
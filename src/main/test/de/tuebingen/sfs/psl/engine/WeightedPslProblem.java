@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.engine;
+
+import java.util.Set;
+
+public class WeightedPslProblem extends PslProblem {
+
+    private final double priorWeight;
+
+    // with the antecedent observed as true, consequent(a) is pushed up if the prior weight is below 2.0
+    // and down if it is above
+    public WeightedPslProblem(DatabaseManager dbManager, String name, double priorWeight) {
+        super(dbManager, name);
+        this.priorWeight = priorWeight;
+    }
+
+    @Override
+    public void declarePredicates() {
+        declareOpenPredicate("antecedent", 1);
+        declareOpenPredicate("consequent", 1);
+    }
+
+    @Override
+    public void pregenerateAtoms() {
+        addObservation("antecedent", 1.0, "a");
+        addObservation("antecedent", 0.0, "b");
+        addTarget("consequent", "a");
+        addTarget("consequent", "b");
+    }
+
+    @Override
+    public void addInteractionRules() {
+        addRule("prior", priorWeight + ": ~consequent(X)");
+        addRule("aToC", "2: antecedent(X) -> consequent(X)");
+    }
+
+    @Override
+    public Set<AtomTemplate> declareAtomsForCleanUp() {
+        return null;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.eval;
+
+import de.tuebingen.sfs.psl.engine.PslProblem;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+import junit.framework.TestCase;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class ModelEvaluatorTest extends TestCase {
+
+    private PredicateEvaluationTemplate knows;
+    private PredicateEvaluationTemplate lives;
+    // template, argument set name ("" for single atoms), arguments
+    private List<Object[]> gsRows;
+    private Map<String, Map<Tuple, Double>> tables;
+
+    @Override
+    protected void setUp() throws Exception {
+        knows = new PredicateEvaluationTemplate("knows", 2);
+        lives = new PredicateEvaluationTemplate("lives", 2);
+        Random random = new Random(42);
+        gsRows = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String[] args = {"p" + random.nextInt(10), "p" + random.nextInt(10)};
+            // about half of the knows entries are disjunctions of several atoms
+            String argSet = (random.nextBoolean()) ? "set" + random.nextInt(8) : "";
+            gsRows.add(new Object[]{knows, argSet, args});
+        }
+        for (int i = 0; i < 10; i++) {
+            gsRows.add(new Object[]{lives, "", new String[]{"p" + i, "city" + random.nextInt(3)}});
+        }
+
+        tables = new HashMap<>();
+        for (PredicateEvaluationTemplate pred : new PredicateEvaluationTemplate[]{knows, lives}) {
+            Map<Tuple, Double> table = new HashMap<>();
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < 10; j++) {
+                    String second = (pred == lives) ? "city" + (j % 3) : "p" + j;
+                    // few distinct values, so that there are ties at the thresholds
+                    table.put(new Tuple("p" + i, second), random.nextInt(20) / 20.0);
+                }
+            }
+            tables.put(pred.getName(), table);
+        }
+    }
+
+    private GoldStandard goldStandard() {
+        return new DisjunctiveGoldStandard(new RowIterator(new PredicateEvaluationTemplate[]{knows, lives}, gsRows));
+    }
+
+    private static Map<String, Map<Tuple, Double>> atOrAbove(Map<String, Map<Tuple, Double>> tables,
+                                                             double threshold) {
+        Map<String, Map<Tuple, Double>> filtered = new HashMap<>();
+        for (Map.Entry<String, Map<Tuple, Double>> table : tables.entrySet()) {
+            Map<Tuple, Double> rows = new HashMap<>();
+            for (Map.Entry<Tuple, Double> entry : table.getValue().entrySet()) {
+                if (entry.getValue() >= threshold)
+                    rows.put(entry.getKey(), entry.getValue());
+            }
+            filtered.put(table.getKey(), rows);
+        }
+        return filtered;
+    }
+
+    public void testThresholdCurveMatchesRerunPerThreshold() {
+        ModelEvaluator evaluator = new ModelEvaluator(tables, goldStandard());
+        evaluator.setIncludeThresholdEvaluation(true);
+        ModelEvaluator.Evaluation evaluation = evaluator.evaluate();
+        for (int p = 0; p < 2; p++) {
+            ThresholdCurve curve = evaluation.getThresholdCurve(p);
+            assertTrue(curve.size() > 1);
+            for (int i = 0; i < curve.size(); i++) {
+                double threshold = curve.getThreshold(i);
+                ModelEvaluator.Evaluation rerun = new ModelEvaluator(atOrAbove(tables, threshold), goldStandard())
+                        .evaluate();
+                int found = rerun.inGS[p];
+                int total = found + rerun.notFound.get(p).size();
+                assertEquals(curve.getNumberOfPositives(), total);
+                assertEquals("precision@" + threshold, ((double) found) / (found + rerun.notInGS[p]),
+                        curve.getPrecision(i), 1e-12);
+                assertEquals("recall@" + threshold, ((double) found) / total, curve.getRecall(i), 1e-12);
+            }
+        }
+    }
+
+    // a disjunctive GS entry is found by its atom with the highest belief, whatever the order of the table
+    public void testArgumentSetFoundByHighestBelief() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{knows, "s", new String[]{"a", "b"}});
+        rows.add(new Object[]{knows, "s", new String[]{"a", "c"}});
+        rows.add(new Object[]{knows, "s", new String[]{"a", "d"}});
+        Map<Tuple, Double> table = new HashMap<>();
+        table.put(new Tuple("a", "b"), 0.2);
+        table.put(new Tuple("a", "c"), 0.9);
+        table.put(new Tuple("a", "d"), 0.5);
+        table.put(new Tuple("x", "y"), 0.4);
+        Map<String, Map<Tuple, Double>> tables = new HashMap<>();
+        tables.put("knows", table);
+
+        GoldStandard gs = new DisjunctiveGoldStandard(
+                new RowIterator(new PredicateEvaluationTemplate[]{knows}, rows));
+        ModelEvaluator evaluator = new ModelEvaluator(tables, gs);
+        evaluator.setIncludeThresholdEvaluation(true);
+        ModelEvaluator.Evaluation evaluation = evaluator.evaluate();
+        assertEquals(1, evaluation.inGS[0]);
+        assertEquals(0.9, evaluation.found.get(0).get(new Tuple("a", "c")), 0.0);
+        // the other members of the set are neither found GS atoms nor non-GS atoms
+        assertEquals(1, evaluation.notInGS[0]);
+        ThresholdCurve curve = evaluation.getThresholdCurve(0);
+        assertEquals(2, curve.size());
+        assertEquals(0.9, curve.getThreshold(0), 0.0);
+        assertEquals(1.0, curve.getPrecision(0), 0.0);
+        assertEquals(0.5, curve.getPrecision(1), 0.0);
+    }
+
+    // the top non-GS atoms are the non-GS atoms with the highest beliefs, as many as there are found GS atoms
+    public void testTopNonGoldAtoms() {
+        ModelEvaluator evaluator = new ModelEvaluator(tables, goldStandard());
+        evaluator.setKeepNonGoldAtoms(true);
+        ModelEvaluator.Evaluation evaluation = evaluator.evaluate();
+        for (int p = 0; p < 2; p++) {
+            List<Map.Entry<Tuple, Double>> expected = new ArrayList<>(evaluation.foundNotInGS.get(p).entrySet());
+            expected.sort(Map.Entry.<Tuple, Double>comparingByValue().reversed()
+                    .thenComparing(Map.Entry.<Tuple, Double>comparingByKey().reversed()));
+            int k = Math.min(evaluation.inGS[p], evaluation.notInGS[p]);
+            assertTrue(k > 0);
+            assertEquals(expected.subList(0, k), evaluation.topFoundNotInGS.get(p));
+            assertEquals(k, evaluation.topNotInGS[p]);
+        }
+        // without the non-GS atoms and the belief values, the top atoms are the same
+        ModelEvaluator.Evaluation lean = new ModelEvaluator(tables, goldStandard()).evaluate();
+        assertEquals(evaluation.topFoundNotInGS, lean.topFoundNotInGS);
+        assertTrue(lean.foundNotInGS.get(0).isEmpty());
+        try {
+            lean.getThresholdCurve(0);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testDescendingOrder() {
+        double[] beliefs = {0.5, 1.0, -0.0, 0.5, 0.0, 0.25, 1.0};
+        assertTrue(Arrays.equals(new int[]{1, 6, 0, 3, 5, 4, 2},
+                ModelEvaluator.Evaluation.descendingOrder(beliefs)));
+        assertEquals(0, ModelEvaluator.Evaluation.descendingOrder(new double[0]).length);
+    }
+
+    static class RowIterator implements DisjunctiveGoldStandardIterator {
+
+        private final PredicateEvaluationTemplate[] predicates;
+        private final List<Object[]> rows;
+        private int i = -1;
+
+        RowIterator(PredicateEvaluationTemplate[] predicates, List<Object[]> rows) {
+            this.predicates = predicates;
+            this.rows = rows;
+        }
+
+        @Override
+        public PredicateEvaluationTemplate[] getPredicates() {
+            return predicates;
+        }
+
+        @Override
+        public boolean advance() {
+            return ++i < rows.size();
+        }
+
+        @Override
+        public PredicateEvaluationTemplate getPredicate() {
+            return (PredicateEvaluationTemplate) rows.get(i)[0];
+        }
+
+        @Override
+        public String getArgSet() {
+            return (String) rows.get(i)[1];
+        }
+
+        @Override
+        public String[] getArgs() {
+            return (String[]) rows.get(i)[2];
+        }
+
+        @Override
+        public void additionalEvaluation(PredicateEvaluationTemplate predicate, Set<Arguments> gs,
+                                         Map<Tuple, Double> foundAtoms, Map<Tuple, Double> foundNotInGSAtoms,
+                                         Set<Arguments> missingAtoms, PslProblem problem, PrintStream pStream) {
+        }
+
+        @Override
+        public List<ModelEvaluator.TabularEvaluationEntry> additionalTabularEvaluation(
+                PredicateEvaluationTemplate predicate, Set<Arguments> gs, Map<Tuple, Double> foundAtoms,
+                Map<Tuple, Double> foundNotInGSAtoms, Set<Arguments> missingAtoms, PslProblem problem,
+                PrintStream pStream) {
+            return new ArrayList<>();
+        }
+    }
+
+}
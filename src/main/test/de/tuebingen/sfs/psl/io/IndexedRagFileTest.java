@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class IndexedRagFileTest extends TestCase {
+
+    private InferenceResult result;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        result = SampleResults.result(4);
+        file = File.createTempFile("inference-result", ".rag");
+        IndexedRagFile.saveToFile(result, new TreeMap<>(), SampleResults.rules(), file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testSizes() throws Exception {
+        try (IndexedRagFile indexed = IndexedRagFile.open(file, 4)) {
+            RuleAtomGraph rag = indexed.getRag();
+            RuleAtomGraph original = result.getRag();
+            assertEquals(original.getAtomNodes().size(), indexed.getNumberOfAtoms());
+            assertEquals(original.getGroundingNodes().size(), indexed.getNumberOfGroundings());
+            assertEquals(original.getAtomNodes().size(), rag.getAtomNodes().size());
+            assertEquals(original.getGroundingNodes().size(), rag.getGroundingNodes().size());
+            assertEquals(original.getRagFilter().getBeliefValues().size(),
+                    rag.getRagFilter().getBeliefValues().size());
+            assertEquals(original.getRagFilter().getBeliefValues().keySet(),
+                    rag.getRagFilter().getBeliefValues().keySet());
+        }
+    }
+
+    public void testAtomsWithArgument() throws Exception {
+        try (IndexedRagFile indexed = IndexedRagFile.open(file, 4)) {
+            RagFilter filter = indexed.getRag().getRagFilter();
+            RagFilter original = result.getRag().getRagFilter();
+            assertEquals(original.getAtomsWithArgument(0, "a2"), filter.getAtomsWithArgument(0, "a2"));
+            assertEquals(original.getAtomsWithArgument(1, "b3"), filter.getAtomsWithArgument(1, "b3"));
+            assertTrue(filter.getAtomsWithArgument(1, "b3").size() > 1);
+        }
+    }
+
+    // changes are kept in memory, the file is not written to
+    public void testUpdateValue() throws Exception {
+        String atom = SampleResults.atom(2);
+        double oldValue = result.getRag().getValue(atom);
+        Map<String, Double> expected = new TreeMap<>(result.getRag().getRagFilter().getBeliefValues());
+        try (IndexedRagFile indexed = IndexedRagFile.open(file, 4)) {
+            RuleAtomGraph rag = indexed.getRag();
+            long version = rag.getVersion();
+            assertEquals(oldValue, rag.updateValue(atom, 0.25), 0.0);
+            assertTrue(rag.getVersion() > version);
+            assertEquals(0.25, rag.getValue(atom), 0.0);
+            rag.updateValue("added(a2)", 0.5);
+            Map<String, Double> beliefValues = rag.getRagFilter().getBeliefValues();
+            expected.put(atom, 0.25);
+            expected.put("added(a2)", 0.5);
+            assertEquals(expected, new TreeMap<>(beliefValues));
+            assertEquals(expected.size(), beliefValues.size());
+            assertEquals(0.5, rag.getRagFilter().getAtomsWithArgument(0, "a2").get("added(a2)"), 0.0);
+            beliefValues.remove("added(a2)");
+            assertFalse(beliefValues.containsKey("added(a2)"));
+            assertEquals(expected.size() - 1, beliefValues.size());
+        }
+        try (IndexedRagFile indexed = IndexedRagFile.open(file, 4)) {
+            assertEquals(oldValue, indexed.getRag().getValue(atom), 0.0);
+        }
+    }
+
+    // the cache only holds a few records, added links must outlive them
+    public void testAddLinkAfterEviction() throws Exception {
+        String atom = SampleResults.atom(2);
+        String grounding = null;
+        for (String candidate : result.getRag().getGroundingNodes()) {
+            if (result.getRag().getOutgoingLinks(atom).stream().noneMatch(link -> link.get(1).equals(candidate))) {
+                grounding = candidate;
+                break;
+            }
+        }
+        assertNotNull(grounding);
+        try (IndexedRagFile indexed = IndexedRagFile.open(file, 4)) {
+            RuleAtomGraph rag = indexed.getRag();
+            int nOutgoing = rag.getOutgoingLinks(atom).size();
+            int nIncoming = rag.getIncomingLinks(grounding).size();
+            Tuple link = rag.addLink(atom, grounding);
+            for (String other : rag.getAtomNodes()) {
+                rag.getOutgoingLinks(other);
+            }
+            for (String other : rag.getGroundingNodes()) {
+                rag.getIncomingLinks(other);
+            }
+            assertTrue(rag.getOutgoingLinks(atom).contains(link));
+            assertEquals(nOutgoing + 1, rag.getOutgoingLinks(atom).size());
+            assertTrue(rag.getIncomingLinks(grounding).contains(link));
+            assertEquals(nIncoming + 1, rag.getIncomingLinks(grounding).size());
+        }
+        try (IndexedRagFile indexed = IndexedRagFile.open(file, 4)) {
+            assertFalse(indexed.getRag().getIncomingLinks(grounding).contains(new Tuple(atom, grounding)));
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.TreeMap;
+
+public class InferenceResultBinaryIoTest extends TestCase {
+
+    private InferenceResult result;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        result = SampleResults.result(1);
+        file = File.createTempFile("inference-result", ".bin");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testIsBinaryFormat() throws Exception {
+        InferenceResultBinaryIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), file);
+        assertTrue(InferenceResultBinaryIo.isBinaryFormat(file));
+    }
+
+    public void testTsvIsNotBinary() throws Exception {
+        try (OutputStream out = new FileOutputStream(file)) {
+            InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, out);
+        }
+        assertFalse(InferenceResultBinaryIo.isBinaryFormat(file));
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * Writes sample results in every format and checks that reading them back gives the same results.
+ * The format-specific features are tested in the tests of the single formats.
+ */
+public class InferenceResultFormatsTest extends TestCase {
+
+    private interface RoundTrip {
+        InferenceResult apply(InferenceResult result, File file) throws Exception;
+    }
+
+    private File file;
+    private int chunkSize;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("inference-result", ".tmp");
+        chunkSize = ParallelInferenceResultReader.CHUNK_SIZE;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ParallelInferenceResultReader.CHUNK_SIZE = chunkSize;
+        file.delete();
+    }
+
+    private static Map<String, RoundTrip> formats() {
+        Map<String, RoundTrip> formats = new LinkedHashMap<>();
+        for (int level : new int[]{Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION}) {
+            formats.put("TSV stream, gzip level " + level, (result, file) -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, out, true, level);
+                return InferenceResultIo.fromFile(null, new ByteArrayInputStream(out.toByteArray()), null, null);
+            });
+        }
+        formats.put("TSV stream", (result, file) -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, out);
+            return InferenceResultIo.fromFile(null, new ByteArrayInputStream(out.toByteArray()), null, null);
+        });
+        formats.put("TSV file, gzip", (result, file) -> {
+            InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, file, true);
+            return InferenceResultIo.fromFile(null, file.getPath(), null, null);
+        });
+        // chunk boundaries fall in the middle of sections and lines
+        for (int size : new int[]{1, 37, 500, 4096, ParallelInferenceResultReader.CHUNK_SIZE}) {
+            formats.put("TSV file, parallel reader with chunk size " + size, (result, file) -> {
+                InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, file);
+                ParallelInferenceResultReader.CHUNK_SIZE = size;
+                return ParallelInferenceResultReader.fromFile(file, null, null);
+            });
+        }
+        // compressed files are read sequentially
+        formats.put("TSV file, gzip, parallel reader", (result, file) -> {
+            InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, file, true);
+            ParallelInferenceResultReader.CHUNK_SIZE = 100;
+            return ParallelInferenceResultReader.fromFile(file, null, null);
+        });
+        formats.put("binary stream", (result, file) -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            InferenceResultBinaryIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), out);
+            return InferenceResultBinaryIo.fromFile(new ByteArrayInputStream(out.toByteArray()), null, null);
+        });
+        formats.put("binary file", (result, file) -> {
+            InferenceResultBinaryIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), file);
+            return InferenceResultBinaryIo.fromFile(file, null, null);
+        });
+        formats.put("JSON stream", (result, file) -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            InferenceResultJsonIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, out);
+            return InferenceResultJsonIo.fromFile(null, new ByteArrayInputStream(out.toByteArray()), null, null);
+        });
+        formats.put("JSON file", (result, file) -> {
+            ObjectMapper mapper = new ObjectMapper();
+            InferenceResultJsonIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), mapper, file);
+            return InferenceResultJsonIo.fromFile(mapper, file, null, null);
+        });
+        formats.put("history", (result, file) -> {
+            new InferenceResultHistory(result, new TreeMap<>(), SampleResults.rules(), 4).saveToFile(file);
+            return InferenceResultHistory.fromFile(file, null, SampleResults.rules()).getVersion(0);
+        });
+        return formats;
+    }
+
+    public void testRoundTrips() throws Exception {
+        for (long seed = 1; seed <= 3; seed++) {
+            InferenceResult result = SampleResults.result(seed);
+            for (Map.Entry<String, RoundTrip> format : formats().entrySet()) {
+                SampleResults.assertSameResult(format.getKey() + ", seed " + seed, result,
+                        format.getValue().apply(result, file));
+            }
+        }
+    }
+
+    // the indexed file only stores the graph, so the inference values are the belief values
+    public void testIndexedRoundTrip() throws Exception {
+        for (long seed = 1; seed <= 3; seed++) {
+            InferenceResult result = SampleResults.result(seed);
+            IndexedRagFile.saveToFile(result, new TreeMap<>(), SampleResults.rules(), file);
+            // a small cache, so that records are evicted and loaded again
+            InferenceResult read = IndexedRagFile.fromFile(file, null, null, 4);
+            try {
+                SampleResults.assertSameResult("seed " + seed, new InferenceResult(result.getRag()), read);
+            } finally {
+                ((LazyRuleAtomGraph) read.getRag()).close();
+            }
+        }
+    }
+
+}
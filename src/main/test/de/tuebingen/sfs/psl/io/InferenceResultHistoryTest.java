@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class InferenceResultHistoryTest extends TestCase {
+
+    private static final int VERSIONS = 11;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("inference-result", ".psld");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+    }
+
+    // value changes in every version, a smaller graph every few versions
+    private static InferenceResult version(int k) {
+        InferenceResult result = SampleResults.result(7);
+        RuleAtomGraph rag = result.getRag();
+        for (int i = 0; i < k; i++) {
+            rag.getRagFilter().getBeliefValues().put(SampleResults.atom((k * 7 + i) % 40), (k + i) % 10 * 0.1);
+        }
+        if (k % 5 == 3) {
+            Set<String> atoms = new TreeSet<>();
+            Set<String> groundings = new TreeSet<>();
+            for (int g = 1; g <= 20; g++) {
+                groundings.add("r[" + g + "]");
+                atoms.add(SampleResults.atom(g - 1));
+            }
+            rag = rag.subgraph(atoms, groundings);
+            // the subgraph shares the filter, but only the values of its atoms are stored
+            rag.getRagFilter().getBeliefValues().keySet().retainAll(atoms);
+        }
+        Map<String, Double> inferenceValues = new TreeMap<>(result.getInferenceValues());
+        inferenceValues.put("extra(z)", k * 0.1);
+        if (k % 3 == 1)
+            inferenceValues.remove(SampleResults.atom(2));
+        return new InferenceResult(rag, inferenceValues);
+    }
+
+    private static void assertSameVersions(InferenceResultHistory history) throws Exception {
+        assertEquals(VERSIONS, history.getLatestVersion());
+        for (int k = 0; k <= VERSIONS; k++) {
+            SampleResults.assertSameResult(version(k), history.getVersion(k));
+        }
+    }
+
+    public void testVersionsInMemory() throws Exception {
+        // versions between checkpoints are rebuilt from the deltas
+        InferenceResultHistory history = new InferenceResultHistory(version(0), new TreeMap<>(),
+                SampleResults.rules(), 4);
+        for (int k = 1; k <= VERSIONS; k++) {
+            assertEquals(k, history.addVersion(version(k)));
+        }
+        assertSameVersions(history);
+        // versions can be read in any order
+        SampleResults.assertSameResult(version(5), history.getVersion(5));
+        SampleResults.assertSameResult(version(0), history.getVersion(0));
+    }
+
+    public void testAddedResultsCanBeModified() throws Exception {
+        InferenceResultHistory history = new InferenceResultHistory(version(0), new TreeMap<>(),
+                SampleResults.rules(), 4);
+        List<InferenceResult> added = new ArrayList<>();
+        for (int k = 1; k <= VERSIONS; k++) {
+            InferenceResult result = version(k);
+            history.addVersion(result);
+            added.add(result);
+        }
+        for (InferenceResult result : added) {
+            result.getRag().getRagFilter().getBeliefValues().put(SampleResults.atom(4), 0.123);
+            result.getInferenceValues().clear();
+        }
+        assertSameVersions(history);
+    }
+
+    public void testFileRoundTrip() throws Exception {
+        InferenceResultHistory history = new InferenceResultHistory(version(0), new TreeMap<>(),
+                SampleResults.rules(), 4);
+        history.saveToFile(file);
+        for (int k = 1; k <= VERSIONS; k++) {
+            InferenceResultHistory.appendToFile(file, history.getDelta(history.addVersion(version(k))));
+        }
+        assertSameVersions(InferenceResultHistory.fromFile(file, null, SampleResults.rules()));
+
+        // saving the whole history at once gives the same file
+        File saved = File.createTempFile("inference-result", ".psld");
+        try {
+            history.saveToFile(saved);
+            assertEquals(file.length(), saved.length());
+            assertSameVersions(InferenceResultHistory.fromFile(saved, null, SampleResults.rules()));
+        } finally {
+            saved.delete();
+        }
+    }
+
+    public void testInvalidCheckpointInterval() {
+        try {
+            new InferenceResultHistory(version(0), null, SampleResults.rules(), 0);
+            fail("checkpoint interval 0 accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
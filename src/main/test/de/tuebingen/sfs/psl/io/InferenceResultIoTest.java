@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+public class InferenceResultIoTest extends TestCase {
+
+    private InferenceResult result;
+
+    @Override
+    protected void setUp() throws Exception {
+        result = SampleResults.result(2);
+    }
+
+    private byte[] write(boolean gzip, int compressionLevel) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InferenceResultIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), null, out, gzip,
+                compressionLevel);
+        return out.toByteArray();
+    }
+
+    private static InferenceResult read(byte[] bytes) {
+        return InferenceResultIo.fromFile(null, new ByteArrayInputStream(bytes), null, null);
+    }
+
+    // compressed input is detected when reading
+    public void testGzipRoundTrip() throws Exception {
+        byte[] plain = write(false, Deflater.DEFAULT_COMPRESSION);
+        for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+            byte[] compressed = write(true, level);
+            assertEquals(0x1f, compressed[0] & 0xff);
+            assertEquals(0x8b, compressed[1] & 0xff);
+            assertTrue(compressed.length < plain.length);
+            SampleResults.assertSameResult(result, read(compressed));
+        }
+    }
+
+    // reading and writing again gives the same file
+    public void testWriteIsStable() throws Exception {
+        byte[] written = write(false, Deflater.DEFAULT_COMPRESSION);
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        InferenceResultIo.saveToFile(read(written), new TreeMap<>(), SampleResults.rules(), null, rewritten);
+        assertEquals(new String(written, "UTF-8"), rewritten.toString("UTF-8"));
+    }
+
+}
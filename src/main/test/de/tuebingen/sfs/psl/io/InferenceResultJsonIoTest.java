@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.TreeMap;
+
+public class InferenceResultJsonIoTest extends TestCase {
+
+    private InferenceResult result;
+
+    @Override
+    protected void setUp() throws Exception {
+        result = SampleResults.result(5);
+    }
+
+    private byte[] write(ObjectMapper mapper) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InferenceResultJsonIo.saveToFile(result, new TreeMap<>(), SampleResults.rules(), mapper, out);
+        return out.toByteArray();
+    }
+
+    // the streamed output is a regular JSON document
+    public void testOutputIsValidJson() throws Exception {
+        JsonNode root = new ObjectMapper().readTree(write(new ObjectMapper()));
+        assertTrue(root.isObject());
+        assertTrue(root.has("filter"));
+        assertEquals(result.getInferenceValues().size(), root.get("values").size());
+    }
+
+    // fields written by later versions are skipped
+    public void testUnknownFieldsAreSkipped() throws Exception {
+        String json = new String(write(null), "UTF-8");
+        json = "{\"comment\": {\"nested\": [1, 2, {\"a\": null}]}, " + json.substring(1);
+        InferenceResult read = InferenceResultJsonIo.fromFile(null,
+                new ByteArrayInputStream(json.getBytes("UTF-8")), null, null);
+        SampleResults.assertSameResult(result, read);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.io;
+
+import de.tuebingen.sfs.psl.engine.InferenceResult;
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.rule.TalkingLogicalRule;
+import de.tuebingen.sfs.psl.talk.rule.TalkingRuleOrConstraint;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import de.tuebingen.sfs.psl.util.data.Tuple;
+import junit.framework.Assert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Random inference results for the serialization tests, compared via their TSV serialization.
+ */
+final class SampleResults {
+
+    private SampleResults() {
+    }
+
+    static String atom(int i) {
+        return (i % 2 == 0) ? "pred(a" + i + ", b" + (i % 5) + ")" : "other(x" + i + ")";
+    }
+
+    static InferenceResult result(long seed) {
+        Random random = new Random(seed);
+        int nAtoms = 40;
+        Set<String> atomNodes = new TreeSet<>();
+        Map<String, String> atomStatus = new TreeMap<>();
+        BeliefMap beliefValues = new BeliefMap();
+        for (int i = 0; i < nAtoms; i++) {
+            atomNodes.add(atom(i));
+            if (random.nextInt(5) == 0)
+                atomStatus.put(atom(i), "f");
+            beliefValues.putValue(atom(i), random.nextInt(3) == 0 ? random.nextInt(2) : random.nextDouble());
+        }
+
+        Set<String> groundingNodes = new TreeSet<>();
+        Map<String, Double> groundingStatus = new TreeMap<>();
+        Set<String> equalityGroundings = new TreeSet<>();
+        Set<Tuple> links = new TreeSet<>();
+        Map<Tuple, String> linkStatus = new TreeMap<>();
+        Map<Tuple, Double> counterfactuals = new TreeMap<>();
+        Map<Tuple, double[]> equalityCounterfactuals = new TreeMap<>();
+        Map<Tuple, Double> strength = new TreeMap<>();
+        Map<String, Set<Tuple>> outgoingLinks = new TreeMap<>();
+        Map<String, List<Tuple>> incomingLinks = new TreeMap<>();
+        for (int g = 1; g <= 70; g++) {
+            boolean equality = g > 60;
+            String grounding = equality ? "eq[" + (g - 60) + "]" : "r[" + g + "]";
+            groundingNodes.add(grounding);
+            groundingStatus.put(grounding, random.nextBoolean() ? 0.0 : random.nextDouble());
+            if (equality)
+                equalityGroundings.add(grounding);
+            Set<Integer> linked = new TreeSet<>();
+            // every atom is linked, as in graphs built from ground rules
+            // (the TSV format only stores the belief values of linked atoms)
+            if (!equality)
+                linked.add((g - 1) % nAtoms);
+            int nLinked = equality ? 2 : 2 + random.nextInt(2);
+            while (linked.size() < nLinked) {
+                linked.add(random.nextInt(nAtoms));
+            }
+            for (int i : linked) {
+                Tuple link = new Tuple(atom(i), grounding);
+                links.add(link);
+                if (equality) {
+                    linkStatus.put(link, "=");
+                    equalityCounterfactuals.put(link, new double[]{random.nextDouble(), random.nextDouble()});
+                } else {
+                    linkStatus.put(link, random.nextBoolean() ? "+" : "-");
+                    counterfactuals.put(link, random.nextDouble());
+                }
+                if (random.nextBoolean())
+                    strength.put(link, random.nextDouble());
+                outgoingLinks.computeIfAbsent(atom(i), atom -> new TreeSet<>()).add(link);
+                incomingLinks.computeIfAbsent(grounding, key -> new ArrayList<>()).add(link);
+            }
+        }
+
+        Set<String> fixedAtoms = new HashSet<>();
+        fixedAtoms.add(atom(0));
+        fixedAtoms.add(atom(3));
+        Set<String> hiddenAtoms = new HashSet<>();
+        hiddenAtoms.add(atom(1));
+        RagFilter filter = new RagFilter(beliefValues, fixedAtoms, hiddenAtoms);
+        RuleAtomGraph rag = new RuleAtomGraph(groundingNodes, groundingStatus, equalityGroundings, atomNodes,
+                atomStatus, links, linkStatus, counterfactuals, equalityCounterfactuals, strength, outgoingLinks,
+                incomingLinks, filter);
+
+        Map<String, Double> inferenceValues = new TreeMap<>();
+        for (int i = 0; i < nAtoms; i += 2) {
+            inferenceValues.put(atom(i), beliefValues.getValue(atom(i), 0.0));
+        }
+        inferenceValues.put("extra(z)", random.nextDouble());
+        return new InferenceResult(rag, inferenceValues);
+    }
+
+    static Map<String, TalkingRuleOrConstraint> rules() {
+        Map<String, TalkingRuleOrConstraint> rules = new TreeMap<>();
+        rules.put("r", new TalkingLogicalRule("r", 1.0, "pred(X,Y) >> other(Y)"));
+        rules.put("eq", new TalkingLogicalRule("eq", 1.0, "pred(X,Y) >> other(X)"));
+        return rules;
+    }
+
+    static String tsv(InferenceResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InferenceResultIo.saveToFile(result, new TreeMap<>(), rules(), null, out);
+        return out.toString("UTF-8");
+    }
+
+    static void assertSameResult(InferenceResult expected, InferenceResult actual) throws IOException {
+        assertSameResult(null, expected, actual);
+    }
+
+    static void assertSameResult(String message, InferenceResult expected, InferenceResult actual)
+            throws IOException {
+        Assert.assertNotNull(message, actual);
+        Assert.assertEquals(message, expected.getInferenceValues(), actual.getInferenceValues());
+        Assert.assertEquals(message, expected.getRag().getRagFilter().getBeliefValues(),
+                actual.getRag().getRagFilter().getBeliefValues());
+        Assert.assertEquals(message, tsv(expected), tsv(actual));
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.talk.rule;
+
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.talk.ConstantRenderer;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class ExplanationCacheTest extends TestCase {
+
+    private AtomicInteger generated;
+
+    @Override
+    protected void setUp() throws Exception {
+        generated = new AtomicInteger();
+    }
+
+    private Supplier<String> explanation(String text) {
+        return () -> {
+            generated.incrementAndGet();
+            return text;
+        };
+    }
+
+    public void testHitsAndKeys() {
+        ExplanationCache cache = new ExplanationCache();
+        ConstantRenderer renderer = new ConstantRenderer() {
+        };
+        assertEquals("a", cache.get(1, null, "R[1]", "p(a)", true, explanation("a")));
+        assertEquals("a", cache.get(1, null, "R[1]", "p(a)", true, explanation("other")));
+        assertEquals(1, generated.get());
+        assertEquals(1, cache.getHits());
+        // every part of the key counts
+        assertEquals("b", cache.get(1, null, "R[1]", "p(a)", false, explanation("b")));
+        assertEquals("c", cache.get(1, null, "R[1]", "p(b)", true, explanation("c")));
+        assertEquals("d", cache.get(1, null, "R[2]", "p(a)", true, explanation("d")));
+        assertEquals("e", cache.get(1, renderer, "R[1]", "p(a)", true, explanation("e")));
+        assertEquals("f", cache.get(1, null, "R[1]", null, true, explanation("f")));
+        assertEquals("f", cache.get(1, null, "R[1]", null, true, explanation("other")));
+        assertEquals(6, generated.get());
+        assertEquals(6, cache.getMisses());
+        assertEquals(6, cache.size());
+        // explanations that could not be generated are not cached
+        assertNull(cache.get(1, null, "R[3]", "p(a)", true, explanation(null)));
+        assertNull(cache.get(1, null, "R[3]", "p(a)", true, explanation(null)));
+        assertEquals(8, generated.get());
+        cache.invalidate();
+        assertEquals(0, cache.size());
+    }
+
+    public void testCapacity() {
+        ExplanationCache cache = new ExplanationCache(2);
+        cache.get(1, null, "R[1]", "p(a)", true, explanation("a"));
+        cache.get(1, null, "R[2]", "p(a)", true, explanation("b"));
+        // the least recently used one is evicted
+        cache.get(1, null, "R[1]", "p(a)", true, explanation("a"));
+        cache.get(1, null, "R[3]", "p(a)", true, explanation("c"));
+        assertEquals(2, cache.size());
+        assertEquals(3, generated.get());
+        cache.get(1, null, "R[1]", "p(a)", true, explanation("a"));
+        assertEquals(3, generated.get());
+        cache.get(1, null, "R[2]", "p(a)", true, explanation("b"));
+        assertEquals(4, generated.get());
+    }
+
+    public void testNewVersionInvalidates() {
+        ExplanationCache cache = new ExplanationCache();
+        cache.get(1, null, "R[1]", "p(a)", true, explanation("old"));
+        assertEquals("new", cache.get(2, null, "R[1]", "p(a)", true, explanation("new")));
+        assertEquals(1, cache.size());
+        // explanations for an older version are passed on, but not cached
+        assertEquals("older", cache.get(1, null, "R[1]", "p(a)", true, explanation("older")));
+        assertEquals(1, cache.size());
+        assertEquals("new", cache.get(2, null, "R[1]", "p(a)", true, explanation("other")));
+    }
+
+    // changes of the graph's belief values, also through a subgraph or the filter, give the graph a new version
+    public void testVersionOfGraph() {
+        BeliefMap values = new BeliefMap();
+        values.putValue("p(a)", 0.5);
+        values.putValue("q(a)", 0.5);
+        RuleAtomGraph rag = new RuleAtomGraph(new RagFilter(values));
+        rag.addLink("p(a)", "R[1]");
+        rag.addLink("q(a)", "R[1]");
+        ExplanationCache cache = rag.getExplanationCache();
+        cache.get(rag.getVersion(), null, "R[1]", "p(a)", true, explanation("a"));
+        cache.get(rag.getVersion(), null, "R[1]", "p(a)", true, explanation("a"));
+        assertEquals(1, generated.get());
+
+        rag.updateValue("p(a)", 0.7);
+        cache.get(rag.getVersion(), null, "R[1]", "p(a)", true, explanation("a"));
+        assertEquals(2, generated.get());
+
+        rag.getRagFilter().getBeliefValues().put("q(a)", 0.1);
+        cache.get(rag.getVersion(), null, "R[1]", "p(a)", true, explanation("a"));
+        assertEquals(3, generated.get());
+
+        RuleAtomGraph subgraph = rag.subgraph(rag.getAtomNodes(), rag.getGroundingNodes());
+        subgraph.updateValue("q(a)", 0.2);
+        cache.get(rag.getVersion(), null, "R[1]", "p(a)", true, explanation("a"));
+        assertEquals(4, generated.get());
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.talk.rule;
+
+import de.tuebingen.sfs.psl.engine.RagFilter;
+import de.tuebingen.sfs.psl.engine.RuleAtomGraph;
+import de.tuebingen.sfs.psl.util.data.BeliefMap;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class TalkingRuleOrConstraintTest extends TestCase {
+
+    // without a PSL rule, the arguments come from the rule string, where comparisons are not atoms of the RAG
+    @SuppressWarnings("rawtypes")
+    public void testComponentsOfRuleWithComparison() {
+        TalkingLogicalConstraint rule = new TalkingLogicalConstraint("Knows",
+                "knows(A, B) & (A != B) -> likes(A, B)");
+        assertTrue(Arrays.equals(new String[]{"knows(A, B)", "likes(A, B)"}, rule.getArgs()));
+        assertEquals(3, rule.getRuleTemplate().size());
+
+        BeliefMap values = new BeliefMap();
+        values.putValue("knows(a, b)", 0.8);
+        values.putValue("likes(a, b)", 0.3);
+        RuleAtomGraph rag = new RuleAtomGraph(new RagFilter(values));
+        rag.addLink("knows(a, b)", "Knows[1]");
+        rag.addLink("likes(a, b)", "Knows[1]");
+
+        Map[] components = rule.getComponents("Knows[1]", rag);
+        assertEquals("knows(a, b)", components[0].get("knows"));
+        assertEquals("likes(a, b)", components[0].get("likes"));
+        assertEquals(0.8, (Double) components[1].get("knows"), 0.0);
+        assertTrue(Arrays.equals(new String[]{"a", "b"}, (String[]) components[2].get("likes")));
+        assertEquals(0.3, (Double) rule.getDetailedComponentsInclClosed("Knows[1]", rag)[1].get("likes(a, b)"),
+                0.0);
+
+        // groundings with fewer linked atoms than the rule string (e.g. of atoms that are not rendered)
+        rag.addLink("knows(a, b)", "Knows[2]");
+        components = rule.getComponents("Knows[2]", rag);
+        assertEquals(1, components[0].size());
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2018–2022 University of Tübingen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tuebingen.sfs.psl.util.data;
+
+import junit.framework.TestCase;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BeliefMapTest extends TestCase {
+
+    private static String atom(int i) {
+        return "pred(a" + i + ", b" + (i % 7) + ")";
+    }
+
+    public void testPutGetRemove() {
+        BeliefMap map = new BeliefMap();
+        assertNull(map.put("pred(a, b)", 0.5));
+        assertEquals(0.5, map.put("pred(a, b)", 0.7), 0.0);
+        assertEquals(0.7, map.get("pred(a, b)"), 0.0);
+        assertEquals(1, map.size());
+        assertTrue(Double.isNaN(map.putValue("pred(b, c)", 0.1)));
+        assertEquals(0.1, map.putValue("pred(b, c)", 0.2), 0.0);
+        assertEquals(0.7, map.remove("pred(a, b)"), 0.0);
+        assertNull(map.remove("pred(a, b)"));
+        assertFalse(map.containsKey("pred(a, b)"));
+        assertEquals(-1.0, map.getValue("pred(a, b)", -1.0), 0.0);
+        assertNull(map.get(42));
+        assertEquals(1, map.size());
+    }
+
+    public void testRejectsNull() {
+        BeliefMap map = new BeliefMap();
+        try {
+            map.put("pred(a, b)", null);
+            fail("null value accepted");
+        } catch (NullPointerException e) {
+            assertTrue(e.getMessage().contains("null values"));
+        }
+        try {
+            map.putValue(null, 0.5);
+            fail("null key accepted");
+        } catch (NullPointerException e) {
+            assertTrue(e.getMessage().contains("null keys"));
+        }
+        assertEquals(0, map.size());
+    }
+
+    // removed entries must not hide keys further along the probe sequence, and their slots are reused
+    public void testRemoveAndReinsertMatchesTreeMap() {
+        BeliefMap map = new BeliefMap();
+        TreeMap<String, Double> expected = new TreeMap<>();
+        Random random = new Random(1);
+        for (int round = 0; round < 20000; round++) {
+            String key = atom(random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                double value = random.nextDouble();
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    public void testResizing() {
+        BeliefMap map = new BeliefMap(2);
+        for (int i = 0; i < 10000; i++) {
+            map.putValue(atom(i), i / 10000.0);
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i / 10000.0, map.getValue(atom(i), -1.0), 0.0);
+        }
+        // many removals followed by insertions of new keys: removed slots are cleaned up on rehash
+        for (int i = 0; i < 10000; i += 2) {
+            map.remove(atom(i));
+        }
+        for (int i = 10000; i < 15000; i++) {
+            map.putValue(atom(i), 1.0);
+        }
+        assertEquals(10000, map.size());
+        assertFalse(map.containsKey(atom(0)));
+        assertTrue(map.containsKey(atom(1)));
+        assertTrue(map.containsKey(atom(14999)));
+    }
+
+    public void testIterationIsSorted() {
+        BeliefMap map = new BeliefMap();
+        TreeMap<String, Double> expected = new TreeMap<>();
+        for (int i = 200; i > 0; i--) {
+            map.putValue(atom(i), i);
+            expected.put(atom(i), (double) i);
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(map.keySet()));
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+
+        // value changes keep the order, new keys are sorted in
+        map.putValue(atom(5), 0.5);
+        map.putValue("a(first)", 0.0);
+        expected.put(atom(5), 0.5);
+        expected.put("a(first)", 0.0);
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+        assertEquals("a(first)", map.keySet().iterator().next());
+        assertEquals(expected.toString(), map.toString());
+        assertEquals(expected, map.toSortedMap());
+    }
+
+    public void testEntrySetModification() {
+        BeliefMap map = new BeliefMap();
+        for (int i = 0; i < 100; i++) {
+            map.putValue(atom(i), i);
+        }
+        for (Iterator<Map.Entry<String, Double>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Double> entry = it.next();
+            if (entry.getValue() % 2 == 0)
+                it.remove();
+            else
+                entry.setValue(entry.getValue() + 1000);
+        }
+        assertEquals(50, map.size());
+        for (Map.Entry<String, Double> entry : map.entrySet()) {
+            assertTrue(entry.getValue() > 1000);
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        map.keySet().remove(atom(1));
+        assertEquals(49, map.size());
+        assertFalse(map.containsKey(atom(1)));
+    }
+
+    public void testIterationFailsFast() {
+        BeliefMap map = new BeliefMap();
+        map.putValue(atom(1), 0.1);
+        map.putValue(atom(2), 0.2);
+        Iterator<String> it = map.keySet().iterator();
+        it.next();
+        map.putValue(atom(3), 0.3);
+        try {
+            it.next();
+            fail("iterator did not detect the modification");
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+    }
+
+    public void testCopyConstructor() {
+        Map<String, Double> source = new TreeMap<>();
+        for (int i = 0; i < 50; i++) {
+            source.put(atom(i), i * 0.01);
+        }
+        BeliefMap copy = new BeliefMap(source);
+        assertEquals(source, copy);
+        BeliefMap copyOfCopy = new BeliefMap(copy);
+        copy.clear();
+        assertEquals(0, copy.size());
+        assertEquals(source, copyOfCopy);
+    }
+
+    public void testEntryAfterRemoval() {
+        BeliefMap map = new BeliefMap();
+        map.putValue(atom(1), 0.25);
+        Map.Entry<String, Double> entry = map.entrySet().iterator().next();
+        map.remove(atom(1));
+        Map.Entry<String, Double> expected = new AbstractMap.SimpleEntry<>(atom(1), 0.25);
+        assertEquals(0.25, entry.getValue(), 0.0);
+        assertEquals(expected, entry);
+        assertEquals(entry, expected);
+        assertEquals(expected.hashCode(), entry.hashCode());
+
+        // setValue writes through and updates the entry
+        assertNull(entry.setValue(0.75));
+        assertEquals(0.75, map.get(atom(1)), 0.0);
+        assertEquals(0.75, entry.getValue(), 0.0);
+    }
+
+    // the sorted key order is built lazily by whichever thread iterates first
+    public void testConcurrentIteration() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 20; round++) {
+                BeliefMap map = new BeliefMap();
+                TreeMap<String, Double> expected = new TreeMap<>();
+                for (int i = 0; i < 2000; i++) {
+                    map.putValue(atom(i), i);
+                    expected.put(atom(i), (double) i);
+                }
+                List<Future<List<String>>> keyLists = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    keyLists.add(executor.submit(() -> new ArrayList<>(map.keySet())));
+                }
+                for (Future<List<String>> keys : keyLists) {
+                    assertEquals(new ArrayList<>(expected.keySet()), keys.get());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}